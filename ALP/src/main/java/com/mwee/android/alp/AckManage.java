@@ -1,15 +1,12 @@
 package com.mwee.android.alp;
 
-import android.os.SystemClock;
-import android.util.Pair;
-
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.Executor;
 
 import timber.log.Timber;
 
 /**
- * @Description: 回执消息管理
+ * @Description: 客户端的回执消息管理，跨链路共享；超时由时间轮触发，精度为一个刻度，
+ * 等待中的消息数不设上限，每条消息只占一个索引项和一个定时任务，回调在指定的线程里执行
  * @author: Xiaolong
  * @Date: 2018/9/19
  */
@@ -17,94 +14,81 @@ public class AckManage {
 
     /**
      * 回执缓存的最大数
+     *
+     * @deprecated 等待中的消息数不再设上限
      */
+    @Deprecated
     public static final int ACK_MAX_SIZE = 40;
-    private boolean isFinish = false;
 
+    private final AckTracker tracker;
+    /**
+     * 自己创建的时间轮，{@link #setFinish(boolean)}时停止；和其他定时任务共用时为空
+     */
+    private final TimingWheel ownWheel;
 
+    /**
+     * 使用自己的时间轮，回调在回执到达或超时的线程里执行
+     */
     public AckManage() {
-        ackThread.start();
-    }
-
-    public void setFinish(boolean finish) {
-        isFinish = finish;
+        this.ownWheel = new TimingWheel("AlpAckLoop", 100, 512);
+        this.tracker = new AckTracker(ownWheel, Runnable::run);
     }
 
     /**
-     * 消息id和回执回调的map
+     * @param wheel    TimingWheel | 超时的时间轮，和其他定时任务共用
+     * @param executor Executor | 执行回调的线程，不能是读写线程
      */
-    private LinkedHashMap<String, Pair<Long, Ack>> ackMap = new LinkedHashMap<String, Pair<Long, Ack>>(0, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, Pair<Long, Ack>> eldest) {
-            // 超过设置的缓存 ACK 最大长度，移除最旧的
-            if (size() > ACK_MAX_SIZE) {
-                String uniq = eldest.getKey();
-                Ack ack = eldest.getValue().second;
-                Timber.i("超出 ACK 缓存的最大长度，消息[" + uniq + "]不再等待回执");
-                if (ack != null) {
-                    ack.callback(uniq, AckStatus.UnKnow);
-                }
-                return true;
-            }
-            return false;
-        }
-    };
+    AckManage(TimingWheel wheel, Executor executor) {
+        this.ownWheel = null;
+        this.tracker = new AckTracker(wheel, executor);
+    }
+
     /**
-     * 消息回执的轮询, 5秒一次删除过期的
+     * 结束超时检测，只对{@link #AckManage()}创建的实例有效
+     *
+     * @param finish boolean
+     * @deprecated 共用时间轮的实例随时间轮一起结束，不需要调用
      */
-    private Thread ackThread = new Thread("AlpAckLoop") {
-        @Override
-        public void run() {
-            super.run();
-            while (!isFinish) {
-                try {
-                    Thread.sleep(5 * 1000);
-                } catch (InterruptedException e) {
-                    Timber.e(e);
-                }
-                if (ackMap.size() == 0) {
-                    continue;
-                }
-                synchronized (ackMap) {
-                    for (String uniq : ackMap.keySet()) {
-                        long timestamp = ackMap.get(uniq).first;
-                        Ack ack = ackMap.get(uniq).second;
-                        if (SystemClock.elapsedRealtime() - timestamp < ack.timeout()) {
-                            continue;
-                        }
-                        Timber.i("loop for ack, message [" + uniq + "] timeout");
-                        ack.callback(uniq, AckStatus.Timeout);
-                        ackMap.remove(uniq);
-                    }
-                }
-            }
+    @Deprecated
+    public void setFinish(boolean finish) {
+        if (finish && ownWheel != null) {
+            ownWheel.stop();
         }
-    };
+    }
 
     /**
      * 移除回执
-     * @param msgValue
+     *
+     * @param msgValue String | 消息id
      */
     public void removeAck(String msgValue) {
-        synchronized (ackMap) {
-            Timber.i("Receive ack for message [" + msgValue + "]");
-            if (ackMap.containsKey(msgValue)) {
-                ackMap.get(msgValue).second.callback(msgValue, AckStatus.Success);
-            }
-            ackMap.remove(msgValue);
-        }
+        Timber.i("Receive ack for message [" + msgValue + "]");
+        tracker.complete(msgValue, AckStatus.Success);
     }
 
     /**
      * add ack
-     * @param uniq
-     * @param ack
+     *
+     * @param uniq String | 消息id
+     * @param ack  Ack | 为空时不等待回执
      */
     public void addAck(String uniq, Ack ack) {
-        if (ack != null) {
-            synchronized (ackMap) {
-                ackMap.put(uniq, new Pair<>(SystemClock.elapsedRealtime(), ack));
-            }
-        }
+        tracker.add(uniq, ack);
+    }
+
+    /**
+     * 取消等待，不回调，消息没有发出时调用
+     *
+     * @param uniq String | 消息id
+     */
+    public void cancelAck(String uniq) {
+        tracker.remove(uniq);
+    }
+
+    /**
+     * @return int | 等待回执的消息数
+     */
+    public int size() {
+        return tracker.size();
     }
 }
@@ -34,4 +34,9 @@ public @interface AckStatus {
      * 超时
      */
     int Timeout = 2;
+
+    /**
+     * 开启自动重发后，重发次数用完仍未收到回执；或者消息超过最大长度，没有推送
+     */
+    int Failed = 3;
 }
@@ -0,0 +1,156 @@
+package com.mwee.android.alp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 一条链路上等待回执的消息，超时由时间轮触发，回执、超时、断开都是O(1)，每条消息只回调一次；
+ * 指定了回调线程时，回调不在读写线程和时间轮线程里执行
+ * @author: Xiaolong
+ * @Date: 2018/10/15
+ */
+class AckTracker {
+
+    /**
+     * 一条等待回执的消息
+     */
+    private static final class Pending {
+        private final Ack ack;
+        private TimingWheel.Timeout timeout;
+
+        private Pending(Ack ack) {
+            this.ack = ack;
+        }
+    }
+
+    private final TimingWheel wheel;
+    /**
+     * 执行回调的线程，为空时在调用方线程里回调
+     */
+    private final Executor executor;
+    private final ConcurrentHashMap<String, Pending> pendingMap = new ConcurrentHashMap<>();
+
+    protected AckTracker(TimingWheel wheel) {
+        this(wheel, null);
+    }
+
+    /**
+     * @param wheel    TimingWheel | 超时的时间轮，为空时不超时
+     * @param executor Executor | 执行回调的线程，为空时在调用方线程里回调
+     */
+    protected AckTracker(TimingWheel wheel, Executor executor) {
+        this.wheel = wheel;
+        this.executor = executor;
+    }
+
+    /**
+     * 开始等待回执，超过{@link Ack#timeout()}回调{@link AckStatus#Timeout}
+     *
+     * @param uniq String | 消息id
+     * @param ack  Ack
+     */
+    public void add(final String uniq, Ack ack) {
+        if (ack == null) {
+            return;
+        }
+        final Pending pending = new Pending(ack);
+        Pending old = pendingMap.put(uniq, pending);
+        if (old != null) {
+            // 相同的消息id重复推送，之前的不再等待
+            finish(uniq, old, AckStatus.UnKnow);
+        }
+        if (wheel != null) {
+            pending.timeout = wheel.newTimeout(() -> {
+                if (pendingMap.remove(uniq, pending)) {
+                    Timber.i("ack for message [" + uniq + "] timeout");
+                    callback(uniq, pending.ack, AckStatus.Timeout);
+                }
+            }, ack.timeout());
+        }
+    }
+
+    /**
+     * 结束等待
+     *
+     * @param uniq   String | 消息id
+     * @param status int | {@link AckStatus}
+     * @return boolean | false：消息不在等待中
+     */
+    public boolean complete(String uniq, @AckStatus int status) {
+        if (uniq == null) {
+            return false;
+        }
+        Pending pending = pendingMap.remove(uniq);
+        if (pending == null) {
+            return false;
+        }
+        finish(uniq, pending, status);
+        return true;
+    }
+
+    /**
+     * 取消等待，不回调，消息没有发出时调用
+     *
+     * @param uniq String | 消息id
+     * @return boolean | false：消息不在等待中
+     */
+    public boolean remove(String uniq) {
+        if (uniq == null) {
+            return false;
+        }
+        Pending pending = pendingMap.remove(uniq);
+        if (pending == null) {
+            return false;
+        }
+        if (pending.timeout != null) {
+            pending.timeout.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * 结束所有等待，链路断开时调用
+     *
+     * @param status int | {@link AckStatus}
+     */
+    public void completeAll(@AckStatus int status) {
+        if (pendingMap.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(pendingMap.keySet());
+        for (String uniq : keys) {
+            complete(uniq, status);
+        }
+    }
+
+    public int size() {
+        return pendingMap.size();
+    }
+
+    private void finish(String uniq, Pending pending, int status) {
+        if (pending.timeout != null) {
+            pending.timeout.cancel();
+        }
+        callback(uniq, pending.ack, status);
+    }
+
+    private void callback(final String uniq, final Ack ack, final int status) {
+        if (executor != null) {
+            executor.execute(() -> invoke(uniq, ack, status));
+        } else {
+            invoke(uniq, ack, status);
+        }
+    }
+
+    private static void invoke(String uniq, Ack ack, int status) {
+        try {
+            ack.callback(uniq, status);
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+}
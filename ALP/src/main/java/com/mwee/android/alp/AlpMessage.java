@@ -11,6 +11,11 @@ public class AlpMessage {
 
     public String message = "";
 
+    /**
+     * 字节消息，不为空时代替{@link #message}
+     */
+    public byte[] payload = null;
+
     public Ack ack = null;
 
     public AlpMessage() {
@@ -0,0 +1,38 @@
+package com.mwee.android.alp;
+
+import java.util.Map;
+
+/**
+ * @Description: 广播回执，所有链路都有结果后回调一次
+ * @author: Xiaolong
+ * @Date: 2018/10/15
+ */
+public abstract class BroadcastAck {
+
+    /**
+     * 每条链路的超时时长, 默认 5 秒
+     *
+     * @return
+     */
+    public long timeout() {
+        return 5 * 1000;
+    }
+
+    /**
+     * 单条链路的回执结果
+     *
+     * @param uniq   消息id
+     * @param target 链路注册的名称，未注册的链路为远端地址
+     * @param status 回执状态
+     */
+    public void targetCallback(String uniq, String target, @AckStatus int status) {
+    }
+
+    /**
+     * 所有链路都有结果后回调
+     *
+     * @param uniq    消息id
+     * @param results 每条链路的回执状态，key为链路注册的名称，未注册的链路为远端地址
+     */
+    public abstract void callback(String uniq, Map<String, Integer> results);
+}
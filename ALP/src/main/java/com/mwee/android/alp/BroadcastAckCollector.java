@@ -0,0 +1,69 @@
+package com.mwee.android.alp;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 汇总一次广播在每条链路上的回执结果
+ * @author: Xiaolong
+ * @Date: 2018/10/15
+ */
+class BroadcastAckCollector {
+    private final String uniq;
+    private final BroadcastAck ack;
+    private final Map<String, Integer> results = new ConcurrentHashMap<>();
+    private final AtomicInteger remaining;
+
+    /**
+     * @param uniq     String | 消息id
+     * @param ack      BroadcastAck
+     * @param expected int | 参与广播的链路数
+     */
+    protected BroadcastAckCollector(String uniq, BroadcastAck ack, int expected) {
+        this.uniq = uniq;
+        this.ack = ack;
+        this.remaining = new AtomicInteger(expected);
+        if (expected <= 0) {
+            ack.callback(uniq, Collections.<String, Integer>emptyMap());
+        }
+    }
+
+    /**
+     * 生成单条链路的回执
+     *
+     * @param target String | 链路名称
+     * @return Ack
+     */
+    public Ack forTarget(final String target) {
+        return new Ack() {
+            @Override
+            public long timeout() {
+                return ack.timeout();
+            }
+
+            @Override
+            public void callback(String uniq, int status) {
+                onResult(target, status);
+            }
+        };
+    }
+
+    private void onResult(String target, int status) {
+        // 同一链路重复回调时（例如回执和超时先后到达）只保留并计入第一次的结果
+        if (results.putIfAbsent(target, status) != null) {
+            return;
+        }
+        try {
+            ack.targetCallback(uniq, target, status);
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+        if (remaining.decrementAndGet() == 0) {
+            ack.callback(uniq, Collections.unmodifiableMap(results));
+        }
+    }
+}
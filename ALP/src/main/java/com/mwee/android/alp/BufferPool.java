@@ -0,0 +1,141 @@
+package com.mwee.android.alp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Description: 按大小分级的缓冲池，编码、解码、发送都从这里租借缓冲，避免每条消息分配新的数组；
+ * 堆内和直接缓冲各一个池，超过最大分级的缓冲直接分配，释放后交给GC
+ * @author: Xiaolong
+ * @Date: 2018/10/17
+ */
+class BufferPool {
+    /**
+     * 分级的大小：64、256、1K、4K、16K、64K
+     */
+    private static final int[] SIZE_CLASSES = {64, 256, 1024, 4 * 1024, 16 * 1024, 64 * 1024};
+    /**
+     * 每个分级最多缓存的字节数
+     */
+    private static final int MAX_BYTES_PER_CLASS = 256 * 1024;
+    /**
+     * 每个分级最多缓存的个数
+     */
+    private static final int MAX_COUNT_PER_CLASS = 256;
+
+    private static final BufferPool HEAP = new BufferPool(false);
+    private static final BufferPool DIRECT = new BufferPool(true);
+
+    /**
+     * 一个分级的空闲缓冲，用数组实现的栈，入栈出栈都不分配对象
+     */
+    private static final class Stack {
+        private final PooledBuffer[] elements;
+        private int size = 0;
+
+        private Stack(int capacity) {
+            elements = new PooledBuffer[capacity];
+        }
+
+        private synchronized PooledBuffer pop() {
+            if (size == 0) {
+                return null;
+            }
+            PooledBuffer buffer = elements[--size];
+            elements[size] = null;
+            return buffer;
+        }
+
+        private synchronized boolean push(PooledBuffer buffer) {
+            if (size == elements.length) {
+                return false;
+            }
+            elements[size++] = buffer;
+            return true;
+        }
+    }
+
+    private final boolean direct;
+    private final Stack[] stacks = new Stack[SIZE_CLASSES.length];
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    /**
+     * 已租出尚未归还的缓冲数
+     */
+    private final AtomicLong outstanding = new AtomicLong(0);
+
+    private BufferPool(boolean direct) {
+        this.direct = direct;
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            stacks[i] = new Stack(Math.min(MAX_COUNT_PER_CLASS, MAX_BYTES_PER_CLASS / SIZE_CLASSES[i]));
+        }
+    }
+
+    /**
+     * 堆内缓冲池，用于解码和阻塞流的写出
+     */
+    public static BufferPool heap() {
+        return HEAP;
+    }
+
+    /**
+     * 直接缓冲池，用于非阻塞通道的写出
+     */
+    public static BufferPool direct() {
+        return DIRECT;
+    }
+
+    /**
+     * 租借缓冲
+     *
+     * @param capacity int | 至少需要的容量
+     * @return PooledBuffer | 引用计数为1，position为0，limit为容量
+     */
+    public PooledBuffer acquire(int capacity) {
+        outstanding.incrementAndGet();
+        int sizeClass = sizeClassOf(capacity);
+        if (sizeClass < 0) {
+            misses.incrementAndGet();
+            return new PooledBuffer(this, allocate(capacity), -1).reset();
+        }
+        PooledBuffer buffer = stacks[sizeClass].pop();
+        if (buffer != null) {
+            hits.incrementAndGet();
+            return buffer.reset();
+        }
+        misses.incrementAndGet();
+        return new PooledBuffer(this, allocate(SIZE_CLASSES[sizeClass]), sizeClass).reset();
+    }
+
+    /**
+     * 引用计数归零的缓冲归还到所属的分级，分级已满时交给GC
+     *
+     * @param buffer PooledBuffer
+     */
+    void recycle(PooledBuffer buffer) {
+        outstanding.decrementAndGet();
+        if (buffer.sizeClass >= 0) {
+            stacks[buffer.sizeClass].push(buffer);
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClassOf(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return PoolMetrics | 当前的统计
+     */
+    public PoolMetrics metrics() {
+        return new PoolMetrics(direct, hits.get(), misses.get(), outstanding.get());
+    }
+}
@@ -3,30 +3,60 @@ package com.mwee.android.alp;
 
 import android.text.TextUtils;
 
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
 /**
- * @Description: 客户端
+ * @Description: 客户端的一条链路，非阻塞连接，读写由{@link PushClient}持有的{@link SelectorLoop}驱动，不独占线程；
+ * 重连时只创建新的链路对象，事件循环、回执管理和缓冲池都沿用
  * @author: Xiaolong
  * @Date: 2018/9/19
  */
-class Client {
-    private static final Object lock = new Object();
-    public boolean isDisconnected = false;
-    private Socket socket = null;
-    private InputStream in;
-    private OutputStream out;
-    private AckManage ackManage;
+class Client implements SelectorLoop.ISelectHandler {
+    /**
+     * 连接超时，毫秒
+     */
+    private static final int CONNECT_TIMEOUT = 3000;
+    public volatile boolean isDisconnected = false;
+    private SocketChannel channel = null;
+    /**
+     * 已连接，连接完成前推送的消息直接失败
+     */
+    private volatile boolean connected = false;
+    /**
+     * 链路已结束，包括连接失败
+     */
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private final AckManage ackManage;
+    /**
+     * 驱动读写的事件循环，跨链路共享
+     */
+    private final SelectorLoop loop;
+    /**
+     * 连接超时的定时器，跨链路共享
+     */
+    private final TimingWheel timer;
+    private volatile TimingWheel.Timeout connectTimeout = null;
+    /**
+     * 发送队列，推送只入队，由事件循环在可写时写出
+     */
+    private final OutboundQueue outboundQueue = new OutboundQueue();
+    /**
+     * 是否已关注可写事件
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
     /**
      * 手动终止
      */
-    private boolean callFinish = false;
+    private volatile boolean callFinish = false;
     /**
      * 客户端的监听
      */
@@ -35,108 +65,239 @@ class Client {
      * 当前客户端的名称
      */
     private String name;
+    /**
+     * 最后收到的带序号的消息，跨链路共享，用于重连后恢复会话
+     */
+    private final AtomicLong lastSeq;
+    /**
+     * 发现序号不连续后已经请求补发，等待服务端的恢复结果
+     */
+    private volatile boolean resuming = false;
+    /**
+     * 推送时使用的协议版本，第一次心跳交换后确定
+     */
+    private volatile int version = FrameCodec.VERSION_LEGACY;
+    /**
+     * 服务端是否同意Deflate压缩，第一次心跳交换后确定
+     */
+    private volatile boolean deflate = false;
+    /**
+     * 业务消息体达到这个字节数时压缩，小于等于0时不压缩
+     */
+    private volatile int compressThreshold = Server.DEFAULT_COMPRESS_THRESHOLD;
+    /**
+     * 按消息头拆分消息，读缓冲从缓冲池租用，链路结束后归还给下一条链路
+     */
+    private final FrameDecoder decoder = new FrameDecoder(4 * 1024, FrameCodec.MAX_FRAME_LENGTH);
+    /**
+     * 正在接收的流，只在事件循环线程里访问
+     */
+    private final InboundStreams inboundStreams = new InboundStreams();
+    /**
+     * 正在发送的流，只在事件循环线程里访问
+     */
+    private final ArrayDeque<OutboundStream> outboundStreams = new ArrayDeque<>();
+    /**
+     * 请求和响应，跨链路共享，为空时不支持
+     */
+    private final RpcEndpoint rpc;
+    /**
+     * 需要回执的消息的去重窗口，跨链路共享
+     */
+    private final DedupWindow dedup;
 
-
-    protected Client() {
-        ackManage = new AckManage();
+    /**
+     * @param lastSeq   AtomicLong | 最后收到的消息序号，跨链路共享
+     * @param rpc       RpcEndpoint | 请求和响应，跨链路共享，可以为空
+     * @param dedup     DedupWindow | 需要回执的消息的去重窗口，跨链路共享
+     * @param ackManage AckManage | 等待服务端回执的消息，跨链路共享
+     * @param loop      SelectorLoop | 驱动读写的事件循环，跨链路共享
+     * @param timer     TimingWheel | 连接超时的定时器，跨链路共享
+     */
+    protected Client(AtomicLong lastSeq, RpcEndpoint rpc, DedupWindow dedup, AckManage ackManage, SelectorLoop loop, TimingWheel timer) {
+        this.lastSeq = lastSeq;
+        this.rpc = rpc;
+        this.dedup = dedup;
+        this.ackManage = ackManage;
+        this.loop = loop;
+        this.timer = timer;
     }
 
     /**
-     * 启动客户端的连接
+     * 发起非阻塞连接，立即返回；连接结果通过{@link IMoniter#connected()}、{@link IMoniter#disconnected(boolean)}回调
      *
-     * @param address  String
-     * @param port     int
+     * @param address  InetSocketAddress | 调用方已经解析好的地址，事件循环线程里不做域名解析；未解析的地址按连接失败处理
      * @param receiver IMoniter
      */
-    public void startConnect(String address, int port, IMoniter receiver) {
-        callFinish = false;
+    public void startConnect(final InetSocketAddress address, IMoniter receiver) {
         this.receiver = receiver;
-        socket = new Socket();
-        try {
-            Timber.i("Client startClient()  " + address + ":" + port);
-
-            socket.connect(new InetSocketAddress(address, port), 3000);
-            socket.setKeepAlive(true);
-            in = socket.getInputStream();
-            out = socket.getOutputStream();
-            if (receiver != null) {
-                receiver.connected();
+        Timber.i("Client startClient()  " + address);
+        connectTimeout = timer.newTimeout(() -> loop.execute(() -> {
+            if (!connected && !stopped.get()) {
+                Timber.i("Client " + getName() + " 连接超时 " + address);
+                stop();
             }
-            byte[] header = new byte[4];
-            pushMsgToServer(buildHeartBeating());
-            while (!callFinish) {
-                if (in == null) {
-                    Timber.i("Client " + getName() + " 输入流已为null" + Thread.currentThread().getName());
-                    break;
+        }), CONNECT_TIMEOUT);
+        loop.execute(() -> {
+            SocketChannel temp = null;
+            try {
+                temp = SocketChannel.open();
+                synchronized (this) {
+                    if (stopped.get()) {
+                        temp.close();
+                        return;
+                    }
+                    channel = temp;
                 }
-                if (socket.isInputShutdown() || socket.isOutputShutdown() || socket.isClosed() || !socket.isConnected()) {
-                    break;
-                }
-                String clientMsg = Util.socketReader(in, header);
-                if (TextUtils.isEmpty(clientMsg)) {
-                    Timber.i("Client " + getName() + " 链路已断开_" + Thread.currentThread().getName());
-                    break;
+                temp.configureBlocking(false);
+                temp.socket().setKeepAlive(true);
+                if (temp.connect(address)) {
+                    loop.register(temp, SelectionKey.OP_READ, this);
+                    loop.execute(this::onConnected);
+                } else {
+                    loop.register(temp, SelectionKey.OP_CONNECT, this);
                 }
-
-                Timber.i("Client " + getName() + " receive:" + clientMsg);
-                int indexMsgType = clientMsg.indexOf(Configure.SYMBOL_SPLIT);
-                String msgType = clientMsg.substring(0, indexMsgType);
-                String value = clientMsg.substring(indexMsgType + Configure.SYMBOL_SPLIT.length());
-                processMsg(msgType, value);
+            } catch (Throwable e) {
+                onError(e);
             }
-        } catch (Throwable e) {
-            Timber.e(e);
-        } finally {
-            close();
+        });
+    }
 
-            if (receiver != null) {
-                receiver.disconnected(callFinish);
+    @Override
+    public void onSelected(SelectionKey key) throws IOException {
+        if (key.isConnectable()) {
+            if (((SocketChannel) key.channel()).finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                onConnected();
             }
+            return;
+        }
+        if (key.isReadable()) {
+            read();
         }
+        if (key.isValid() && key.isWritable()) {
+            flush();
+        }
+    }
 
+    @Override
+    public void onError(Throwable e) {
+        Timber.e(e);
+        stop();
     }
 
-    private void close() {
+    /**
+     * 连接完成，在事件循环线程里调用
+     */
+    private void onConnected() {
+        if (stopped.get()) {
+            return;
+        }
+        TimingWheel.Timeout timeout = connectTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        connected = true;
+        if (receiver != null) {
+            receiver.connected();
+        }
+        // 第一个心跳带上支持的最高版本和压缩算法，服务端支持时会回复版本并切换格式
+        pushInner(Configure.KEY_HEART, FrameCodec.handshake(FrameCodec.VERSION_BINARY, true));
+        if (!TextUtils.isEmpty(name)) {
+            register();
+        }
+    }
+
+    /**
+     * 读取并拆分消息，一次可能读到多条或半条
+     *
+     * @throws IOException
+     */
+    private void read() throws IOException {
+        SocketChannel temp = channel;
+        if (stopped.get() || temp == null) {
+            return;
+        }
+        if (decoder.readFrom(temp) < 0) {
+            Timber.i("Client " + getName() + " 链路已断开_" + Thread.currentThread().getName());
+            stop();
+            return;
+        }
+        Frame frame;
+        while (!stopped.get() && (frame = decoder.next()) != null) {
+            Timber.i("Client " + getName() + " receive:" + frame);
+            processMsg(frame);
+        }
+    }
+
+    /**
+     * 结束链路：关闭通道、丢弃未写出的消息，读缓冲在事件循环线程里归还；只执行一次
+     */
+    private void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
         if (!callFinish) {
             isDisconnected = true;
         }
-        try {
-            if (in != null) {
-                in.close();
-            }
-            if (out != null) {
-                out.close();
-            }
-            if (socket != null) {
-                socket.close();
+        connected = false;
+        TimingWheel.Timeout timeout = connectTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        synchronized (this) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (Exception e) {
+                Timber.e(e);
             }
-        } catch (Exception e) {
-            Timber.e(e);
+            channel = null;
+        }
+        outboundQueue.clear();
+        loop.execute(this::releaseInLoop);
+        if (rpc != null) {
+            rpc.failAll(this, new IOException("link closed"));
+        }
+        if (receiver != null) {
+            receiver.disconnected(callFinish);
+        }
+    }
+
+    /**
+     * 在事件循环线程里归还读缓冲、关闭正在发送的流、中止正在接收的流
+     */
+    private void releaseInLoop() {
+        decoder.release();
+        OutboundStream stream;
+        while ((stream = outboundStreams.poll()) != null) {
+            stream.close();
         }
-        in = null;
-        out = null;
-        socket = null;
+        inboundStreams.abortAll(receiver);
     }
 
     /**
      * 接收到Server推送的消息
      *
-     * @param key   String
-     * @param value String
+     * @param frame Frame
      */
-    private void processMsg(String key, String value) {
-        switch (key) {
+    private void processMsg(Frame frame) {
+        switch (frame.type) {
             case Configure.MSG_TYPE_BIZ:
                 if (receiver != null) {
-                    receiver.receiveMsg(null, value);
+                    receiver.receiveMsg(null, frame.bytes());
                 }
                 break;
             case Configure.MSG_TYPE_INNER: {
-                int indexValueType = value.indexOf(Configure.SYMBOL_SPLIT);
-                String valueType = value.substring(0, indexValueType);
-                String msgValue = value.substring(indexValueType + Configure.SYMBOL_SPLIT.length());
-                switch (valueType) {
+                String msgValue = frame.value();
+                switch (frame.key) {
                     case Configure.KEY_HEART:
+                        if (!TextUtils.isEmpty(msgValue) && version == FrameCodec.VERSION_LEGACY) {
+                            version = Math.min(FrameCodec.parseVersion(msgValue), FrameCodec.VERSION_BINARY);
+                            deflate = version >= FrameCodec.VERSION_BINARY && FrameCodec.supports(msgValue, FrameCodec.CODEC_DEFLATE);
+                            Timber.i("Client " + getName() + " 切换到协议版本" + version + (deflate ? "，支持压缩" : ""));
+                        }
                         break;
                     case Configure.KEY_REGIST:
                         break;
@@ -144,25 +305,65 @@ class Client {
                         ackManage.removeAck(msgValue);
                         break;
                     case Configure.KEY_UNREGISTERED:
-                        pushMsgToServer(Configure.MSG_TYPE_INNER + Configure.SYMBOL_SPLIT + Configure.KEY_REGIST + Configure.SYMBOL_SPLIT + name);
+                        register();
+                        break;
+                    case Configure.KEY_RESUME:
+                        processResume(msgValue);
                         break;
                     default:
                         break;
                 }
             }
             break;
+            case Configure.MSG_TYPE_BIZ_SEQ: {
+                // 补发时可能收到已经处理过的消息
+                if (frame.seq <= lastSeq.get()) {
+                    Timber.i("Client " + getName() + " 丢弃重复的消息 seq=" + frame.seq);
+                    break;
+                }
+                // 中间有消息没收到，不能跳过，丢弃后请求从本地序号之后补发
+                if (frame.seq > lastSeq.get() + 1) {
+                    Timber.i("Client " + getName() + " 消息序号不连续，本地序号" + lastSeq.get() + " 收到" + frame.seq);
+                    if (!resuming) {
+                        resuming = true;
+                        pushInner(Configure.KEY_RESUME, name + Configure.SYMBOL_SPLIT + lastSeq.get());
+                    }
+                    break;
+                }
+                lastSeq.set(frame.seq);
+                if (receiver != null) {
+                    receiver.receiveMsg(null, frame.bytes());
+                }
+            }
+            break;
+            case Configure.MSG_TYPE_STREAM:
+                inboundStreams.receive(frame, receiver);
+                break;
+            case Configure.MSG_TYPE_REQUEST:
+                if (rpc != null) {
+                    rpc.receiveRequest(null, frame, this::pushResponse);
+                } else {
+                    pushResponse(frame.seq, "request not supported".getBytes(Configure.UTF_8), true);
+                }
+                break;
+            case Configure.MSG_TYPE_RESPONSE:
+                if (rpc != null) {
+                    rpc.receiveResponse(this, frame);
+                }
+                break;
             case Configure.MSG_TYPE_BIZ_NEED_ACK: {
-                // 分割消息标识、消息体
-                int indexValueType = value.indexOf(Configure.SYMBOL_SPLIT);
-                String uniq = value.substring(0, indexValueType);
-                String message = value.substring(indexValueType + Configure.SYMBOL_SPLIT.length());
-
                 // 发送回执
-                pushMsgToServer(buildAck(uniq));
+                String uniq = frame.uniq();
+                pushInner(Configure.KEY_ACK, uniq);
 
+                // 服务端没收到回执而重发的消息，只回执不再回调
+                if (dedup.isDuplicate(uniq)) {
+                    Timber.i("Client " + getName() + " 收到重复的消息 " + uniq);
+                    break;
+                }
                 // 回调业务层
                 if (receiver != null) {
-                    receiver.receiveMsg(uniq, message);
+                    receiver.receiveMsg(uniq, frame.bytes());
                 }
             }
             break;
@@ -171,18 +372,44 @@ class Client {
         }
     }
 
-    private String buildHeartBeating() {
-        return Configure.MSG_TYPE_INNER + Configure.SYMBOL_SPLIT + Configure.KEY_HEART + Configure.SYMBOL_SPLIT;
+    /**
+     * 服务端回复的恢复结果：ok#@%序号 或 reset#@%序号
+     *
+     * @param value String
+     */
+    private void processResume(String value) {
+        resuming = false;
+        int index = value.indexOf(Configure.SYMBOL_SPLIT);
+        if (index < 0) {
+            return;
+        }
+        String result = value.substring(0, index);
+        long serverSeq;
+        try {
+            serverSeq = Long.parseLong(value.substring(index + Configure.SYMBOL_SPLIT.length()));
+        } catch (NumberFormatException e) {
+            Timber.i("Client " + getName() + " 会话恢复结果不合法[" + value + "]，忽略");
+            return;
+        }
+        if (TextUtils.equals(result, Configure.RESUME_RESET)) {
+            Timber.i("Client " + getName() + " 会话无法恢复，本地序号" + lastSeq.get() + " 重置为" + serverSeq);
+            lastSeq.set(serverSeq);
+            if (receiver != null) {
+                receiver.sessionReset();
+            }
+        } else {
+            Timber.i("Client " + getName() + " 会话已恢复，本地序号" + lastSeq.get() + " 服务端序号" + serverSeq);
+        }
     }
 
     /**
-     * 回执消息
+     * 注册到服务器：先请求恢复会话，再发送普通注册，不支持恢复的旧服务端只处理后者
      *
-     * @param messageId 消息id
-     * @return
+     * @return boolean
      */
-    public String buildAck(String messageId) {
-        return Configure.MSG_TYPE_INNER + Configure.SYMBOL_SPLIT + Configure.KEY_ACK + Configure.SYMBOL_SPLIT + messageId;
+    public boolean register() {
+        pushInner(Configure.KEY_RESUME, name + Configure.SYMBOL_SPLIT + lastSeq.get());
+        return pushInner(Configure.KEY_REGIST, name);
     }
 
     public boolean pushBizToServer(String msg, Ack ack) {
@@ -198,40 +425,238 @@ class Client {
      * @return
      */
     public boolean pushBizToServer(String uniq, String msg, Ack ack) {
+        if (!connected) {
+            return false;
+        }
         ackManage.addAck(uniq, ack);
-        return pushMsgToServer(Configure.MSG_TYPE_BIZ_NEED_ACK + Configure.SYMBOL_SPLIT + uniq + Configure.SYMBOL_SPLIT + msg);
+        if (!write(encodeBiz(uniq, msg), msg)) {
+            // 没有发出，调用方会保存后重发，不回调
+            ackManage.cancelAck(uniq);
+            return false;
+        }
+        return true;
     }
 
     /**
-     * 推送消息到服务器
+     * 推送业务消息到服务器
      *
      * @param msg String
+     * @return boolean
      */
-    public boolean pushMsgToServer(String msg) {
-        try {
-            if (isFinish()) {
-                Timber.i("Client is finished " + Thread.currentThread().getName());
-                return false;
+    public boolean pushBiz(String msg) {
+        return write(encodeBiz(null, msg), msg);
+    }
+
+    /**
+     * 推送字节消息到服务器，不经过字符串转换
+     *
+     * @param payload byte[]
+     * @return boolean
+     */
+    public boolean pushBiz(byte[] payload) {
+        return write(encodeBiz(null, payload), payload.length + " bytes");
+    }
+
+    /**
+     * 推送需要回执的字节消息到服务器
+     *
+     * @param uniq    String | 消息id
+     * @param payload byte[]
+     * @param ack     Ack
+     * @return boolean
+     */
+    public boolean pushBizToServer(String uniq, byte[] payload, Ack ack) {
+        if (!connected) {
+            return false;
+        }
+        ackManage.addAck(uniq, ack);
+        if (!write(encodeBiz(uniq, payload), payload.length + " bytes")) {
+            // 没有发出，调用方会保存后重发，不回调
+            ackManage.cancelAck(uniq);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 发送请求，先登记再写出，避免响应先于登记到达
+     *
+     * @param method  String | 方法名
+     * @param payload byte[]
+     * @param timeout long | 毫秒
+     * @param future  RpcFuture | 响应、超时或链路断开时结束
+     */
+    public void request(String method, byte[] payload, long timeout, RpcFuture future) {
+        if (rpc == null || version < FrameCodec.VERSION_BINARY) {
+            future.fail(RpcEndpoint.unsupported());
+            return;
+        }
+        long id = rpc.add(future, this, timeout);
+        if (!write(FrameCodec.encodeRequest(BufferPool.heap(), id, method, payload), "request " + method + " [" + id + "]")) {
+            rpc.fail(id, new IOException("link closed"));
+        }
+    }
+
+    /**
+     * 回复响应
+     */
+    private void pushResponse(long requestId, byte[] payload, boolean error) {
+        write(FrameCodec.encodeResponse(BufferPool.heap(), requestId, payload, error), "response [" + requestId + "]");
+    }
+
+    /**
+     * 按段推送流到服务器，立即返回；事件循环在发送队列的积压少于一段时读取下一段，心跳和回执可以插在各段之间
+     *
+     * @param stream OutboundStream | 发送结束或链路断开后关闭
+     * @return boolean | false：服务端不支持流消息或链路断开
+     */
+    public boolean pushStream(final OutboundStream stream) {
+        if (!connected || version < FrameCodec.VERSION_BINARY) {
+            Timber.i("Client " + getName() + " 服务端不支持流消息，流[" + stream.getUniq() + "]取消推送");
+            stream.close();
+            return false;
+        }
+        loop.execute(() -> {
+            if (stopped.get()) {
+                stream.close();
+                return;
             }
-            if (out != null) {
-                byte[] infoByte = msg.getBytes();
-                byte[] header = Util.integerToBytes(infoByte.length, 4);
-                synchronized (lock) {
-                    out.write(header);
-                    out.write(infoByte);
-                    out.flush();
-                }
-                Timber.i("Client pushMsgToServer [" + msg + "]_" + Thread.currentThread().getName());
+            outboundStreams.offer(stream);
+            pumpStreams();
+        });
+        return true;
+    }
 
-                return true;
+    /**
+     * 从正在发送的流里轮流读取下一段入队，队列里最多只有一段，只在事件循环线程里调用
+     */
+    private void pumpStreams() {
+        while (!stopped.get() && !outboundStreams.isEmpty() && outboundQueue.getPendingBytes() < OutboundStream.CHUNK_SIZE) {
+            OutboundStream stream = outboundStreams.poll();
+            write(stream.next(BufferPool.heap()), "stream " + stream.getUniq() + " offset " + stream.getOffset());
+            if (stream.isFinished()) {
+                stream.close();
             } else {
-                Timber.i("Client out stream is null" + Thread.currentThread().getName());
-                return false;
+                outboundStreams.offer(stream);
             }
-        } catch (Exception e) {
-            Timber.e(e);
         }
-        return false;
+    }
+
+    /**
+     * 编码业务消息，协商过压缩且消息体达到阈值时压缩
+     *
+     * @param uniq String | 需要回执时为消息id
+     * @param msg  String
+     * @return PooledBuffer
+     */
+    private PooledBuffer encodeBiz(String uniq, String msg) {
+        int threshold = compressThreshold;
+        if (deflate && threshold > 0 && msg.length() >= threshold / 3) {
+            return encodeBiz(uniq, msg.getBytes(Configure.UTF_8));
+        }
+        return FrameCodec.encodeBiz(BufferPool.heap(), version, uniq, msg);
+    }
+
+    /**
+     * 编码业务消息，协商过压缩且消息体达到阈值时压缩
+     *
+     * @param uniq    String | 需要回执时为消息id
+     * @param payload byte[]
+     * @return PooledBuffer
+     */
+    private PooledBuffer encodeBiz(String uniq, byte[] payload) {
+        int threshold = compressThreshold;
+        if (deflate && threshold > 0 && payload.length >= threshold) {
+            byte[] deflated = FrameCodec.deflate(payload);
+            if (deflated != null) {
+                return FrameCodec.encodeBiz(BufferPool.heap(), version, uniq, deflated, true);
+            }
+        }
+        return FrameCodec.encodeBiz(BufferPool.heap(), version, uniq, payload);
+    }
+
+    /**
+     * 设置业务消息的压缩阈值
+     *
+     * @param threshold int | 消息体达到这个字节数时压缩，小于等于0时不压缩
+     */
+    public void setCompressThreshold(int threshold) {
+        this.compressThreshold = threshold;
+    }
+
+    /**
+     * 推送内部链路消息到服务器
+     *
+     * @param key   String | {@link Configure#KEY_HEART}等
+     * @param value String
+     * @return boolean
+     */
+    public boolean pushInner(String key, String value) {
+        return write(FrameCodec.encodeInner(BufferPool.heap(), version, key, value), key + Configure.SYMBOL_SPLIT + value);
+    }
+
+    /**
+     * 写出已编码的消息，写完后归还缓冲
+     *
+     * @param frame PooledBuffer
+     * @param log   String | 日志里的消息内容
+     * @return boolean
+     */
+    private boolean write(PooledBuffer frame, String log) {
+        if (isFinish()) {
+            Timber.i("Client is finished " + Thread.currentThread().getName());
+            frame.release();
+            return false;
+        }
+        if (!connected) {
+            Timber.i("Client 链路未连接" + Thread.currentThread().getName());
+            frame.release();
+            return false;
+        }
+        if (outboundQueue.offer(frame, OutboundQueue.POLICY_NEVER_DROP) != OutboundQueue.OFFER_OK) {
+            return false;
+        }
+        // 入队期间链路结束，队列已清空过一次
+        if (stopped.get()) {
+            outboundQueue.clear();
+            return false;
+        }
+        scheduleFlush();
+        Timber.i("Client pushMsgToServer [" + log + "]_" + Thread.currentThread().getName());
+        return true;
+    }
+
+    private void scheduleFlush() {
+        SocketChannel temp = channel;
+        if (temp != null && !flushScheduled.getAndSet(true)) {
+            loop.interestOps(temp, SelectionKey.OP_WRITE, true);
+        }
+    }
+
+    /**
+     * 通道可写时，把积压的消息聚合成尽量少的写调用
+     *
+     * @throws IOException
+     */
+    private void flush() throws IOException {
+        SocketChannel temp = channel;
+        if (temp == null) {
+            return;
+        }
+        boolean drained = outboundQueue.writeTo(temp);
+        if (!outboundStreams.isEmpty()) {
+            pumpStreams();
+            drained = outboundQueue.isEmpty();
+        }
+        if (!drained) {
+            return;
+        }
+        flushScheduled.set(false);
+        loop.interestOps(temp, SelectionKey.OP_WRITE, false);
+        // 取消关注期间又有新消息入队
+        if (!outboundQueue.isEmpty()) {
+            scheduleFlush();
+        }
     }
 
 
@@ -239,16 +664,16 @@ class Client {
      * 发送心跳报文
      */
     private boolean sendHeartBeating() {
-        return pushMsgToServer(Configure.MSG_TYPE_INNER + Configure.SYMBOL_SPLIT + Configure.KEY_HEART + Configure.SYMBOL_SPLIT);
+        return pushInner(Configure.KEY_HEART, "");
     }
 
     /**
-     * 一次心跳的结果，检测：socket的状态、连接状态、是否关闭，
+     * 一次心跳的结果，检测：连接状态、是否已结束
      *
      * @return boolean
      */
     protected boolean heartBeating() {
-        if (!(socket != null && !socket.isClosed() && socket.isConnected())) {
+        if (!connected || stopped.get()) {
             Timber.i("Client 链路异常");
             return false;
         }
@@ -256,12 +681,20 @@ class Client {
     }
 
     /**
-     * 终止Socket
+     * 终止链路，事件循环和回执管理由{@link PushClient}继续沿用
      */
     public void callFinish() {
         callFinish = true;
-        ackManage.setFinish(callFinish);
-        close();
+        stop();
+    }
+
+    /**
+     * 链路是否已连接，连接中、已断开、已终止时为false
+     *
+     * @return boolean
+     */
+    public boolean isConnected() {
+        return connected && !stopped.get();
     }
 
     /**
@@ -0,0 +1,189 @@
+package com.mwee.android.alp;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 客户端的待发信箱，链路断开期间推送的业务消息按顺序写入{@link SegmentLog}，进程退出后仍保留；
+ * 重新连接后按写入顺序分批发出。回执回调只保存在内存里，进程重启后补发的消息不再回调。
+ * 非线程安全，只在{@link PushClient}的消息线程里访问
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+class ClientOutbox {
+
+    /**
+     * 补发消息的发送方
+     */
+    interface ISender {
+        /**
+         * 发送一条消息
+         *
+         * @param uniq    String | 需要回执时为消息id，否则为空
+         * @param payload byte[]
+         * @param ack     Ack | 可以为空
+         * @return boolean | false：链路已断开，这条及之后的消息保留在信箱里
+         */
+        boolean send(String uniq, byte[] payload, Ack ack);
+    }
+
+    /**
+     * 单个分段文件的大小，1M
+     */
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    /**
+     * 一批补发的最大字节数
+     */
+    public static final int BATCH_BYTES = 64 * 1024;
+    /**
+     * 默认最多保留的消息数
+     */
+    public static final int DEFAULT_CAPACITY = 2000;
+
+    private final SegmentLog log;
+    /**
+     * 最多保留的消息数，超过则丢弃最旧的
+     */
+    private volatile int capacity;
+    /**
+     * 尚未发出的消息，按写入顺序排列
+     */
+    private final ArrayDeque<SegmentLog.Record> queue = new ArrayDeque<>();
+    /**
+     * 消息id和回执回调，只有本进程写入的消息才有
+     */
+    private final Map<String, Ack> acks = new HashMap<>();
+    private volatile int depth = 0;
+    private volatile long flushed = 0;
+    private volatile long dropped = 0;
+    /**
+     * 最近一次从连接成功到信箱发空的耗时，毫秒
+     */
+    private volatile long lastFlushLatency = -1;
+    /**
+     * 本次连接成功的时间，信箱发空后清零
+     */
+    private long flushStart = 0;
+
+    /**
+     * @param dir      File | 信箱文件所在的目录
+     * @param capacity int | 最多保留的消息数
+     */
+    protected ClientOutbox(File dir, int capacity) {
+        this.log = new SegmentLog(dir, SEGMENT_SIZE);
+        this.capacity = capacity;
+    }
+
+    /**
+     * 加载上次进程退出前没有发出的消息
+     */
+    public void load() {
+        try {
+            List<SegmentLog.Record> records = log.load();
+            queue.addAll(records);
+            depth = queue.size();
+            Timber.i("ClientOutbox loaded " + records.size() + " messages");
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
+    /**
+     * 保存一条消息，超过容量时丢弃最旧的
+     *
+     * @param uniq    String | 需要回执时为消息id，否则为空
+     * @param payload byte[]
+     * @param ack     Ack | 可以为空
+     */
+    public void offer(String uniq, byte[] payload, Ack ack) {
+        try {
+            String key = uniq != null ? uniq : "";
+            queue.offer(log.append(key, payload));
+            if (ack != null && !key.isEmpty()) {
+                acks.put(key, ack);
+            }
+            while (queue.size() > capacity) {
+                drop(queue.poll());
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        } finally {
+            depth = queue.size();
+        }
+    }
+
+    private void drop(SegmentLog.Record record) {
+        log.consume(record);
+        dropped++;
+        String uniq = record.getKey();
+        Ack ack = acks.remove(uniq);
+        Timber.i("ClientOutbox 超出容量" + capacity + "，丢弃消息[" + uniq + "]");
+        if (ack != null) {
+            ack.callback(uniq, AckStatus.UnKnow);
+        }
+    }
+
+    /**
+     * 连接成功，开始统计补发耗时
+     */
+    public void markConnected() {
+        if (!queue.isEmpty()) {
+            flushStart = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * 按写入顺序发出一批消息
+     *
+     * @param sender ISender
+     * @return boolean | true：还有剩余的消息，并且链路正常
+     */
+    public boolean flushBatch(ISender sender) {
+        int batchBytes = 0;
+        int count = 0;
+        boolean failed = false;
+        while (!queue.isEmpty() && batchBytes < BATCH_BYTES) {
+            SegmentLog.Record record = queue.peek();
+            String uniq = record.getKey();
+            byte[] payload = log.read(record);
+            if (!sender.send(uniq.isEmpty() ? null : uniq, payload, acks.get(uniq))) {
+                failed = true;
+                break;
+            }
+            acks.remove(uniq);
+            log.consume(queue.poll());
+            batchBytes += payload.length;
+            count++;
+        }
+        flushed += count;
+        depth = queue.size();
+        if (count > 0) {
+            log.force();
+            Timber.i("ClientOutbox 补发" + count + "条消息，剩余" + queue.size() + "条");
+        }
+        if (queue.isEmpty() && flushStart > 0) {
+            lastFlushLatency = SystemClock.elapsedRealtime() - flushStart;
+            flushStart = 0;
+        }
+        return !failed && !queue.isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public OutboxMetrics metrics() {
+        return new OutboxMetrics(depth, flushed, dropped, lastFlushLatency);
+    }
+}
@@ -1,4 +1,7 @@
 package com.mwee.android.alp;
+
+import java.nio.charset.Charset;
+
 /**
  * @Description:
  * @author: Xiaolong
@@ -22,6 +25,26 @@ class Configure {
      */
     public final static String MSG_TYPE_BIZ_NEED_ACK = "3";
 
+    /**
+     * 带序号的业务消息，只推送给恢复过会话的客户端
+     */
+    public final static String MSG_TYPE_BIZ_SEQ = "4";
+
+    /**
+     * 流消息的一段，大消息按段发送，和其他消息交错，只有二进制格式支持
+     */
+    public final static String MSG_TYPE_STREAM = "5";
+
+    /**
+     * 请求，接收方处理后回复带同样请求id的响应，只有二进制格式支持
+     */
+    public final static String MSG_TYPE_REQUEST = "6";
+
+    /**
+     * 响应
+     */
+    public final static String MSG_TYPE_RESPONSE = "7";
+
     /*
      * =============================内部链路消息分类=============================
      */
@@ -41,8 +64,34 @@ class Configure {
      * 连接未注册，需要注册
      */
     public final static String KEY_UNREGISTERED = "6";
+    /**
+     * 订阅主题
+     */
+    public final static String KEY_SUBSCRIBE = "7";
+    /**
+     * 取消订阅主题
+     */
+    public final static String KEY_UNSUBSCRIBE = "8";
+    /**
+     * 恢复会话，客户端上报名称和最后收到的序号，服务端回复结果和服务端的序号
+     */
+    public final static String KEY_RESUME = "9";
+
+    /**
+     * 会话已恢复，缺失的消息随后补发
+     */
+    public final static String RESUME_OK = "ok";
+    /**
+     * 会话无法补齐，客户端需要重置
+     */
+    public final static String RESUME_RESET = "reset";
 
     protected final static String SYMBOL_SPLIT="#@%";
 
+    /**
+     * 字符串消息的编码，两端都显式使用UTF-8，不依赖平台的默认编码
+     */
+    public final static Charset UTF_8 = Charset.forName("UTF-8");
+
 
 }
@@ -0,0 +1,43 @@
+package com.mwee.android.alp;
+
+/**
+ * @Description: 需要回执的消息去重的统计
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class DedupMetrics {
+    private final long checked;
+    private final long duplicates;
+
+    DedupMetrics(long checked, long duplicates) {
+        this.checked = checked;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * @return long | 收到的需要回执的消息数
+     */
+    public long getChecked() {
+        return checked;
+    }
+
+    /**
+     * @return long | 其中重复、只回执未回调的消息数
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return double | 重复率，没有消息时为0
+     */
+    public double getHitRate() {
+        return checked == 0 ? 0 : (double) duplicates / checked;
+    }
+
+    @Override
+    public String toString() {
+        return "DedupMetrics{checked=" + checked + ", duplicates=" + duplicates
+                + ", hitRate=" + String.format("%.4f", getHitRate()) + "}";
+    }
+}
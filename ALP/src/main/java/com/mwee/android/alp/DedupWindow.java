@@ -0,0 +1,95 @@
+package com.mwee.android.alp;
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Description: 需要回执的消息的去重窗口：记录最近收到的消息id，对方没收到回执而重发时只回执不再回调业务层；
+ * 最多记录固定条数，并且只记录一段时间内的，每个对端的内存占用有上限
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+class DedupWindow {
+    /**
+     * 默认最多记录的消息数
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * 默认的记录时长，10分钟
+     */
+    public static final long DEFAULT_WINDOW = 10 * 60 * 1000;
+
+    /**
+     * 多个窗口共享的统计
+     */
+    static final class Stats {
+        private final AtomicLong checked = new AtomicLong(0);
+        private final AtomicLong duplicates = new AtomicLong(0);
+
+        public DedupMetrics metrics() {
+            return new DedupMetrics(checked.get(), duplicates.get());
+        }
+    }
+
+    private final int capacity;
+    private final long window;
+    private final Stats stats;
+    /**
+     * 消息id -> 收到的时间，按收到的顺序排列
+     */
+    private final LinkedHashMap<String, Long> received = new LinkedHashMap<>();
+
+    protected DedupWindow(Stats stats) {
+        this(DEFAULT_CAPACITY, DEFAULT_WINDOW, stats);
+    }
+
+    /**
+     * @param capacity int | 最多记录的消息数
+     * @param window   long | 记录时长，毫秒
+     * @param stats    Stats | 统计
+     */
+    protected DedupWindow(int capacity, long window, Stats stats) {
+        this.capacity = capacity;
+        this.window = window;
+        this.stats = stats;
+    }
+
+    /**
+     * 记录消息id并判断是否重复
+     *
+     * @param uniq String | 消息id
+     * @return boolean | true：窗口内已经收到过
+     */
+    public boolean isDuplicate(String uniq) {
+        return isDuplicate(uniq, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * 记录消息id并判断是否重复
+     *
+     * @param uniq String | 消息id
+     * @param now  long | 当前时间，SystemClock.elapsedRealtime()
+     * @return boolean | true：窗口内已经收到过
+     */
+    synchronized boolean isDuplicate(String uniq, long now) {
+        stats.checked.incrementAndGet();
+        Iterator<Map.Entry<String, Long>> iterator = received.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (received.size() < capacity && now - eldest.getValue() <= window) {
+                break;
+            }
+            iterator.remove();
+        }
+        if (received.containsKey(uniq)) {
+            stats.duplicates.incrementAndGet();
+            return true;
+        }
+        received.put(uniq, now);
+        return false;
+    }
+}
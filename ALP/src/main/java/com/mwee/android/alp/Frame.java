@@ -0,0 +1,136 @@
+package com.mwee.android.alp;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * @Description: 解码后的一条消息，字符串格式和二进制格式都解码成这个结构，分发时不再拆分字符串；
+ * 由{@link FrameDecoder}复用，只指向读缓冲里的位置，消息id和消息体在调用{@link #uniq()}、{@link #value()}时才生成，
+ * 下一次读取或解码后失效，需要保留的内容必须在回调里取出
+ * @author: Xiaolong
+ * @Date: 2018/10/17
+ */
+class Frame {
+    /**
+     * 消息类型，{@link Configure#MSG_TYPE_BIZ}等
+     */
+    String type;
+    /**
+     * 内部链路消息的分类，{@link Configure#KEY_HEART}等，其他类型为空
+     */
+    String key;
+    /**
+     * 带序号的业务消息的序号，流消息的流id，请求和响应的请求id，其他类型为0
+     */
+    long seq;
+    /**
+     * 流消息这一段的偏移
+     */
+    long offset;
+    /**
+     * 流消息的最后一段（包括中止）
+     */
+    boolean last;
+    /**
+     * 流消息被发送方中止
+     */
+    boolean aborted;
+    /**
+     * 响应是错误信息
+     */
+    boolean failed;
+    /**
+     * 消息体是否经过压缩，{@link #value()}时解压
+     */
+    boolean compressed;
+    private byte[] array;
+    private int uniqOffset;
+    /**
+     * 消息id的长度，没有消息id时为-1
+     */
+    private int uniqLength = -1;
+    private int bodyOffset;
+    private int bodyLength;
+    /**
+     * 压缩的消息体解压后的最大长度
+     */
+    private final int maxInflatedLength;
+
+    /**
+     * @param maxInflatedLength int | 压缩的消息体解压后的最大长度，一般和单条消息的最大长度相同
+     */
+    Frame(int maxInflatedLength) {
+        this.maxInflatedLength = maxInflatedLength;
+    }
+
+    /**
+     * 指向读缓冲里的一条消息
+     */
+    void set(String type, String key, long seq, byte[] array, int uniqOffset, int uniqLength, int bodyOffset, int bodyLength) {
+        this.type = type;
+        this.key = key;
+        this.seq = seq;
+        this.compressed = false;
+        this.offset = 0;
+        this.last = false;
+        this.aborted = false;
+        this.failed = false;
+        this.array = array;
+        this.uniqOffset = uniqOffset;
+        this.uniqLength = uniqLength;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
+    }
+
+    /**
+     * 需要回执的消息id
+     *
+     * @return String | 其他类型为空
+     */
+    public String uniq() {
+        return uniqLength < 0 ? null : new String(array, uniqOffset, uniqLength, Configure.UTF_8);
+    }
+
+    /**
+     * 按UTF-8解码的消息体
+     *
+     * @return String
+     * @throws IllegalStateException 压缩的消息体不合法或解压后超过最大长度
+     */
+    public String value() {
+        if (bodyLength == 0) {
+            return "";
+        }
+        if (compressed) {
+            return new String(bytes(), Configure.UTF_8);
+        }
+        return new String(array, bodyOffset, bodyLength, Configure.UTF_8);
+    }
+
+    /**
+     * 消息体的字节，从读缓冲里复制出来，压缩过的消息体已解压
+     *
+     * @return byte[]
+     * @throws IllegalStateException 压缩的消息体不合法或解压后超过最大长度，读写线程里抛出时链路会被断开
+     */
+    public byte[] bytes() {
+        if (compressed) {
+            try {
+                return FrameCodec.inflate(array, bodyOffset, bodyLength, maxInflatedLength);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return Arrays.copyOfRange(array, bodyOffset, bodyOffset + bodyLength);
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{type=" + type + ", key=" + key + ", seq=" + seq + ", length=" + bodyLength
+                + (compressed ? ", deflate" : "") + "}";
+    }
+}
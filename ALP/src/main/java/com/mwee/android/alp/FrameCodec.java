@@ -0,0 +1,831 @@
+package com.mwee.android.alp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @Description: 消息的编解码，支持两种格式：
+ * 1，字符串格式(v1)：4字节长度 + "类型#@%..."，老版本的客户端和服务端只支持这种格式；
+ * 2，二进制格式(v2)：魔数版本(1) + 类型(1) + 标记(1) + varint id + varint 长度 + [varint uniq长度 + uniq] + 消息体，
+ * 内部链路消息的id为分类，带序号的业务消息的id为序号。
+ * 字符串格式的消息长度不会超过16M，首字节一定是0，所以两种格式可以按首字节区分，解码时不需要知道对端的版本；
+ * 编码时按对端的版本选择格式，双方在第一次心跳交换时协商；
+ * 二进制格式的消息体超过阈值时可以用Deflate压缩，并在标记里注明，压缩算法同样在心跳交换时协商；
+ * 二进制格式的标记里还带有消息所属的逻辑通道，发送队列按通道的优先级调度
+ * @author: Xiaolong
+ * @Date: 2018/10/17
+ */
+class FrameCodec {
+    /**
+     * 字符串格式
+     */
+    public static final int VERSION_LEGACY = 1;
+    /**
+     * 二进制格式
+     */
+    public static final int VERSION_BINARY = 2;
+    /**
+     * 二进制格式的首字节，高4位为魔数，低4位为版本
+     */
+    private static final byte MAGIC_BINARY = (byte) (0xA0 | VERSION_BINARY);
+    /**
+     * 消息头里带有uniq
+     */
+    private static final int FLAG_UNIQ = 0x01;
+    /**
+     * 消息体经过Deflate压缩
+     */
+    private static final int FLAG_DEFLATE = 0x02;
+    /**
+     * 流的最后一段
+     */
+    private static final int FLAG_END = 0x04;
+    /**
+     * 发送方读取失败，流被中止
+     */
+    private static final int FLAG_ABORT = 0x08;
+    /**
+     * 响应是错误信息
+     */
+    private static final int FLAG_ERROR = 0x40;
+    /**
+     * 标记里的第4、5位为逻辑通道
+     */
+    private static final int CHANNEL_SHIFT = 4;
+    private static final int CHANNEL_MASK = 0x30;
+
+    /**
+     * 逻辑通道，数字越小优先级越高：内部链路消息（心跳、回执、注册等）
+     */
+    public static final int CHANNEL_CONTROL = 0;
+    /**
+     * 需要回执的业务消息、请求和响应，对延迟敏感
+     */
+    public static final int CHANNEL_URGENT = 1;
+    /**
+     * 普通业务消息，不论大小都在这个通道里按顺序发送，带序号的消息不会互相超越
+     */
+    public static final int CHANNEL_NORMAL = 2;
+    /**
+     * 流消息
+     */
+    public static final int CHANNEL_BULK = 3;
+    public static final int CHANNEL_COUNT = 4;
+    /**
+     * 单条消息的最大长度，收到超长的消息时断开链路；更大的内容使用流消息分片推送
+     */
+    public static final int MAX_FRAME_LENGTH = 10000000;
+    /**
+     * 业务消息体的最大长度，给消息头和消息id留出余量，超过的消息在推送时直接拒绝
+     */
+    public static final int MAX_PAYLOAD_LENGTH = MAX_FRAME_LENGTH - 64 * 1024;
+    /**
+     * 握手时声明支持的压缩算法
+     */
+    public static final String CODEC_DEFLATE = "deflate";
+    private static final String SYMBOL_CODEC_SPLIT = ",";
+    private static final byte[] SPLIT = Configure.SYMBOL_SPLIT.getBytes(Configure.UTF_8);
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+    /**
+     * 消息头还不完整
+     */
+    public static final long NEED_MORE = -1;
+    /**
+     * 消息头不合法
+     */
+    public static final long MALFORMED = -2;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * 编码内部链路消息
+     *
+     * @param pool    BufferPool | 租借缓冲的池
+     * @param version int | 对端的版本
+     * @param key     String | {@link Configure#KEY_HEART}等
+     * @param value   String
+     * @return PooledBuffer | 已flip，调用方负责释放
+     */
+    public static PooledBuffer encodeInner(BufferPool pool, int version, String key, String value) {
+        if (value == null) {
+            value = "";
+        }
+        byte[] bytes = isAscii(value) ? null : value.getBytes(Configure.UTF_8);
+        int bodyLength = bytes == null ? value.length() : bytes.length;
+        PooledBuffer frame = pool.acquire(headerLength(version, Configure.MSG_TYPE_INNER, key, null, 0, bodyLength) + bodyLength);
+        ByteBuffer buffer = frame.buffer();
+        putHeader(buffer, version, Configure.MSG_TYPE_INNER, key, null, 0, bodyLength);
+        putText(buffer, value, bytes);
+        buffer.flip();
+        return frame;
+    }
+
+    /**
+     * 编码业务消息
+     *
+     * @param pool    BufferPool | 租借缓冲的池
+     * @param version int | 对端的版本
+     * @param uniq    String | 需要回执时为消息id，否则为空
+     * @param payload byte[] | 消息体
+     * @return PooledBuffer | 已flip，多个链路共享时各自{@link PooledBuffer#retain()}并使用{@link ByteBuffer#duplicate()}
+     */
+    public static PooledBuffer encodeBiz(BufferPool pool, int version, String uniq, byte[] payload) {
+        return encodeBiz(pool, version, uniq, payload, false);
+    }
+
+    /**
+     * 编码业务消息
+     *
+     * @param pool       BufferPool | 租借缓冲的池
+     * @param version    int | 对端的版本
+     * @param uniq       String | 需要回执时为消息id，否则为空
+     * @param payload    byte[] | 消息体
+     * @param compressed boolean | 消息体是否已经过{@link #deflate(byte[])}压缩，只有二进制格式支持
+     * @return PooledBuffer | 已flip
+     */
+    public static PooledBuffer encodeBiz(BufferPool pool, int version, String uniq, byte[] payload, boolean compressed) {
+        String type = uniq == null ? Configure.MSG_TYPE_BIZ : Configure.MSG_TYPE_BIZ_NEED_ACK;
+        PooledBuffer frame = pool.acquire(headerLength(version, type, null, uniq, 0, payload.length) + payload.length);
+        ByteBuffer buffer = frame.buffer();
+        putHeader(buffer, version, type, null, uniq, 0, payload.length, compressed && version >= VERSION_BINARY ? FLAG_DEFLATE : 0);
+        buffer.put(payload).flip();
+        return frame;
+    }
+
+    /**
+     * 编码业务消息，ASCII文本直接写入缓冲，不生成中间数组
+     *
+     * @param pool    BufferPool | 租借缓冲的池
+     * @param version int | 对端的版本
+     * @param uniq    String | 需要回执时为消息id，否则为空
+     * @param msg     String | 消息体
+     * @return PooledBuffer | 已flip，调用方负责释放
+     */
+    public static PooledBuffer encodeBiz(BufferPool pool, int version, String uniq, String msg) {
+        if (!isAscii(msg)) {
+            return encodeBiz(pool, version, uniq, msg.getBytes(Configure.UTF_8));
+        }
+        String type = uniq == null ? Configure.MSG_TYPE_BIZ : Configure.MSG_TYPE_BIZ_NEED_ACK;
+        PooledBuffer frame = pool.acquire(headerLength(version, type, null, uniq, 0, msg.length()) + msg.length());
+        ByteBuffer buffer = frame.buffer();
+        putHeader(buffer, version, type, null, uniq, 0, msg.length());
+        putText(buffer, msg, null);
+        buffer.flip();
+        return frame;
+    }
+
+    /**
+     * 编码带序号的业务消息的消息头，消息体由调用方共享
+     *
+     * @param pool       BufferPool | 租借缓冲的池
+     * @param version    int | 对端的版本
+     * @param seq        long | 序号
+     * @param bodyLength int | 消息体长度
+     * @param compressed boolean | 消息体是否已压缩
+     * @return PooledBuffer | 已flip，调用方负责释放
+     */
+    public static PooledBuffer encodeSeqHeader(BufferPool pool, int version, long seq, int bodyLength, boolean compressed) {
+        PooledBuffer header = pool.acquire(headerLength(version, Configure.MSG_TYPE_BIZ_SEQ, null, null, seq, bodyLength));
+        putHeader(header.buffer(), version, Configure.MSG_TYPE_BIZ_SEQ, null, null, seq, bodyLength, compressed && version >= VERSION_BINARY ? FLAG_DEFLATE : 0);
+        header.buffer().flip();
+        return header;
+    }
+
+    /**
+     * 编码流的一段，只有二进制格式支持：消息头的id为流id，消息体为varint偏移加上这一段的内容
+     *
+     * @param pool     BufferPool | 租借缓冲的池
+     * @param streamId long | 流id
+     * @param uniq     String | 流的标识，只在第一段携带，其他段为空
+     * @param offset   long | 这一段在流里的偏移
+     * @param chunk    byte[]
+     * @param length   int | 这一段的长度，可以为0
+     * @param end      boolean | 是否最后一段
+     * @param abort    boolean | 发送方读取失败，中止这个流
+     * @return PooledBuffer | 已flip，调用方负责释放
+     */
+    public static PooledBuffer encodeChunk(BufferPool pool, long streamId, String uniq, long offset, byte[] chunk, int length,
+                                           boolean end, boolean abort) {
+        int bodyLength = varintSize(offset) + length;
+        PooledBuffer frame = pool.acquire(headerLength(VERSION_BINARY, Configure.MSG_TYPE_STREAM, null, uniq, streamId, bodyLength) + bodyLength);
+        ByteBuffer buffer = frame.buffer();
+        putHeader(buffer, VERSION_BINARY, Configure.MSG_TYPE_STREAM, null, uniq, streamId, bodyLength,
+                (end ? FLAG_END : 0) | (abort ? FLAG_ABORT : 0));
+        putVarint(buffer, offset);
+        buffer.put(chunk, 0, length);
+        buffer.flip();
+        return frame;
+    }
+
+    /**
+     * 编码请求，只有二进制格式支持：消息头的id为请求id，消息id为方法名
+     *
+     * @param pool      BufferPool | 租借缓冲的池
+     * @param requestId long | 请求id，响应带回同样的id
+     * @param method    String | 方法名，对应接收方注册的{@link IRequestHandler}
+     * @param payload   byte[]
+     * @return PooledBuffer | 已flip，调用方负责释放
+     */
+    public static PooledBuffer encodeRequest(BufferPool pool, long requestId, String method, byte[] payload) {
+        return encodeRpc(pool, Configure.MSG_TYPE_REQUEST, requestId, method, payload, 0);
+    }
+
+    /**
+     * 编码响应，只有二进制格式支持
+     *
+     * @param pool      BufferPool | 租借缓冲的池
+     * @param requestId long | 对应的请求id
+     * @param payload   byte[] | 响应内容；出错时为UTF-8编码的错误信息
+     * @param error     boolean | 是否出错
+     * @return PooledBuffer | 已flip，调用方负责释放
+     */
+    public static PooledBuffer encodeResponse(BufferPool pool, long requestId, byte[] payload, boolean error) {
+        return encodeRpc(pool, Configure.MSG_TYPE_RESPONSE, requestId, null, payload, error ? FLAG_ERROR : 0);
+    }
+
+    private static PooledBuffer encodeRpc(BufferPool pool, String type, long requestId, String method, byte[] payload, int flags) {
+        PooledBuffer frame = pool.acquire(headerLength(VERSION_BINARY, type, null, method, requestId, payload.length) + payload.length);
+        ByteBuffer buffer = frame.buffer();
+        putHeader(buffer, VERSION_BINARY, type, null, method, requestId, payload.length, flags);
+        buffer.put(payload);
+        buffer.flip();
+        return frame;
+    }
+
+    /**
+     * 把一批消息体编码成连续的多条业务消息，只需要一次写出
+     *
+     * @param pool    BufferPool | 租借缓冲的池
+     * @param version int | 对端的版本
+     * @param uniqs   List | 和消息体一一对应的消息id，需要回执时使用，为空时不需要回执
+     * @param batch   List | 消息体
+     * @return PooledBuffer | 已flip，调用方负责释放
+     */
+    public static PooledBuffer encodeBizBatch(BufferPool pool, int version, List<String> uniqs, List<byte[]> batch) {
+        String type = uniqs == null ? Configure.MSG_TYPE_BIZ : Configure.MSG_TYPE_BIZ_NEED_ACK;
+        int total = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] body = batch.get(i);
+            total += headerLength(version, type, null, uniqs == null ? null : uniqs.get(i), 0, body.length) + body.length;
+        }
+        PooledBuffer frames = pool.acquire(total);
+        ByteBuffer buffer = frames.buffer();
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] body = batch.get(i);
+            putHeader(buffer, version, type, null, uniqs == null ? null : uniqs.get(i), 0, body.length);
+            buffer.put(body);
+        }
+        buffer.flip();
+        return frames;
+    }
+
+    /**
+     * 消息头的长度
+     *
+     * @param version    int
+     * @param type       String | 消息类型
+     * @param key        String | 内部链路消息的分类
+     * @param uniq       String | 需要回执的消息id
+     * @param seq        long | 带序号的业务消息的序号
+     * @param bodyLength int | 消息体长度
+     * @return int
+     */
+    private static int headerLength(int version, String type, String key, String uniq, long seq, int bodyLength) {
+        int uniqLength = uniq == null ? 0 : textLength(uniq);
+        if (version < VERSION_BINARY) {
+            int length = 4 + type.length() + SPLIT.length;
+            if (key != null) {
+                length += key.length() + SPLIT.length;
+            } else if (uniq != null) {
+                length += uniqLength + SPLIT.length;
+            } else if (Configure.MSG_TYPE_BIZ_SEQ.equals(type)) {
+                length += digits(seq) + SPLIT.length;
+            }
+            return length;
+        }
+        long id = key != null ? Long.parseLong(key) : seq;
+        int payloadLength = bodyLength + (uniq == null ? 0 : varintSize(uniqLength) + uniqLength);
+        return 3 + varintSize(id) + varintSize(payloadLength) + (payloadLength - bodyLength);
+    }
+
+    /**
+     * 写入消息头，不生成中间的字符串和数组
+     */
+    private static void putHeader(ByteBuffer buffer, int version, String type, String key, String uniq, long seq, int bodyLength) {
+        putHeader(buffer, version, type, key, uniq, seq, bodyLength, 0);
+    }
+
+    /**
+     * 写入消息头
+     *
+     * @param flags int | {@link #FLAG_DEFLATE}等附加标记，只有二进制格式支持
+     */
+    private static void putHeader(ByteBuffer buffer, int version, String type, String key, String uniq, long seq, int bodyLength, int flags) {
+        byte[] uniqBytes = uniq == null || isAscii(uniq) ? null : uniq.getBytes(Configure.UTF_8);
+        int uniqLength = uniq == null ? 0 : uniqBytes == null ? uniq.length() : uniqBytes.length;
+        if (version < VERSION_BINARY) {
+            int start = buffer.position();
+            buffer.putInt(0);
+            putText(buffer, type, null);
+            buffer.put(SPLIT);
+            if (key != null) {
+                putText(buffer, key, null);
+                buffer.put(SPLIT);
+            } else if (uniq != null) {
+                putText(buffer, uniq, uniqBytes);
+                buffer.put(SPLIT);
+            } else if (Configure.MSG_TYPE_BIZ_SEQ.equals(type)) {
+                putDigits(buffer, seq);
+                buffer.put(SPLIT);
+            }
+            buffer.putInt(start, buffer.position() - start - 4 + bodyLength);
+            return;
+        }
+        long id = key != null ? Long.parseLong(key) : seq;
+        int payloadLength = bodyLength + (uniq == null ? 0 : varintSize(uniqLength) + uniqLength);
+        flags |= (uniq == null ? 0 : FLAG_UNIQ) | (channelOf(type) << CHANNEL_SHIFT);
+        buffer.put(MAGIC_BINARY).put((byte) Integer.parseInt(type)).put((byte) flags);
+        putVarint(buffer, id);
+        putVarint(buffer, payloadLength);
+        if (uniq != null) {
+            putVarint(buffer, uniqLength);
+            putText(buffer, uniq, uniqBytes);
+        }
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int textLength(String text) {
+        return isAscii(text) ? text.length() : text.getBytes(Configure.UTF_8).length;
+    }
+
+    /**
+     * 消息体是否超过{@link #MAX_PAYLOAD_LENGTH}，一个字符编码后最多3个字节，短文本不用编码
+     *
+     * @param text String | 业务消息
+     * @return boolean
+     */
+    public static boolean isOversize(String text) {
+        return text != null && text.length() > MAX_PAYLOAD_LENGTH / 3 && textLength(text) > MAX_PAYLOAD_LENGTH;
+    }
+
+    /**
+     * 写入文本，ASCII直接逐字节写入
+     *
+     * @param bytes byte[] | 非ASCII文本编码后的内容，ASCII文本为空
+     */
+    private static void putText(ByteBuffer buffer, String text, byte[] bytes) {
+        if (bytes != null) {
+            buffer.put(bytes);
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    private static int digits(long value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    private static void putDigits(ByteBuffer buffer, long value) {
+        int count = digits(value);
+        int start = buffer.position();
+        for (int i = count - 1; i >= 0; i--) {
+            buffer.put(start + i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(start + count);
+    }
+
+    /**
+     * 握手时发送的版本和支持的压缩算法
+     *
+     * @param version int | 支持的最高版本
+     * @param deflate boolean | 是否支持Deflate压缩
+     * @return String | 例如"2,deflate"
+     */
+    public static String handshake(int version, boolean deflate) {
+        return deflate ? version + SYMBOL_CODEC_SPLIT + CODEC_DEFLATE : String.valueOf(version);
+    }
+
+    /**
+     * 解析握手里的版本
+     *
+     * @param value String | {@link #handshake(int, boolean)}的结果
+     * @return int | 不合法时为{@link #VERSION_LEGACY}
+     */
+    public static int parseVersion(String value) {
+        int index = value.indexOf(SYMBOL_CODEC_SPLIT);
+        try {
+            return Integer.parseInt(index < 0 ? value : value.substring(0, index));
+        } catch (NumberFormatException e) {
+            return VERSION_LEGACY;
+        }
+    }
+
+    /**
+     * 握手里是否声明了指定的压缩算法
+     *
+     * @param value String | {@link #handshake(int, boolean)}的结果
+     * @param codec String | {@link #CODEC_DEFLATE}
+     * @return boolean
+     */
+    public static boolean supports(String value, String codec) {
+        for (String item : value.split(SYMBOL_CODEC_SPLIT)) {
+            if (codec.equals(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 用Deflate压缩消息体，每个线程复用一个Deflater
+     *
+     * @param payload byte[]
+     * @return byte[] | 压缩后没有变小时为空
+     */
+    public static byte[] deflate(byte[] payload) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] output = new byte[payload.length];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == output.length) {
+                return null;
+            }
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        return length < payload.length ? Arrays.copyOf(output, length) : null;
+    }
+
+    /**
+     * 解压{@link #deflate(byte[])}压缩的消息体
+     *
+     * @param array     byte[]
+     * @param offset    int
+     * @param length    int
+     * @param maxLength int | 解压后的最大长度，超过时视为不合法，避免很小的压缩数据解压出巨大的内容
+     * @return byte[]
+     * @throws DataFormatException 数据不合法或解压后超过最大长度
+     */
+    public static byte[] inflate(byte[] array, int offset, int length, int maxLength) throws DataFormatException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(array, offset, length);
+        byte[] output = new byte[(int) Math.min(maxLength, Math.max(64L, length * 4L))];
+        int size = 0;
+        while (!inflater.finished()) {
+            if (size == output.length) {
+                if (size >= maxLength) {
+                    throw new DataFormatException("inflated length exceeds " + maxLength);
+                }
+                output = Arrays.copyOf(output, (int) Math.min(maxLength, output.length * 2L));
+            }
+            int count = inflater.inflate(output, size, output.length - size);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("truncated deflate data");
+            }
+            size += count;
+        }
+        return size == output.length ? output : Arrays.copyOf(output, size);
+    }
+
+    /**
+     * 计算缓冲里下一条消息的总长度
+     *
+     * @param array byte[]
+     * @param start int | 消息的起始位置
+     * @param limit int | 有效数据的结束位置（不含）
+     * @return long | 消息头和消息体的总字节数；{@link #NEED_MORE}：消息头不完整；{@link #MALFORMED}：消息头不合法
+     */
+    public static long frameLength(byte[] array, int start, int limit) {
+        if (start >= limit) {
+            return NEED_MORE;
+        }
+        if (array[start] != MAGIC_BINARY) {
+            if (limit - start < 4) {
+                return NEED_MORE;
+            }
+            int length = getInt(array, start);
+            return length <= 0 ? MALFORMED : 4L + length;
+        }
+        int idEnd = varintEnd(array, start + 3, limit);
+        if (idEnd < 0) {
+            return idEnd;
+        }
+        int lengthEnd = varintEnd(array, idEnd, limit);
+        if (lengthEnd < 0) {
+            return lengthEnd;
+        }
+        long length = getVarint(array, idEnd);
+        // 恶意的消息头可能给出负数或超出int范围的长度
+        if (length < 0 || length > Integer.MAX_VALUE - (lengthEnd - start)) {
+            return MALFORMED;
+        }
+        return (lengthEnd - start) + length;
+    }
+
+    /**
+     * varint的结束位置
+     *
+     * @return int | 结束位置（不含）；{@link #NEED_MORE}；{@link #MALFORMED}
+     */
+    private static int varintEnd(byte[] array, int index, int limit) {
+        for (int i = 0; i < 10; i++) {
+            if (index + i >= limit) {
+                return (int) NEED_MORE;
+            }
+            if ((array[index + i] & 0x80) == 0) {
+                return index + i + 1;
+            }
+        }
+        return (int) MALFORMED;
+    }
+
+    /**
+     * 解码一条完整的消息，只记录位置，不复制内容
+     *
+     * @param array byte[]
+     * @param start int | 消息的起始位置
+     * @param end   int | 消息的结束位置（不含），由{@link #frameLength(byte[], int, int)}得到
+     * @param frame Frame | 复用的消息
+     * @return boolean | false：消息不合法
+     */
+    public static boolean decode(byte[] array, int start, int end, Frame frame) {
+        if (array[start] != MAGIC_BINARY) {
+            return decodeLegacy(array, start + 4, end, frame);
+        }
+        String type = typeOf(array[start + 1]);
+        int flags = array[start + 2];
+        int index = start + 3;
+        long id = getVarint(array, index);
+        index = varintEnd(array, index, end);
+        // 消息长度已经由frameLength校验过，这里只跳过
+        index = varintEnd(array, index, end);
+        int uniqOffset = 0;
+        int uniqLength = -1;
+        if ((flags & FLAG_UNIQ) != 0) {
+            uniqOffset = varintEnd(array, index, end);
+            if (uniqOffset < 0) {
+                return false;
+            }
+            long temp = getVarint(array, index);
+            // 消息id不能超出这条消息
+            if (temp < 0 || temp > end - uniqOffset) {
+                return false;
+            }
+            uniqLength = (int) temp;
+            index = uniqOffset + uniqLength;
+        }
+        if (Configure.MSG_TYPE_INNER.equals(type)) {
+            frame.set(type, keyOf(id), 0, array, uniqOffset, uniqLength, index, end - index);
+        } else if (Configure.MSG_TYPE_STREAM.equals(type)) {
+            int bodyOffset = varintEnd(array, index, end);
+            if (bodyOffset < 0) {
+                return false;
+            }
+            frame.set(type, null, id, array, uniqOffset, uniqLength, bodyOffset, end - bodyOffset);
+            frame.offset = getVarint(array, index);
+            frame.last = (flags & (FLAG_END | FLAG_ABORT)) != 0;
+            frame.aborted = (flags & FLAG_ABORT) != 0;
+            return true;
+        } else if (Configure.MSG_TYPE_BIZ_SEQ.equals(type) || Configure.MSG_TYPE_REQUEST.equals(type)
+                || Configure.MSG_TYPE_RESPONSE.equals(type)) {
+            frame.set(type, null, id, array, uniqOffset, uniqLength, index, end - index);
+            frame.failed = (flags & FLAG_ERROR) != 0;
+        } else {
+            frame.set(type, null, 0, array, uniqOffset, uniqLength, index, end - index);
+        }
+        frame.compressed = (flags & FLAG_DEFLATE) != 0;
+        return true;
+    }
+
+    /**
+     * 解析字符串格式的消息：类型#@%[分类|消息id|序号#@%]消息体
+     */
+    private static boolean decodeLegacy(byte[] array, int start, int end, Frame frame) {
+        int typeEnd = indexOfSplit(array, start, end);
+        if (typeEnd < 0) {
+            return false;
+        }
+        String type = typeEnd - start == 1 ? typeOf(array[start] - '0') : new String(array, start, typeEnd - start, Configure.UTF_8);
+        int index = typeEnd + SPLIT.length;
+        switch (type) {
+            case Configure.MSG_TYPE_INNER:
+            case Configure.MSG_TYPE_BIZ_NEED_ACK:
+            case Configure.MSG_TYPE_BIZ_SEQ: {
+                int headEnd = indexOfSplit(array, index, end);
+                int bodyOffset = headEnd < 0 ? end : headEnd + SPLIT.length;
+                if (headEnd < 0) {
+                    headEnd = end;
+                }
+                if (Configure.MSG_TYPE_INNER.equals(type)) {
+                    String key = headEnd - index == 1 ? keyOf(array[index] - '0') : new String(array, index, headEnd - index, Configure.UTF_8);
+                    frame.set(type, key, 0, array, 0, -1, bodyOffset, end - bodyOffset);
+                } else if (Configure.MSG_TYPE_BIZ_NEED_ACK.equals(type)) {
+                    frame.set(type, null, 0, array, index, headEnd - index, bodyOffset, end - bodyOffset);
+                } else {
+                    long seq = parseLong(array, index, headEnd);
+                    if (seq < 0) {
+                        return false;
+                    }
+                    frame.set(type, null, seq, array, 0, -1, bodyOffset, end - bodyOffset);
+                }
+                return true;
+            }
+            default:
+                frame.set(type, null, 0, array, 0, -1, index, end - index);
+                return true;
+        }
+    }
+
+    /**
+     * 已编码的消息所属的逻辑通道：二进制格式从标记里读取，字符串格式按类型判断
+     *
+     * @param frame ByteBuffer | 从position开始为消息头，不改变position
+     * @return int | {@link #CHANNEL_CONTROL}等
+     */
+    public static int channelOf(ByteBuffer frame) {
+        int position = frame.position();
+        if (frame.remaining() < 5) {
+            return CHANNEL_NORMAL;
+        }
+        if (frame.get(position) == MAGIC_BINARY) {
+            return (frame.get(position + 2) & CHANNEL_MASK) >> CHANNEL_SHIFT;
+        }
+        return channelOf(typeOf(frame.get(position + 4) - '0'));
+    }
+
+    /**
+     * 已编码的消息是否需要回执或带序号，这类消息丢弃后对方无法察觉，发送队列积压时不能丢弃
+     *
+     * @param frame ByteBuffer | 从position开始为消息头，不改变position
+     * @return boolean
+     */
+    public static boolean isTracked(ByteBuffer frame) {
+        int position = frame.position();
+        if (frame.remaining() < 5) {
+            return false;
+        }
+        String type = typeOf(frame.get(position) == MAGIC_BINARY ? frame.get(position + 1) : frame.get(position + 4) - '0');
+        return Configure.MSG_TYPE_BIZ_NEED_ACK.equals(type) || Configure.MSG_TYPE_BIZ_SEQ.equals(type);
+    }
+
+    private static int channelOf(String type) {
+        switch (type) {
+            case Configure.MSG_TYPE_INNER:
+                return CHANNEL_CONTROL;
+            case Configure.MSG_TYPE_BIZ_NEED_ACK:
+            case Configure.MSG_TYPE_REQUEST:
+            case Configure.MSG_TYPE_RESPONSE:
+                return CHANNEL_URGENT;
+            case Configure.MSG_TYPE_STREAM:
+                return CHANNEL_BULK;
+            default:
+                return CHANNEL_NORMAL;
+        }
+    }
+
+    /**
+     * 消息类型，常用的类型返回常量，不生成新的字符串
+     */
+    private static String typeOf(int type) {
+        switch (type) {
+            case 1:
+                return Configure.MSG_TYPE_BIZ;
+            case 2:
+                return Configure.MSG_TYPE_INNER;
+            case 3:
+                return Configure.MSG_TYPE_BIZ_NEED_ACK;
+            case 4:
+                return Configure.MSG_TYPE_BIZ_SEQ;
+            case 5:
+                return Configure.MSG_TYPE_STREAM;
+            case 6:
+                return Configure.MSG_TYPE_REQUEST;
+            case 7:
+                return Configure.MSG_TYPE_RESPONSE;
+            default:
+                return String.valueOf(type);
+        }
+    }
+
+    /**
+     * 内部链路消息的分类，常用的分类返回常量，不生成新的字符串
+     */
+    private static String keyOf(long key) {
+        switch ((int) key) {
+            case 3:
+                return Configure.KEY_REGIST;
+            case 4:
+                return Configure.KEY_HEART;
+            case 5:
+                return Configure.KEY_ACK;
+            case 6:
+                return Configure.KEY_UNREGISTERED;
+            case 7:
+                return Configure.KEY_SUBSCRIBE;
+            case 8:
+                return Configure.KEY_UNSUBSCRIBE;
+            case 9:
+                return Configure.KEY_RESUME;
+            default:
+                return String.valueOf(key);
+        }
+    }
+
+    private static int indexOfSplit(byte[] array, int start, int end) {
+        for (int i = start; i <= end - SPLIT.length; i++) {
+            if (array[i] == SPLIT[0] && array[i + 1] == SPLIT[1] && array[i + 2] == SPLIT[2]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 解析十进制的序号
+     *
+     * @return long | 不合法时为-1
+     */
+    private static long parseLong(byte[] array, int start, int end) {
+        if (start >= end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = array[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int getInt(byte[] array, int index) {
+        return ((array[index] & 0xFF) << 24) | ((array[index + 1] & 0xFF) << 16)
+                | ((array[index + 2] & 0xFF) << 8) | (array[index + 3] & 0xFF);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarint(byte[] array, int index) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = array[index++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return value;
+    }
+}
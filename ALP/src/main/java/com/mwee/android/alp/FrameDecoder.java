@@ -0,0 +1,133 @@
+package com.mwee.android.alp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * @Description: 增量的消息解码器，每条链路一个，客户端和服务端共用；
+ * 读到的数据追加到复用的读缓冲里，半个消息头、半个消息体都留到下一次读取后再解码，
+ * 解码出的{@link Frame}也是复用的，稳定状态下不产生新的对象。读缓冲从{@link BufferPool#heap()}租借，链路结束时调用{@link #release()}归还。
+ * 超过最大长度的消息直接抛出异常断开链路，不会静默丢弃，更大的内容应使用流消息分片推送。
+ * 非线程安全，只能在读线程里使用
+ * @author: Xiaolong
+ * @Date: 2018/10/17
+ */
+class FrameDecoder {
+    private final int maxFrameLength;
+    private PooledBuffer lease;
+    private ByteBuffer buffer;
+    /**
+     * 尚未解码的数据的起始位置，buffer.position()为写入位置
+     */
+    private int readIndex = 0;
+    /**
+     * 下一条消息完整时需要的字节数，0表示未知
+     */
+    private int needed = 0;
+    private final Frame frame;
+
+    /**
+     * @param initialCapacity int | 读缓冲的初始大小
+     * @param maxFrameLength  int | 单条消息的最大长度，超过时{@link #next()}抛出异常
+     */
+    protected FrameDecoder(int initialCapacity, int maxFrameLength) {
+        this.lease = BufferPool.heap().acquire(initialCapacity);
+        this.buffer = lease.buffer();
+        this.maxFrameLength = maxFrameLength;
+        this.frame = new Frame(maxFrameLength);
+    }
+
+    /**
+     * 从非阻塞的通道读取
+     *
+     * @param channel ReadableByteChannel
+     * @return int | 读到的字节数，-1表示链路已断开
+     * @throws IOException
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        ensureWritable();
+        return channel.read(buffer);
+    }
+
+    /**
+     * 解码下一条消息，返回的消息在下一次调用{@link #next()}或读取前有效
+     *
+     * @return Frame | 数据还不完整时为空
+     * @throws IOException 消息头不合法或消息超长
+     */
+    public Frame next() throws IOException {
+        byte[] array = buffer.array();
+        int offset = buffer.arrayOffset();
+        while (true) {
+            int limit = buffer.position();
+            long length = FrameCodec.frameLength(array, offset + readIndex, offset + limit);
+            if (length == FrameCodec.NEED_MORE) {
+                needed = 0;
+                return null;
+            }
+            if (length == FrameCodec.MALFORMED) {
+                throw new IOException("malformed frame header");
+            }
+            if (length >= maxFrameLength) {
+                throw new IOException("frame length " + length + " exceeds " + maxFrameLength);
+            }
+            if (limit - readIndex < length) {
+                needed = (int) length;
+                return null;
+            }
+            int start = readIndex;
+            readIndex += (int) length;
+            if (FrameCodec.decode(array, offset + start, offset + readIndex, frame)) {
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * 读取前腾出空间：已全部解码时直接复位，剩余空间不足时把未解码的数据移到开头，容纳不下一条消息时扩容
+     */
+    private void ensureWritable() {
+        int limit = buffer.position();
+        if (readIndex == limit) {
+            buffer.clear();
+            readIndex = 0;
+            return;
+        }
+        if (buffer.hasRemaining() && needed <= buffer.capacity() - readIndex) {
+            return;
+        }
+        int pending = limit - readIndex;
+        PooledBuffer targetLease = lease;
+        if (needed > buffer.capacity() || pending == buffer.capacity()) {
+            targetLease = BufferPool.heap().acquire(Math.max(needed, buffer.capacity() * 2));
+        }
+        ByteBuffer target = targetLease.buffer();
+        System.arraycopy(buffer.array(), buffer.arrayOffset() + readIndex, target.array(), target.arrayOffset(), pending);
+        target.clear();
+        target.position(pending);
+        if (targetLease != lease) {
+            lease.release();
+            lease = targetLease;
+        }
+        buffer = target;
+        readIndex = 0;
+    }
+
+    /**
+     * 归还读缓冲，之后不能再使用
+     */
+    public void release() {
+        if (lease != null) {
+            lease.release();
+            lease = null;
+        }
+    }
+
+    /**
+     * @return int | 已读取尚未解码的字节数
+     */
+    public int getPendingBytes() {
+        return buffer.position() - readIndex;
+    }
+}
@@ -4,10 +4,26 @@ package com.mwee.android.alp;
  * @author: Xiaolong
  * @Date: 2018/9/19
  */
-public interface IMoniter {
+public interface IMoniter extends IStreamReceiver {
     void connected();
 
     void disconnected(boolean manaualStop);
 
     void receiveMsg(String uniq, String msg);
+
+    /**
+     * 收到的消息都先回调这里，默认按UTF-8解码后回调{@link #receiveMsg(String, String)}
+     *
+     * @param uniq    String
+     * @param payload byte[]
+     */
+    default void receiveMsg(String uniq, byte[] payload) {
+        receiveMsg(uniq, new String(payload, Configure.UTF_8));
+    }
+
+    /**
+     * 服务端无法补发断线期间的消息，会话已重置
+     */
+    default void sessionReset() {
+    }
 }
@@ -5,17 +5,42 @@ package com.mwee.android.alp;
  * @author: Xiaolong
  * @Date: 2018/9/19
  */
-public interface IMsgReceiver {
+public interface IMsgReceiver extends IStreamReceiver {
 
     /**
      * 消息接受
      *
      * @param uniq  消息标识
-     * @param param 消息内容
+     * @param param 消息内容，按UTF-8解码
      */
     void receive(String uniq, String param);
 
+    /**
+     * 消息接受，收到的消息都先回调这里；需要原始字节（protobuf、图片等）时重写，默认按UTF-8解码后回调{@link #receive(String, String)}
+     *
+     * @param uniq    消息标识
+     * @param payload 消息内容
+     */
+    default void receive(String uniq, byte[] payload) {
+        receive(uniq, new String(payload, Configure.UTF_8));
+    }
+
     void connected();
 
     void disconnected();
+
+    /**
+     * 服务端到某个终端的链路可写状态发生变化
+     *
+     * @param target   String | 终端注册的名称，未注册时为空
+     * @param writable boolean | false：积压超过高水位；true：积压回落到低水位以下
+     */
+    default void writabilityChanged(String target, boolean writable) {
+    }
+
+    /**
+     * 重连后服务端无法补齐断线期间的消息（服务端重启或积压过多），可能有消息丢失，业务层需要自行全量同步
+     */
+    default void sessionReset() {
+    }
 }
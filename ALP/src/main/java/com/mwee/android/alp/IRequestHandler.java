@@ -0,0 +1,20 @@
+package com.mwee.android.alp;
+
+/**
+ * @Description: 处理对端的请求，按方法名注册到{@link PushServer#registerHandler(String, IRequestHandler)}
+ * 或{@link PushClient#registerHandler(String, IRequestHandler)}，在消息线程上回调
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public interface IRequestHandler {
+
+    /**
+     * 处理请求
+     *
+     * @param source  String | 请求方：服务端收到时为终端注册的名称，终端收到时为空
+     * @param payload byte[] | 请求内容
+     * @return byte[] | 响应内容，不能为空
+     * @throws Exception 异常信息作为错误返回给请求方，请求方收到{@link RpcException}
+     */
+    byte[] handle(String source, byte[] payload) throws Exception;
+}
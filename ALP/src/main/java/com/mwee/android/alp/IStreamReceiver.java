@@ -0,0 +1,28 @@
+package com.mwee.android.alp;
+
+/**
+ * @Description: 流消息的接收，大消息按段到达，每段单独回调，接收方不需要缓存整条消息
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public interface IStreamReceiver {
+
+    /**
+     * 收到流的一段，同一个流的各段按偏移顺序回调
+     *
+     * @param uniq   String | 发送方指定的流标识
+     * @param offset long | 这一段在流里的偏移
+     * @param chunk  byte[] | 这一段的内容，最后一段可能为空
+     * @param last   boolean | 是否最后一段
+     */
+    default void receiveChunk(String uniq, long offset, byte[] chunk, boolean last) {
+    }
+
+    /**
+     * 流在最后一段到达前中止：发送方读取失败或链路断开，已收到的内容需要丢弃
+     *
+     * @param uniq String | 发送方指定的流标识
+     */
+    default void streamAborted(String uniq) {
+    }
+}
@@ -0,0 +1,63 @@
+package com.mwee.android.alp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 一条链路上正在接收的流，记录流id和流标识的对应关系，链路断开时中止未结束的流；
+ * 只在链路的读线程里访问，不是线程安全的
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+class InboundStreams {
+    /**
+     * 流id -> 流标识
+     */
+    private final Map<Long, String> streams = new HashMap<>();
+
+    /**
+     * 处理流的一段
+     *
+     * @param frame    Frame | {@link Configure#MSG_TYPE_STREAM}
+     * @param receiver IStreamReceiver | 可以为空
+     */
+    public void receive(Frame frame, IStreamReceiver receiver) {
+        String uniq = frame.uniq();
+        if (uniq != null) {
+            streams.put(frame.seq, uniq);
+        } else {
+            uniq = streams.get(frame.seq);
+            if (uniq == null) {
+                Timber.i("丢弃未知的流 id=" + frame.seq + " offset=" + frame.offset);
+                return;
+            }
+        }
+        if (frame.last) {
+            streams.remove(frame.seq);
+        }
+        if (receiver == null) {
+            return;
+        }
+        if (frame.aborted) {
+            receiver.streamAborted(uniq);
+        } else {
+            receiver.receiveChunk(uniq, frame.offset, frame.bytes(), frame.last);
+        }
+    }
+
+    /**
+     * 链路断开，中止所有未结束的流
+     *
+     * @param receiver IStreamReceiver | 可以为空
+     */
+    public void abortAll(IStreamReceiver receiver) {
+        if (receiver != null) {
+            for (String uniq : streams.values()) {
+                receiver.streamAborted(uniq);
+            }
+        }
+        streams.clear();
+    }
+}
@@ -0,0 +1,147 @@
+package com.mwee.android.alp;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description: 链路注册表，无锁；按名称注册、注销、查找都是O(1)，广播时复用快照数组，链路没有变化时不分配内存
+ * @author: Xiaolong
+ * @Date: 2018/10/13
+ */
+class LinkRegistry<T> {
+
+    /**
+     * 链路快照和生成快照时的版本号
+     */
+    private static final class Snapshot<T> {
+        private final int version;
+        private final T[] links;
+
+        private Snapshot(int version, T[] links) {
+            this.version = version;
+            this.links = links;
+        }
+    }
+
+    /**
+     * 名称和链路的mapping
+     */
+    private final ConcurrentHashMap<String, T> keyLinks = new ConcurrentHashMap<>();
+    /**
+     * 所有链路，包括未注册名称的
+     */
+    private final Set<T> links = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+    /**
+     * 链路集合的版本号，每次增删都会加1
+     */
+    private final AtomicInteger version = new AtomicInteger(0);
+    private final T[] empty;
+    private volatile Snapshot<T> snapshot = null;
+
+    /**
+     * @param empty T[] | 长度为0的数组，用于生成快照数组的类型
+     */
+    protected LinkRegistry(T[] empty) {
+        this.empty = empty;
+    }
+
+    /**
+     * 添加链路
+     *
+     * @param link T
+     */
+    public void add(T link) {
+        if (links.add(link)) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * 移除链路，同时移除仍然指向该链路的名称
+     *
+     * @param link T
+     * @param key  String | 链路注册的名称，可以为空
+     */
+    public void remove(T link, String key) {
+        if (links.remove(link)) {
+            version.incrementAndGet();
+        }
+        unbind(key, link);
+    }
+
+    /**
+     * 把名称绑定到链路上，同一个名称从新的链路重新注册时原子地替换
+     *
+     * @param key  String
+     * @param link T
+     * @return T | 之前绑定在该名称上的链路，没有则为null
+     */
+    public T bind(String key, T link) {
+        if (key == null) {
+            return null;
+        }
+        T old = keyLinks.put(key, link);
+        return old == link ? null : old;
+    }
+
+    /**
+     * 解除绑定，只有名称仍然指向该链路时才解除，避免旧链路注销时把新链路的绑定删掉
+     *
+     * @param key  String
+     * @param link T
+     */
+    public void unbind(String key, T link) {
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        keyLinks.remove(key, link);
+    }
+
+    public T get(String key) {
+        if (key == null) {
+            return null;
+        }
+        return keyLinks.get(key);
+    }
+
+    public boolean containsKey(String key) {
+        return key != null && keyLinks.containsKey(key);
+    }
+
+    /**
+     * 所有链路的快照，链路没有变化时返回同一个数组，调用方不能修改
+     *
+     * @return T[]
+     */
+    public T[] snapshot() {
+        int current = version.get();
+        Snapshot<T> temp = snapshot;
+        if (temp != null && temp.version == current) {
+            return temp.links;
+        }
+        T[] array = links.toArray(empty);
+        snapshot = new Snapshot<>(current, array);
+        return array;
+    }
+
+    public int size() {
+        return links.size();
+    }
+
+    public Set<String> keySet() {
+        return keyLinks.keySet();
+    }
+
+    public void clear() {
+        links.clear();
+        keyLinks.clear();
+        version.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return links.toString();
+    }
+}
@@ -0,0 +1,332 @@
+package com.mwee.android.alp;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 离线信箱，终端未连接时推送给它的消息按名称写入{@link SegmentLog}，终端注册后按顺序批量补发；
+ * 补发的消息需要回执，一批全部收到回执后才消费并补发下一批；补发期间新推送给该终端的消息也先写入信箱，排在补发的消息后面，
+ * 信箱清空后才恢复直接推送。所有读写都在信箱自己的线程里执行，不阻塞推送线程
+ * @author: Xiaolong
+ * @Date: 2018/10/16
+ */
+class OfflineMailbox {
+
+    /**
+     * 补发消息的接收方
+     */
+    interface IDeliver {
+        /**
+         * 投递一批需要回执的消息
+         *
+         * @param uniqs     List | 和消息体一一对应的消息id，重启后不变，终端据此去重
+         * @param batch     List | 按写入顺序排列的消息体
+         * @param delivered IDelivered | 全部收到回执或失败后回调一次
+         */
+        void deliver(List<String> uniqs, List<byte[]> batch, IDelivered delivered);
+    }
+
+    /**
+     * 一批补发消息的结果
+     */
+    interface IDelivered {
+        /**
+         * @param success boolean | false：有消息没有收到回执，这批消息保留在信箱里
+         */
+        void onDelivered(boolean success);
+    }
+
+    /**
+     * 正在补发的终端
+     */
+    private static final class Replay {
+        private final IDeliver deliver;
+        /**
+         * 已提交但还没有写入的消息数，由{@link #replaying}的锁保护
+         */
+        private int pendingOffers = 0;
+        /**
+         * 是否有一批消息在等待回执，只在信箱线程里访问
+         */
+        private boolean inFlight = false;
+
+        private Replay(IDeliver deliver) {
+            this.deliver = deliver;
+        }
+    }
+
+    /**
+     * 单个分段文件的大小，4M
+     */
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    /**
+     * 一批补发的最大字节数
+     */
+    private static final int BATCH_BYTES = 64 * 1024;
+    /**
+     * 过期清理的间隔，1分钟
+     */
+    private static final long PURGE_INTERVAL = 60 * 1000;
+
+    private final SegmentLog log;
+    /**
+     * 每个名称最多保留的消息数，超过则丢弃最旧的
+     */
+    private final int maxPerKey;
+    /**
+     * 消息的有效期，毫秒
+     */
+    private final long ttl;
+    /**
+     * 名称和尚未补发的消息索引，只在信箱线程里访问
+     */
+    private final Map<String, ArrayDeque<SegmentLog.Record>> index = new HashMap<>();
+    /**
+     * 名称和正在进行的补发，推送线程和信箱线程都会访问，读写时加锁
+     */
+    private final Map<String, Replay> replaying = new HashMap<>();
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param dir       File | 信箱文件所在的目录
+     * @param maxPerKey int | 每个名称最多保留的消息数
+     * @param ttl       long | 消息的有效期，毫秒
+     */
+    protected OfflineMailbox(File dir, int maxPerKey, long ttl) {
+        this.log = new SegmentLog(dir, SEGMENT_SIZE);
+        this.maxPerKey = maxPerKey;
+        this.ttl = ttl;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ALPMailbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::load);
+        executor.scheduleWithFixedDelay(this::purge, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() {
+        try {
+            List<SegmentLog.Record> records = log.load();
+            for (SegmentLog.Record record : records) {
+                queue(record.getKey()).offer(record);
+            }
+            Timber.i("OfflineMailbox loaded " + records.size() + " messages for " + index.size() + " targets");
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
+    /**
+     * 保存一条消息，异步写入
+     *
+     * @param key     String | 终端名称
+     * @param payload byte[] | 消息体
+     */
+    public void offer(final String key, final byte[] payload) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.execute(() -> append(key, payload));
+    }
+
+    /**
+     * 终端正在补发时保存消息，排在补发的消息后面，保证新消息不会先于离线消息到达
+     *
+     * @param key     String | 终端名称
+     * @param payload byte[] | 消息体
+     * @return boolean | false：没有在补发，调用方直接推送
+     */
+    public boolean offerIfReplaying(final String key, final byte[] payload) {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        final Replay replay;
+        synchronized (replaying) {
+            replay = replaying.get(key);
+            if (replay == null) {
+                return false;
+            }
+            replay.pendingOffers++;
+        }
+        executor.execute(() -> {
+            append(key, payload);
+            synchronized (replaying) {
+                replay.pendingOffers--;
+            }
+            drain(key, replay);
+        });
+        return true;
+    }
+
+    private void append(String key, byte[] payload) {
+        try {
+            ArrayDeque<SegmentLog.Record> queue = queue(key);
+            queue.offer(log.append(key, payload));
+            while (queue.size() > maxPerKey) {
+                log.consume(queue.poll());
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
+    /**
+     * 按写入顺序批量补发某个名称的消息，过期的消息直接丢弃；信箱清空前新推送给该名称的消息由{@link #offerIfReplaying(String, byte[])}接收
+     *
+     * @param key     String | 终端名称
+     * @param deliver IDeliver
+     */
+    public void replay(final String key, final IDeliver deliver) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        final Replay replay = new Replay(deliver);
+        synchronized (replaying) {
+            // 同一个名称重新注册时替换旧的补发，旧链路上未确认的消息会再补发一次，由终端去重
+            replaying.put(key, replay);
+        }
+        executor.execute(() -> drain(key, replay));
+    }
+
+    /**
+     * 补发下一批消息，信箱清空并且没有待写入的消息时结束补发，只在信箱线程里调用
+     */
+    private void drain(final String key, final Replay replay) {
+        if (replay.inFlight || !isReplaying(key, replay)) {
+            return;
+        }
+        ArrayDeque<SegmentLog.Record> queue = index.get(key);
+        while (queue != null && !queue.isEmpty() && isExpired(queue.peek())) {
+            log.consume(queue.poll());
+        }
+        if (queue == null || queue.isEmpty()) {
+            synchronized (replaying) {
+                if (replay.pendingOffers > 0) {
+                    return;
+                }
+                replaying.remove(key);
+            }
+            index.remove(key);
+            log.force();
+            Timber.i("OfflineMailbox 补发给[" + key + "]完成");
+            return;
+        }
+        final List<SegmentLog.Record> records = new ArrayList<>();
+        List<String> uniqs = new ArrayList<>();
+        List<byte[]> batch = new ArrayList<>();
+        int batchBytes = 0;
+        for (SegmentLog.Record record : queue) {
+            if (batchBytes >= BATCH_BYTES) {
+                break;
+            }
+            byte[] payload = log.read(record);
+            records.add(record);
+            uniqs.add(uniq(record));
+            batch.add(payload);
+            batchBytes += payload.length;
+        }
+        replay.inFlight = true;
+        try {
+            replay.deliver.deliver(uniqs, batch, success -> {
+                if (!executor.isShutdown()) {
+                    executor.execute(() -> onDelivered(key, replay, records, success));
+                }
+            });
+        } catch (Exception e) {
+            Timber.e(e);
+            onDelivered(key, replay, records, false);
+        }
+    }
+
+    /**
+     * 一批消息有了结果，成功时消费并补发下一批，失败时结束补发，消息留到下次注册
+     */
+    private void onDelivered(String key, Replay replay, List<SegmentLog.Record> records, boolean success) {
+        replay.inFlight = false;
+        ArrayDeque<SegmentLog.Record> queue = index.get(key);
+        if (!success) {
+            synchronized (replaying) {
+                if (replaying.get(key) == replay) {
+                    replaying.remove(key);
+                }
+            }
+            Timber.i("OfflineMailbox 补发给[" + key + "]失败，剩余" + (queue == null ? 0 : queue.size()) + "条");
+            return;
+        }
+        if (queue != null) {
+            for (SegmentLog.Record record : records) {
+                // 等待回执期间可能已经被过期清理或者超出数量丢弃
+                if (queue.remove(record)) {
+                    log.consume(record);
+                }
+            }
+        }
+        drain(key, replay);
+    }
+
+    private boolean isReplaying(String key, Replay replay) {
+        synchronized (replaying) {
+            return replaying.get(key) == replay;
+        }
+    }
+
+    /**
+     * 补发消息的id，分段和位置在分段被删除后会复用，加上写入时间避免和去重窗口里的旧消息重复
+     */
+    private static String uniq(SegmentLog.Record record) {
+        return "mailbox_" + record.getTimestamp() + "_" + record.getId();
+    }
+
+    /**
+     * 清理过期的消息
+     */
+    private void purge() {
+        try {
+            Iterator<Map.Entry<String, ArrayDeque<SegmentLog.Record>>> iterator = index.entrySet().iterator();
+            while (iterator.hasNext()) {
+                ArrayDeque<SegmentLog.Record> queue = iterator.next().getValue();
+                while (!queue.isEmpty() && isExpired(queue.peek())) {
+                    log.consume(queue.poll());
+                }
+                if (queue.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+            log.force();
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
+    private boolean isExpired(SegmentLog.Record record) {
+        return ttl > 0 && System.currentTimeMillis() - record.getTimestamp() > ttl;
+    }
+
+    private ArrayDeque<SegmentLog.Record> queue(String key) {
+        ArrayDeque<SegmentLog.Record> queue = index.get(key);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            index.put(key, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * 关闭信箱，已提交的写入会在关闭前完成
+     */
+    public void close() {
+        executor.execute(log::close);
+        executor.shutdown();
+    }
+}
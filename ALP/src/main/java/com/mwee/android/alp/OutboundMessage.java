@@ -0,0 +1,157 @@
+package com.mwee.android.alp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @Description: 一条待推送的业务消息，每种编码只生成一次，推送给多个链路时共享；
+ * 编码后的消息从缓冲池租借，推送完成后调用{@link #release()}，各链路的发送队列另外持有自己的引用；
+ * 消息体超过阈值时另外缓存一份压缩后的编码，只压缩一次
+ * @author: Xiaolong
+ * @Date: 2018/10/17
+ */
+class OutboundMessage {
+    private final byte[] payload;
+    /**
+     * 需要回执时为消息id
+     */
+    private final String uniq;
+    /**
+     * {@link OverflowPolicy#Conflate}的合并键
+     */
+    private final String conflateKey;
+    /**
+     * 按版本缓存的完整消息
+     */
+    private final PooledBuffer[] frames = new PooledBuffer[FrameCodec.VERSION_BINARY + 1];
+    /**
+     * 只有消息体，和各链路自己的消息头一起写出
+     */
+    private ByteBuffer body;
+    /**
+     * 压缩后的消息体，压缩后没有变小时为空
+     */
+    private byte[] deflated;
+    private boolean deflateTried;
+    /**
+     * 压缩后的完整消息，只有二进制格式
+     */
+    private PooledBuffer deflatedFrame;
+    private ByteBuffer deflatedBody;
+
+    protected OutboundMessage(byte[] payload) {
+        this(null, payload);
+    }
+
+    /**
+     * @param uniq    String | 需要回执时为消息id，否则为空
+     * @param payload byte[] | 消息体，直接引用不复制，推送期间调用方不能修改
+     */
+    protected OutboundMessage(String uniq, byte[] payload) {
+        this(uniq, payload, null);
+    }
+
+    /**
+     * @param uniq        String | 需要回执时为消息id，否则为空
+     * @param payload     byte[] | 消息体，直接引用不复制，推送期间调用方不能修改
+     * @param conflateKey String | 合并键，为空时和其他没有合并键的消息合并
+     */
+    protected OutboundMessage(String uniq, byte[] payload, String conflateKey) {
+        this.uniq = uniq;
+        this.payload = payload;
+        this.conflateKey = conflateKey;
+    }
+
+    /**
+     * 完整的消息
+     *
+     * @param version int | 链路的协议版本
+     * @return PooledBuffer | 使用方需要{@link PooledBuffer#retain()}并使用{@link ByteBuffer#duplicate()}
+     */
+    public synchronized PooledBuffer frame(int version) {
+        if (frames[version] == null) {
+            frames[version] = FrameCodec.encodeBiz(BufferPool.direct(), version, uniq, payload);
+        }
+        return frames[version];
+    }
+
+    /**
+     * 是否值得压缩
+     *
+     * @param threshold int | 消息体达到这个字节数才压缩，小于等于0时不压缩
+     * @return boolean | 压缩后变小时为true，之后可以使用{@link #deflatedFrame()}、{@link #deflatedBody()}
+     */
+    public synchronized boolean deflate(int threshold) {
+        if (threshold <= 0 || payload.length < threshold) {
+            return false;
+        }
+        if (!deflateTried) {
+            deflateTried = true;
+            deflated = FrameCodec.deflate(payload);
+        }
+        return deflated != null;
+    }
+
+    /**
+     * 压缩后的完整消息，调用前{@link #deflate(int)}必须返回true
+     *
+     * @return PooledBuffer | 使用方需要{@link PooledBuffer#retain()}并使用{@link ByteBuffer#duplicate()}
+     */
+    public synchronized PooledBuffer deflatedFrame() {
+        if (deflatedFrame == null) {
+            deflatedFrame = FrameCodec.encodeBiz(BufferPool.direct(), FrameCodec.VERSION_BINARY, uniq, deflated, true);
+        }
+        return deflatedFrame;
+    }
+
+    /**
+     * 压缩后的消息体，调用前{@link #deflate(int)}必须返回true
+     *
+     * @return ByteBuffer | 只读，使用方需要{@link ByteBuffer#duplicate()}
+     */
+    public synchronized ByteBuffer deflatedBody() {
+        if (deflatedBody == null) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(deflated.length);
+            buffer.put(deflated).flip();
+            deflatedBody = buffer.asReadOnlyBuffer();
+        }
+        return deflatedBody;
+    }
+
+    /**
+     * 消息体
+     *
+     * @return ByteBuffer | 只读，使用方需要{@link ByteBuffer#duplicate()}
+     */
+    public synchronized ByteBuffer body() {
+        if (body == null) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(payload.length);
+            buffer.put(payload).flip();
+            body = buffer.asReadOnlyBuffer();
+        }
+        return body;
+    }
+
+    /**
+     * 释放编码后的消息，已入队的链路不受影响
+     */
+    public synchronized void release() {
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] != null) {
+                frames[i].release();
+                frames[i] = null;
+            }
+        }
+        if (deflatedFrame != null) {
+            deflatedFrame.release();
+            deflatedFrame = null;
+        }
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public String getConflateKey() {
+        return conflateKey;
+    }
+}
@@ -0,0 +1,489 @@
+package com.mwee.android.alp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * @Description: 链路的发送队列，调用方只入队，由事件循环在通道可写时批量写出；
+ * 队列不空且积压字节数超过高水位时按{@link OverflowPolicy}处理，回落到低水位以下时恢复可写；
+ * 消息按逻辑通道分别排队，内部链路消息总是最先写出，其他通道按权重轮转（按字节的差额轮询），
+ * 大消息不会让回执和心跳等很久
+ * @author: Xiaolong
+ * @Date: 2018/10/10
+ */
+class OutboundQueue {
+    /**
+     * 默认最多积压的消息数
+     */
+    public static final int DEFAULT_MAX_FRAMES = 4096;
+    /**
+     * 默认高水位，1M
+     */
+    public static final int DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+    /**
+     * 默认低水位，256K
+     */
+    public static final int DEFAULT_LOW_WATERMARK = 256 * 1024;
+    /**
+     * 内部链路消息（心跳、回执等）使用的策略，不受水位限制，永不丢弃
+     */
+    public static final int POLICY_NEVER_DROP = -2;
+
+    /**
+     * 入队成功
+     */
+    public static final int OFFER_OK = 0;
+    /**
+     * 新消息被丢弃
+     */
+    public static final int OFFER_DROPPED = 1;
+    /**
+     * 需要断开链路
+     */
+    public static final int OFFER_DISCONNECT = 2;
+
+    /**
+     * 一次聚合写出的最大消息数
+     */
+    private static final int MAX_BATCH = 64;
+    /**
+     * 一次排空最多尝试的聚合写次数，避免一个链路长时间占用事件循环
+     */
+    private static final int MAX_WRITE_SPIN = 16;
+    /**
+     * 每次聚合写前最多从各通道取出的字节数，取出后的顺序不再改变，之后到达的高优先级消息仍能排到前面
+     */
+    private static final int MAX_SCHEDULED_BYTES = 64 * 1024;
+    /**
+     * 差额轮询每轮的基本额度
+     */
+    private static final int QUANTUM = 4 * 1024;
+    /**
+     * 各通道的权重，{@link FrameCodec#CHANNEL_CONTROL}严格优先，不参与轮转
+     */
+    private static final int[] WEIGHTS = {0, 8, 4, 1};
+
+    /**
+     * 可写状态变化的监听
+     */
+    interface IWritabilityListener {
+        /**
+         * 在持有队列锁的情况下回调，实现方不能做耗时操作
+         *
+         * @param writable boolean | false：积压超过高水位；true：回落到低水位以下
+         */
+        void onWritabilityChanged(boolean writable);
+    }
+
+    /**
+     * 队列里的一条消息，由链路独有的消息头和可共享的消息体组成，消息头可以为空；
+     * 消息写完、被丢弃或队列清空时释放持有的缓冲
+     */
+    private static class Entry {
+        private final PooledBuffer headerLease;
+        private final ByteBuffer header;
+        private final ByteBuffer body;
+        private final PooledBuffer bodyLease;
+        private final int policy;
+        /**
+         * 合并键，只对{@link OverflowPolicy#Conflate}有意义
+         */
+        private final String conflateKey;
+        /**
+         * 入队的顺序，跨通道比较新旧
+         */
+        private final long sequence;
+        private final int channel;
+        /**
+         * 需要回执或带序号的消息，只在入队时按策略拒绝，入队后不会被丢弃
+         */
+        private final boolean tracked;
+
+        private Entry(PooledBuffer headerLease, ByteBuffer body, PooledBuffer bodyLease, int policy, String conflateKey, long sequence) {
+            this.headerLease = headerLease;
+            this.header = headerLease != null ? headerLease.buffer() : null;
+            this.body = body;
+            this.bodyLease = bodyLease;
+            this.policy = policy;
+            this.conflateKey = conflateKey;
+            this.sequence = sequence;
+            this.channel = FrameCodec.channelOf(header != null ? header : body);
+            this.tracked = FrameCodec.isTracked(header != null ? header : body);
+        }
+
+        private void release() {
+            OutboundQueue.release(headerLease, bodyLease);
+        }
+
+        private int remaining() {
+            return (header != null ? header.remaining() : 0) + body.remaining();
+        }
+
+        private boolean hasRemaining() {
+            return body.hasRemaining() || (header != null && header.hasRemaining());
+        }
+
+        /**
+         * 是否还没有开始写
+         *
+         * @return boolean
+         */
+        private boolean isUntouched() {
+            return (header == null || header.position() == 0) && body.position() == 0;
+        }
+    }
+
+    /**
+     * 各通道尚未调度的消息
+     */
+    private final ArrayDeque<Entry>[] channels;
+    /**
+     * 已调度、按写出顺序排列的消息，队头可能已写出一部分
+     */
+    private final ArrayDeque<Entry> scheduled = new ArrayDeque<>();
+    /**
+     * 各通道在差额轮询中剩余的额度
+     */
+    private final int[] deficits = new int[FrameCodec.CHANNEL_COUNT];
+    /**
+     * 差额轮询当前的通道
+     */
+    private int cursor = FrameCodec.CHANNEL_URGENT;
+    /**
+     * 当前通道本轮是否已加过额度
+     */
+    private boolean credited = false;
+    /**
+     * 消息总数
+     */
+    private int size = 0;
+    /**
+     * 下一条消息的入队顺序
+     */
+    private long nextSequence = 0;
+    private final int maxFrames;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final IWritabilityListener listener;
+    /**
+     * 聚合写复用的数组
+     */
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+    /**
+     * 尚未写出的字节数
+     */
+    private long pendingBytes = 0;
+    private boolean writable = true;
+
+    protected OutboundQueue() {
+        this(DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK, null);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected OutboundQueue(int lowWatermark, int highWatermark, IWritabilityListener listener) {
+        this.channels = new ArrayDeque[FrameCodec.CHANNEL_COUNT];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new ArrayDeque<>();
+        }
+        this.maxFrames = DEFAULT_MAX_FRAMES;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = Math.max(lowWatermark, highWatermark);
+        this.listener = listener;
+    }
+
+    /**
+     * 入队
+     *
+     * @param frame  PooledBuffer | 调用方独占的缓冲，所有权交给队列
+     * @param policy int | {@link OverflowPolicy}，或{@link #POLICY_NEVER_DROP}
+     * @return int | {@link #OFFER_OK}、{@link #OFFER_DROPPED}、{@link #OFFER_DISCONNECT}
+     */
+    public synchronized int offer(PooledBuffer frame, int policy) {
+        return offer(null, frame.buffer(), frame, policy);
+    }
+
+    /**
+     * 入队，消息头和消息体作为一个整体处理，聚合写时一起写出；无论是否入队成功，持有的缓冲都交给队列释放
+     *
+     * @param header    PooledBuffer | 链路独有的消息头，可以为空
+     * @param body      ByteBuffer | 调用方独占的缓冲，共享的消息体需要传入副本
+     * @param bodyLease PooledBuffer | 消息体所属的缓冲，调用方已为这条消息持有一次引用，可以为空
+     * @param policy    int | {@link OverflowPolicy}，或{@link #POLICY_NEVER_DROP}
+     * @return int | {@link #OFFER_OK}、{@link #OFFER_DROPPED}、{@link #OFFER_DISCONNECT}
+     */
+    public synchronized int offer(PooledBuffer header, ByteBuffer body, PooledBuffer bodyLease, int policy) {
+        return offer(header, body, bodyLease, policy, null);
+    }
+
+    /**
+     * 入队，{@link OverflowPolicy#Conflate}只替换合并键相同的消息
+     *
+     * @param header      PooledBuffer | 链路独有的消息头，可以为空
+     * @param body        ByteBuffer | 调用方独占的缓冲，共享的消息体需要传入副本
+     * @param bodyLease   PooledBuffer | 消息体所属的缓冲，调用方已为这条消息持有一次引用，可以为空
+     * @param policy      int | {@link OverflowPolicy}，或{@link #POLICY_NEVER_DROP}
+     * @param conflateKey String | 合并键，为空的消息之间互相合并
+     * @return int | {@link #OFFER_OK}、{@link #OFFER_DROPPED}、{@link #OFFER_DISCONNECT}
+     */
+    public synchronized int offer(PooledBuffer header, ByteBuffer body, PooledBuffer bodyLease, int policy, String conflateKey) {
+        int result = enqueue(header, body, bodyLease, policy, conflateKey);
+        if (result != OFFER_OK) {
+            release(header, bodyLease);
+        }
+        return result;
+    }
+
+    private int enqueue(PooledBuffer header, ByteBuffer body, PooledBuffer bodyLease, int policy, String conflateKey) {
+        int length = (header != null ? header.buffer().remaining() : 0) + body.remaining();
+        // 空队列总是接受，超过高水位的单条消息也能发出去，之后由可写状态通知调用方
+        if (policy != POLICY_NEVER_DROP && pendingBytes > 0) {
+            if (pendingBytes + length > highWatermark) {
+                switch (policy) {
+                    case OverflowPolicy.Disconnect:
+                        return OFFER_DISCONNECT;
+                    case OverflowPolicy.DropOldest:
+                        // 超过高水位的消息丢弃其他消息也放不下
+                        if (length > highWatermark) {
+                            return OFFER_DROPPED;
+                        }
+                        dropOldest(length);
+                        break;
+                    case OverflowPolicy.Conflate:
+                        dropConflated(conflateKey);
+                        break;
+                    case OverflowPolicy.DropNewest:
+                    default:
+                        return OFFER_DROPPED;
+                }
+                // 能丢弃的消息不够时仍然放不下
+                if (pendingBytes > 0 && pendingBytes + length > highWatermark) {
+                    return OFFER_DROPPED;
+                }
+            }
+            if (size >= maxFrames) {
+                return OFFER_DROPPED;
+            }
+        }
+        Entry entry = new Entry(header, body, bodyLease, policy, conflateKey, nextSequence++);
+        channels[entry.channel].offer(entry);
+        size++;
+        pendingBytes += length;
+        if (writable && pendingBytes > highWatermark) {
+            setWritable(false);
+        }
+        return OFFER_OK;
+    }
+
+    /**
+     * 不分通道，按入队顺序丢弃最旧的尚未调度的消息，直到能容纳新消息
+     *
+     * @param length int | 新消息的长度
+     */
+    private void dropOldest(int length) {
+        while (pendingBytes + length > highWatermark) {
+            Iterator<Entry> oldest = null;
+            Entry oldestEntry = null;
+            // 每个通道内按入队顺序排列，只需要比较各通道第一条能丢弃的消息
+            for (ArrayDeque<Entry> channel : channels) {
+                Iterator<Entry> iterator = channel.iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (isDroppable(entry)) {
+                        if (oldestEntry == null || entry.sequence < oldestEntry.sequence) {
+                            oldest = iterator;
+                            oldestEntry = entry;
+                        }
+                        break;
+                    }
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            remove(oldest, oldestEntry);
+        }
+    }
+
+    /**
+     * 丢弃尚未调度的、合并键相同的合并消息
+     *
+     * @param conflateKey String | 新消息的合并键
+     */
+    private void dropConflated(String conflateKey) {
+        for (ArrayDeque<Entry> channel : channels) {
+            Iterator<Entry> iterator = channel.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.policy != OverflowPolicy.Conflate || !isDroppable(entry)
+                        || !(conflateKey == null ? entry.conflateKey == null : conflateKey.equals(entry.conflateKey))) {
+                    continue;
+                }
+                remove(iterator, entry);
+            }
+        }
+    }
+
+    private void remove(Iterator<Entry> iterator, Entry entry) {
+        pendingBytes -= entry.remaining();
+        size--;
+        iterator.remove();
+        entry.release();
+    }
+
+    /**
+     * 已经写出一部分的消息、内部链路消息和需要回执或带序号的消息不能丢弃
+     *
+     * @param entry Entry
+     * @return boolean
+     */
+    private boolean isDroppable(Entry entry) {
+        return entry.policy != POLICY_NEVER_DROP && !entry.tracked && entry.isUntouched();
+    }
+
+    /**
+     * 把积压的消息尽可能合并成少量的聚合写
+     *
+     * @param channel GatheringByteChannel | 非阻塞通道
+     * @return boolean | true：已全部写出；false：通道暂时不可写
+     * @throws IOException
+     */
+    public synchronized boolean writeTo(GatheringByteChannel channel) throws IOException {
+        for (int spin = 0; spin < MAX_WRITE_SPIN && size > 0; spin++) {
+            schedule();
+            int count = 0;
+            for (Entry entry : scheduled) {
+                if (count + 2 > MAX_BATCH) {
+                    break;
+                }
+                if (entry.header != null) {
+                    batch[count++] = entry.header;
+                }
+                batch[count++] = entry.body;
+            }
+            long written = channel.write(batch, 0, count);
+            Arrays.fill(batch, 0, count, null);
+            pendingBytes -= written;
+            while (!scheduled.isEmpty() && !scheduled.peek().hasRemaining()) {
+                scheduled.poll().release();
+                size--;
+            }
+            if (written == 0) {
+                break;
+            }
+        }
+        if (!writable && pendingBytes <= lowWatermark) {
+            setWritable(true);
+        }
+        return size == 0;
+    }
+
+    /**
+     * 按通道优先级把消息移到写出顺序里，只移出一次聚合写的量
+     */
+    private void schedule() {
+        int bytes = 0;
+        for (Entry entry : scheduled) {
+            bytes += entry.remaining();
+        }
+        while (scheduled.size() < MAX_BATCH / 2 && bytes < MAX_SCHEDULED_BYTES) {
+            Entry entry = pollNext();
+            if (entry == null) {
+                return;
+            }
+            scheduled.offer(entry);
+            bytes += entry.remaining();
+        }
+    }
+
+    /**
+     * 取出下一条要写出的消息：内部链路消息严格优先，其他通道按权重做差额轮询，长期看各通道写出的字节数和权重成正比
+     *
+     * @return Entry | 所有通道都为空时为空
+     */
+    private Entry pollNext() {
+        Entry entry = channels[FrameCodec.CHANNEL_CONTROL].poll();
+        if (entry != null) {
+            return entry;
+        }
+        if (size == scheduled.size()) {
+            return null;
+        }
+        while (true) {
+            ArrayDeque<Entry> channel = channels[cursor];
+            Entry head = channel.peek();
+            if (head == null) {
+                deficits[cursor] = 0;
+                nextChannel();
+                continue;
+            }
+            if (!credited) {
+                deficits[cursor] += QUANTUM * WEIGHTS[cursor];
+                credited = true;
+            }
+            int length = head.remaining();
+            if (deficits[cursor] >= length) {
+                deficits[cursor] -= length;
+                return channel.poll();
+            }
+            nextChannel();
+        }
+    }
+
+    private void nextChannel() {
+        cursor = cursor + 1 < channels.length ? cursor + 1 : FrameCodec.CHANNEL_URGENT;
+        credited = false;
+    }
+
+    private void setWritable(boolean writable) {
+        this.writable = writable;
+        if (listener != null) {
+            listener.onWritabilityChanged(writable);
+        }
+    }
+
+    public synchronized boolean isWritable() {
+        return writable;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public synchronized void clear() {
+        Entry entry;
+        while ((entry = scheduled.poll()) != null) {
+            entry.release();
+        }
+        for (ArrayDeque<Entry> channel : channels) {
+            while ((entry = channel.poll()) != null) {
+                entry.release();
+            }
+        }
+        size = 0;
+        pendingBytes = 0;
+        if (!writable) {
+            setWritable(true);
+        }
+    }
+
+    private static void release(PooledBuffer header, PooledBuffer body) {
+        if (header != null) {
+            header.release();
+        }
+        if (body != null) {
+            body.release();
+        }
+    }
+}
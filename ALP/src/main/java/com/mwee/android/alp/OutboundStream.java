@@ -0,0 +1,105 @@
+package com.mwee.android.alp;
+
+import android.text.TextUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 正在发送的流，每次从输入流读取一段并编码成一条消息，内存占用不超过一段；
+ * 发送方每次只入队一段，心跳、回执等消息可以插在各段之间，不会被大消息阻塞
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+class OutboundStream {
+    /**
+     * 每段的最大长度，编码后仍在缓冲池的最大分级内
+     */
+    public static final int CHUNK_SIZE = 32 * 1024;
+    private static final AtomicLong STREAM_ID = new AtomicLong(0);
+
+    private final long streamId = STREAM_ID.incrementAndGet();
+    private final String uniq;
+    private final InputStream in;
+    /**
+     * 读取一段复用的缓冲
+     */
+    private PooledBuffer chunk;
+    private long offset = 0;
+    private boolean finished = false;
+
+    /**
+     * @param uniq String | 流标识，接收方通过{@link IStreamReceiver}收到，为空时自动生成
+     * @param in   InputStream | 流的内容，发送结束或中止后关闭
+     */
+    protected OutboundStream(String uniq, InputStream in) {
+        this.uniq = TextUtils.isEmpty(uniq) ? UUID.randomUUID().toString() : uniq;
+        this.in = in;
+    }
+
+    /**
+     * 读取下一段并编码；读取失败时编码一条中止消息
+     *
+     * @param pool BufferPool | 编码使用的缓冲池
+     * @return PooledBuffer | 已flip，调用方负责释放
+     */
+    public PooledBuffer next(BufferPool pool) {
+        if (chunk == null) {
+            chunk = BufferPool.heap().acquire(CHUNK_SIZE);
+        }
+        // 堆内缓冲池的缓冲从数组起始位置开始
+        byte[] array = chunk.buffer().array();
+        int length = 0;
+        boolean end = false;
+        boolean abort = false;
+        try {
+            while (length < CHUNK_SIZE) {
+                int count = in.read(array, length, CHUNK_SIZE - length);
+                if (count < 0) {
+                    end = true;
+                    break;
+                }
+                length += count;
+            }
+        } catch (IOException e) {
+            Timber.e(e);
+            abort = true;
+            length = 0;
+        }
+        PooledBuffer frame = FrameCodec.encodeChunk(pool, streamId, offset == 0 ? uniq : null, offset, array, length, end, abort);
+        offset += length;
+        finished = end || abort;
+        return frame;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public String getUniq() {
+        return uniq;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * 关闭输入流并归还缓冲，发送结束、中止或链路断开时调用
+     */
+    public void close() {
+        if (chunk != null) {
+            chunk.release();
+            chunk = null;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            Timber.e(e);
+        }
+    }
+}
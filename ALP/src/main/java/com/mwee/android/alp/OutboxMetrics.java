@@ -0,0 +1,54 @@
+package com.mwee.android.alp;
+
+/**
+ * @Description: 客户端待发信箱的统计
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class OutboxMetrics {
+    private final int depth;
+    private final long flushed;
+    private final long dropped;
+    private final long lastFlushLatency;
+
+    OutboxMetrics(int depth, long flushed, long dropped, long lastFlushLatency) {
+        this.depth = depth;
+        this.flushed = flushed;
+        this.dropped = dropped;
+        this.lastFlushLatency = lastFlushLatency;
+    }
+
+    /**
+     * @return int | 等待发出的消息数
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return long | 重连后补发的消息数
+     */
+    public long getFlushed() {
+        return flushed;
+    }
+
+    /**
+     * @return long | 超出容量被丢弃的消息数
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return long | 最近一次从连接成功到信箱发空的耗时，毫秒，还没有补发过时为-1
+     */
+    public long getLastFlushLatency() {
+        return lastFlushLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxMetrics{depth=" + depth + ", flushed=" + flushed + ", dropped=" + dropped
+                + ", lastFlushLatency=" + lastFlushLatency + "}";
+    }
+}
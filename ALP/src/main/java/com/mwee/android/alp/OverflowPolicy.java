@@ -0,0 +1,43 @@
+package com.mwee.android.alp;
+
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @Description: 链路积压超过高水位时的处理策略
+ * @author: Xiaolong
+ * @Date: 2018/10/11
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD, ElementType.FIELD, ElementType.PARAMETER})
+public @interface OverflowPolicy {
+
+    /**
+     * 使用该链路名称配置的策略，没有配置则使用服务端默认的策略
+     */
+    int Default = -1;
+
+    /**
+     * 丢弃新消息
+     */
+    int DropNewest = 0;
+
+    /**
+     * 丢弃最旧的尚未发送的消息
+     */
+    int DropOldest = 1;
+
+    /**
+     * 合并，尚未发送的、合并键相同的合并策略消息被新消息替换，只保留最新的一条；
+     * 主题推送的合并键为主题，其他推送共用同一个合并键
+     */
+    int Conflate = 2;
+
+    /**
+     * 断开链路
+     */
+    int Disconnect = 3;
+}
@@ -0,0 +1,62 @@
+package com.mwee.android.alp;
+
+/**
+ * @Description: 缓冲池的统计
+ * @author: Xiaolong
+ * @Date: 2018/10/17
+ */
+public class PoolMetrics {
+    private final boolean direct;
+    private final long hits;
+    private final long misses;
+    private final long outstanding;
+
+    PoolMetrics(boolean direct, long hits, long misses, long outstanding) {
+        this.direct = direct;
+        this.hits = hits;
+        this.misses = misses;
+        this.outstanding = outstanding;
+    }
+
+    /**
+     * @return boolean | true：直接缓冲池；false：堆内缓冲池
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return long | 从池里取到缓冲的次数
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return long | 需要新分配缓冲的次数
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return long | 已租出尚未归还的缓冲数
+     */
+    public long getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * @return double | 命中率，没有租借过时为0
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolMetrics{direct=" + direct + ", hits=" + hits + ", misses=" + misses
+                + ", outstanding=" + outstanding + ", hitRate=" + String.format("%.2f", getHitRate()) + "}";
+    }
+}
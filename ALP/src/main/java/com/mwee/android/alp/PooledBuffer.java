@@ -0,0 +1,73 @@
+package com.mwee.android.alp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description: 从{@link BufferPool}租借的缓冲，引用计数归零时归还；
+ * 每个持有方（发送队列里的一条消息、一个共享编码的消息）各持有一次引用，用完必须{@link #release()}
+ * @author: Xiaolong
+ * @Date: 2018/10/17
+ */
+final class PooledBuffer {
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    /**
+     * 所属的大小分级，-1表示超过最大分级，不回收
+     */
+    final int sizeClass;
+    private final AtomicInteger refCnt = new AtomicInteger(0);
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+    }
+
+    /**
+     * 租出时重置
+     */
+    PooledBuffer reset() {
+        buffer.clear();
+        refCnt.set(1);
+        return this;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * 增加一次引用
+     *
+     * @return PooledBuffer | 当前对象
+     */
+    public PooledBuffer retain() {
+        while (true) {
+            int count = refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+            if (refCnt.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 释放一次引用，归零时归还给缓冲池
+     */
+    public void release() {
+        int count = refCnt.decrementAndGet();
+        if (count == 0) {
+            pool.recycle(this);
+        } else if (count < 0) {
+            refCnt.set(0);
+            throw new IllegalStateException("buffer released twice");
+        }
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+}
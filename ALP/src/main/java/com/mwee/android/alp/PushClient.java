@@ -12,7 +12,15 @@ import android.os.Looper;
 import android.os.Message;
 import android.text.TextUtils;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
@@ -37,7 +45,7 @@ public class PushClient {
     /**
      * 本地工作线程的Handler
      */
-    private Handler msgHandler = null;
+    private volatile Handler msgHandler = null;
     private volatile int heartInterval = INTERVAL_LONG;
     /**
      * 心跳间隔，1分钟
@@ -47,15 +55,61 @@ public class PushClient {
      * 轮询间隔20秒
      */
     private final static int INTERVAL_SHORT = 1000 * 20;
-
     /**
-     * 最短的心跳轮询
+     * 重连的退避间隔，连接成功或网络恢复后重置
      */
-    private final static int INTERVAL_MIN = 1000 * 5;
+    private final ReconnectBackoff backoff = new ReconnectBackoff();
 
     private Context context;
     private String name = "";
     private final Object lock = new Object();
+    /**
+     * 已订阅的主题
+     */
+    private final Set<String> topics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * 最后收到的消息序号，重连后据此请求服务端补发
+     */
+    private final AtomicLong lastSeq = new AtomicLong(0);
+    /**
+     * 业务消息的压缩阈值
+     */
+    private volatile int compressThreshold = Server.DEFAULT_COMPRESS_THRESHOLD;
+    /**
+     * 请求和响应，处理方在消息线程上回调
+     */
+    private final RpcEndpoint rpc = new RpcEndpoint("ALPClientRpc");
+    /**
+     * 需要回执的消息的去重窗口，重连后服务端重发的消息也能识别
+     */
+    private final DedupWindow.Stats dedupStats = new DedupWindow.Stats();
+    private final DedupWindow dedup = new DedupWindow(dedupStats);
+    /**
+     * 连接超时和回执超时共用的时间轮，100毫秒一个刻度
+     */
+    private final TimingWheel timer = new TimingWheel("PushClientTimer", 100, 512);
+    /**
+     * 等待服务端回执的消息，重连后沿用，回调在消息线程上执行
+     */
+    private final AckManage ackManage = new AckManage(timer, this::postMsg);
+    /**
+     * 驱动链路读写的事件循环，重连时沿用，只在异常退出后重建
+     */
+    private SelectorLoop loop = null;
+    private Thread loopThread = null;
+    /**
+     * 待发信箱，链路断开期间推送的业务消息保存在这里，{@link #init(Context)}后才可用，只在消息线程里访问
+     */
+    private volatile ClientOutbox outbox = null;
+    /**
+     * 需要回执的消息的自动重发策略，为空时不重发
+     */
+    private volatile RetryPolicy retryPolicy = null;
+    /**
+     * 自动重发，第一次设置策略时创建，只在消息线程里访问
+     */
+    private volatile Retransmitter retransmitter = null;
+    private volatile int outboxCapacity = ClientOutbox.DEFAULT_CAPACITY;
 
     /**
      * 维持心跳的线程
@@ -94,7 +148,7 @@ public class PushClient {
                         }
                         if (client == null) {
                             Timber.i("PushClient client尚未初始化，尝试重连" + Thread.currentThread().getName());
-                            msgHandler.sendEmptyMessage(6666);
+                            requestReconnect();
                             continue;
                         }
                     }
@@ -109,14 +163,8 @@ public class PushClient {
                     }
                 }
                 if (!heartOK) {
-                    Timber.i("PushClient 链路异常，心跳间隔调整为5秒，5秒后尝试重连_" + Thread.currentThread().getName());
-                    heartInterval = INTERVAL_MIN;
-                    try {
-                        Thread.sleep(INTERVAL_MIN);
-                    } catch (InterruptedException e) {
-                        Timber.e(e);
-                    }
-                    msgHandler.sendEmptyMessage(6666);
+                    Timber.i("PushClient 链路异常，按退避间隔重连_" + Thread.currentThread().getName());
+                    requestReconnect();
                 } else {
                     Timber.i("PushClient 心跳正常_" + Thread.currentThread().getName());
                 }
@@ -140,6 +188,7 @@ public class PushClient {
              * 如果连接成功，则启动心跳，1分钟心跳一次
              */
             heartInterval = INTERVAL_LONG;
+            backoff.reset();
             try {
                 synchronized (lock) {
                     lock.notify();
@@ -147,6 +196,20 @@ public class PushClient {
             } catch (Exception e) {
                 Timber.e(e);
             }
+            // 新链路上重新订阅所有主题
+            if (msgHandler != null) {
+                for (String topic : topics) {
+                    msgHandler.sendMessage(msgHandler.obtainMessage(3333, topic));
+                }
+            }
+            // 先重发没有收到回执的消息，再补发断开期间保存的消息
+            postMsg(() -> {
+                Retransmitter temp = retransmitter;
+                if (temp != null) {
+                    temp.linkUp();
+                }
+                flushOutbox(true);
+            });
             if (userReceiver != null) {
                 userReceiver.connected();
             }
@@ -154,24 +217,23 @@ public class PushClient {
 
         @Override
         public void disconnected(boolean manaualStop) {
+            // 等待回执的消息转入重发队列，重连后最先重发
+            postMsg(() -> {
+                Retransmitter temp = retransmitter;
+                if (temp != null) {
+                    temp.linkDown();
+                }
+            });
 
             /**
-             * 如果没有网络，则心跳调整为5秒，并通过心跳进行重试。
+             * 有网络时按退避间隔重连；没有网络时等网络恢复的广播，心跳线程兜底
              */
-            if (Util.isNetworkAvailable(context)) {
-                heartInterval = INTERVAL_MIN;
-                Timber.i("PushClient 连接断开，心跳改为5秒_" + Thread.currentThread().getName());
-            } else {
-                heartInterval = INTERVAL_LONG;
-                Timber.i("PushClient 连接断开，心跳改为1分钟_" + Thread.currentThread().getName());
-            }
             if (!manaualStop) {
-                try {
-                    synchronized (lock) {
-                        lock.notify();
-                    }
-                } catch (Exception e) {
-                    Timber.e(e);
+                if (Util.isNetworkAvailable(context)) {
+                    Timber.i("PushClient 连接断开，按退避间隔重连_" + Thread.currentThread().getName());
+                    requestReconnect();
+                } else {
+                    Timber.i("PushClient 连接断开，没有网络，等待网络恢复_" + Thread.currentThread().getName());
                 }
             }
             try {
@@ -183,12 +245,38 @@ public class PushClient {
             }
         }
 
+        @Override
+        public void sessionReset() {
+            if (msgHandler != null && userReceiver != null) {
+                msgHandler.post(userReceiver::sessionReset);
+            }
+        }
+
+        @Override
+        public void receiveChunk(String uniq, long offset, byte[] chunk, boolean last) {
+            if (msgHandler != null && userReceiver != null) {
+                msgHandler.post(() -> userReceiver.receiveChunk(uniq, offset, chunk, last));
+            }
+        }
+
+        @Override
+        public void streamAborted(String uniq) {
+            if (msgHandler != null && userReceiver != null) {
+                msgHandler.post(() -> userReceiver.streamAborted(uniq));
+            }
+        }
+
         @Override
         public void receiveMsg(final String uniq, final String msg) {
+            receiveMsg(uniq, msg.getBytes(Configure.UTF_8));
+        }
+
+        @Override
+        public void receiveMsg(String uniq, byte[] payload) {
             if (msgHandler != null) {
                 AlpMessage alpMessage = new AlpMessage();
                 alpMessage.uniq = uniq;
-                alpMessage.message = msg;
+                alpMessage.payload = payload;
                 msgHandler.sendMessage(msgHandler.obtainMessage(9999, alpMessage));
             }
         }
@@ -210,10 +298,10 @@ public class PushClient {
                 return;
             }
             NetworkInfo networkInfo = conn.getActiveNetworkInfo();
-            msgHandler.sendEmptyMessage(6666);
 
             if (networkInfo != null && networkInfo.getDetailedState() == NetworkInfo.DetailedState.CONNECTED) {
-                Timber.i("PushClient 网络Receiver 连接成功，立即尝试重试，并恢复每3分钟心跳一次 threadName=" + Thread.currentThread().getName());
+                Timber.i("PushClient 网络Receiver 连接成功，重置退避间隔并立即尝试重连 threadName=" + Thread.currentThread().getName());
+                networkAvailable();
 
             } else if (networkInfo != null) {
                 NetworkInfo.DetailedState state = networkInfo.getDetailedState();
@@ -244,31 +332,41 @@ public class PushClient {
                                 if (userReceiver != null) {
                                     try {
                                         AlpMessage alpMessage = (AlpMessage) obj;
-                                        userReceiver.receive(alpMessage.uniq, alpMessage.message);
+                                        userReceiver.receive(alpMessage.uniq, alpMessage.payload);
                                     } catch (Exception e) {
                                         Timber.e(e);
                                     }
                                 }
                             }
                             break;
-                            case 8888:
-                                if (client == null) {
+                            case 8888: {
+                                AlpMessage alpMessage1 = (AlpMessage) obj;
+                                if (isOversize(alpMessage1)) {
                                     return;
                                 }
-                                AlpMessage alpMessage1 = (AlpMessage) obj;
-                                client.pushMsgToServer(Configure.MSG_TYPE_BIZ + Configure.SYMBOL_SPLIT + alpMessage1.message);
-                                break;
+                                boolean sent = false;
+                                if (canPushDirectly()) {
+                                    if (alpMessage1.payload != null) {
+                                        sent = client.pushBiz(alpMessage1.payload);
+                                    } else {
+                                        sent = client.pushBiz(alpMessage1.message);
+                                    }
+                                }
+                                if (!sent) {
+                                    spool(alpMessage1);
+                                }
+                            }
+                            break;
                             case 7777: {
                                 if (client == null) {
                                     return;
                                 }
-                                String msgStr = (String) obj;
-                                client.pushMsgToServer(Configure.MSG_TYPE_INNER + Configure.SYMBOL_SPLIT + Configure.KEY_REGIST + Configure.SYMBOL_SPLIT + msgStr);
+                                client.register();
 
                             }
                             break;
                             case 6666:
-                                if (client == null || client.isDisconnected || client.isFinish()) {
+                                if (needReconnect()) {
                                     reTryConnect();
                                 }
                                 break;
@@ -276,11 +374,36 @@ public class PushClient {
                                 disConnect();
                                 break;
                             case 4444: {
+                                AlpMessage alpMessage = (AlpMessage) obj;
+                                if (isOversize(alpMessage)) {
+                                    return;
+                                }
+                                boolean sent = false;
+                                if (canPushDirectly()) {
+                                    if (alpMessage.payload != null || retryPolicy != null) {
+                                        byte[] payload = alpMessage.payload != null ? alpMessage.payload : alpMessage.message.getBytes(Configure.UTF_8);
+                                        sent = pushNeedAck(client, alpMessage.uniq, payload, alpMessage.ack);
+                                    } else {
+                                        sent = client.pushBizToServer(alpMessage.uniq, alpMessage.message, alpMessage.ack);
+                                    }
+                                }
+                                if (!sent) {
+                                    spool(alpMessage);
+                                }
+                            }
+                            break;
+                            case 3333: {
                                 if (client == null) {
                                     return;
                                 }
-                                AlpMessage alpMessage = (AlpMessage) obj;
-                                client.pushBizToServer(alpMessage.uniq, alpMessage.message, alpMessage.ack);
+                                client.pushInner(Configure.KEY_SUBSCRIBE, (String) obj);
+                            }
+                            break;
+                            case 2222: {
+                                if (client == null) {
+                                    return;
+                                }
+                                client.pushInner(Configure.KEY_UNSUBSCRIBE, (String) obj);
                             }
                             break;
                             default:
@@ -288,7 +411,12 @@ public class PushClient {
                         }
                     }
                 };
-
+                // 请求的处理方和服务端一样在消息线程上回调，不占用链路的读线程
+                rpc.setExecutor(msgHandler::post);
+                // 消息线程启动前调用的startClient()在这里发起连接
+                if (!TextUtils.isEmpty(serverAddress)) {
+                    msgHandler.post(PushClient.this::connect);
+                }
             }
         };
         msgThread.start();
@@ -307,6 +435,113 @@ public class PushClient {
         IntentFilter filter = new IntentFilter();
         filter.addAction("android.net.conn.CONNECTIVITY_CHANGE");
         context.registerReceiver(receiver, filter);
+        if (outbox == null) {
+            final ClientOutbox temp = new ClientOutbox(new File(this.context.getFilesDir(), "alp_outbox"), outboxCapacity);
+            outbox = temp;
+            msgHandler.post(() -> {
+                temp.load();
+                flushOutbox(true);
+            });
+        }
+    }
+
+    /**
+     * 链路已连接并且没有等待补发的消息时直接推送，否则进入待发信箱，保证顺序
+     *
+     * @return boolean
+     */
+    private boolean canPushDirectly() {
+        ClientOutbox temp = outbox;
+        Retransmitter retry = retransmitter;
+        return client != null && client.isConnected() && (temp == null || temp.isEmpty())
+                && (retry == null || !retry.hasDue());
+    }
+
+    /**
+     * 推送需要回执的消息，开启自动重发时先登记到重发队列，没有发出时取消登记
+     *
+     * @param current Client
+     * @param uniq    String | 消息id
+     * @param payload byte[]
+     * @param ack     Ack | 调用方的回执回调，可以为空
+     * @return boolean | false：链路已断开
+     */
+    private boolean pushNeedAck(Client current, String uniq, byte[] payload, Ack ack) {
+        Retransmitter retry = retryPolicy != null ? retransmitter : null;
+        if (retry == null) {
+            return current.pushBizToServer(uniq, payload, ack);
+        }
+        Ack tracked = retry.track(uniq, payload, ack);
+        if (!current.pushBizToServer(uniq, payload, tracked)) {
+            retry.untrack(uniq);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 消息体超过{@link FrameCodec#MAX_PAYLOAD_LENGTH}时丢弃，不进入待发信箱，服务端收到超长的消息会断开链路；
+     * 需要回执的消息回调{@link AckStatus#Failed}
+     *
+     * @param alpMessage AlpMessage
+     * @return boolean | true：超长，已丢弃
+     */
+    private boolean isOversize(AlpMessage alpMessage) {
+        boolean oversize = alpMessage.payload != null
+                ? alpMessage.payload.length > FrameCodec.MAX_PAYLOAD_LENGTH
+                : FrameCodec.isOversize(alpMessage.message);
+        if (!oversize) {
+            return false;
+        }
+        Timber.e("PushClient 消息[" + alpMessage.uniq + "]超过最大长度" + FrameCodec.MAX_PAYLOAD_LENGTH + "，已丢弃，请使用流消息分段推送");
+        if (alpMessage.ack != null) {
+            alpMessage.ack.callback(alpMessage.uniq, AckStatus.Failed);
+        }
+        return true;
+    }
+
+    /**
+     * 保存到待发信箱，信箱不可用时丢弃
+     *
+     * @param alpMessage AlpMessage
+     */
+    private void spool(AlpMessage alpMessage) {
+        ClientOutbox temp = outbox;
+        if (temp == null) {
+            Timber.i("PushClient 链路未连接，丢弃消息[" + alpMessage.uniq + "]");
+            return;
+        }
+        byte[] payload = alpMessage.payload != null ? alpMessage.payload : alpMessage.message.getBytes(Configure.UTF_8);
+        temp.offer(alpMessage.uniq, payload, alpMessage.ack);
+        // 已连接时说明前面还有消息在补发，或者刚刚断开
+        flushOutbox(false);
+    }
+
+    /**
+     * 在消息线程里分批补发待发信箱里的消息，每批之后让出消息线程，新推送的消息排在信箱后面
+     *
+     * @param connected boolean | true：刚连接成功，开始统计补发耗时
+     */
+    private void flushOutbox(boolean connected) {
+        ClientOutbox temp = outbox;
+        final Client current = client;
+        if (temp == null || current == null || !current.isConnected()) {
+            return;
+        }
+        if (connected) {
+            temp.markConnected();
+        }
+        // 重发队列清空后会再次调用
+        Retransmitter retry = retransmitter;
+        if (retry != null && retry.hasDue()) {
+            return;
+        }
+        boolean more = temp.flushBatch((uniq, payload, ack) -> uniq == null
+                ? current.pushBiz(payload)
+                : pushNeedAck(current, uniq, payload, ack));
+        if (more) {
+            msgHandler.post(() -> flushOutbox(false));
+        }
     }
 
     public static PushClient getInstance() {
@@ -338,6 +573,167 @@ public class PushClient {
         msgHandler.sendMessage(msgHandler.obtainMessage(4444, alpMessage));
     }
 
+    /**
+     * 推送字节消息到服务器，适合protobuf、图片等已经是字节的内容，不需要Base64
+     *
+     * @param payload byte[] | 消息体，发送前不要修改
+     */
+    public void pushMsg(byte[] payload) {
+        AlpMessage alpMessage = new AlpMessage();
+        alpMessage.payload = payload;
+        msgHandler.sendMessage(msgHandler.obtainMessage(8888, alpMessage));
+    }
+
+    public void pushMsgNeedAck(byte[] payload, Ack ack) {
+        pushMsgNeedAck(UUID.randomUUID().toString(), payload, ack);
+    }
+
+    /**
+     * 推送需要回执的字节消息到服务器
+     *
+     * @param uniq    String | 消息唯一标识
+     * @param payload byte[] | 消息体，发送前不要修改
+     * @param ack     Ack | 回执回调
+     */
+    public void pushMsgNeedAck(String uniq, byte[] payload, Ack ack) {
+        AlpMessage alpMessage = new AlpMessage();
+        alpMessage.uniq = uniq;
+        alpMessage.payload = payload;
+        alpMessage.ack = ack;
+        msgHandler.sendMessage(msgHandler.obtainMessage(4444, alpMessage));
+    }
+
+    /**
+     * 按段推送大消息到服务器，不受单条消息的长度限制，内存占用不超过一段；
+     * 由事件循环在发送队列空闲时读取和写出，各段之间可以插入心跳和其他消息，服务端不支持二进制格式时放弃
+     *
+     * @param uniq String | 流标识，为空时自动生成
+     * @param in   InputStream | 流的内容，发送结束或失败后关闭
+     */
+    public void pushStream(String uniq, InputStream in) {
+        final OutboundStream stream = new OutboundStream(uniq, in);
+        final Client temp = client;
+        if (temp == null) {
+            stream.close();
+            return;
+        }
+        temp.pushStream(stream);
+    }
+
+    /**
+     * 发送请求到服务器，同一条链路上可以同时有多个请求在等待；服务端需要注册对应的{@link IRequestHandler}
+     *
+     * @param method  String | 方法名
+     * @param payload byte[] | 请求内容
+     * @param timeout long | 超时，毫秒
+     * @return RpcFuture | 回调在消息线程上执行
+     */
+    public RpcFuture request(final String method, final byte[] payload, final long timeout) {
+        final RpcFuture future = new RpcFuture(this::postMsg);
+        msgHandler.post(() -> {
+            Client temp = client;
+            if (temp == null) {
+                future.fail(new IOException("not connected"));
+                return;
+            }
+            temp.request(method, payload, timeout, future);
+        });
+        return future;
+    }
+
+    /**
+     * 注册请求的处理方，在消息线程上回调
+     *
+     * @param method  String | 方法名
+     * @param handler IRequestHandler
+     */
+    public void registerHandler(String method, IRequestHandler handler) {
+        rpc.registerHandler(method, handler);
+    }
+
+    public void unregisterHandler(String method) {
+        rpc.unregisterHandler(method);
+    }
+
+    /**
+     * 获取请求的统计：等待中的请求数、成功、失败、超时数和延迟分位数
+     *
+     * @return RpcMetrics
+     */
+    public RpcMetrics getRpcMetrics() {
+        return rpc.metrics();
+    }
+
+    /**
+     * 获取待发信箱的统计：等待发出的消息数、补发数、丢弃数和最近一次补发的耗时
+     *
+     * @return OutboxMetrics
+     */
+    public OutboxMetrics getOutboxMetrics() {
+        ClientOutbox temp = outbox;
+        return temp != null ? temp.metrics() : new OutboxMetrics(0, 0, 0, -1);
+    }
+
+    /**
+     * 设置待发信箱最多保留的消息数，超过时丢弃最旧的，需要回执的消息回调{@link AckStatus#UnKnow}
+     *
+     * @param capacity int
+     */
+    public void setOutboxCapacity(int capacity) {
+        this.outboxCapacity = capacity;
+        ClientOutbox temp = outbox;
+        if (temp != null) {
+            temp.setCapacity(capacity);
+        }
+    }
+
+    /**
+     * 开启需要回执的消息的自动重发：超时或链路断开后用相同的消息id重发，重发次数用完后回调{@link AckStatus#Failed}；
+     * 服务端按消息id去重，重复送达不会重复回调
+     *
+     * @param policy RetryPolicy | 为空时关闭，之后推送的消息不再重发，已经在重发的消息按原策略结束
+     */
+    public void setRetryPolicy(final RetryPolicy policy) {
+        this.retryPolicy = policy;
+        if (policy == null) {
+            return;
+        }
+        msgHandler.post(() -> {
+            if (retransmitter == null) {
+                retransmitter = new Retransmitter(policy, ackManage, msgHandler, (uniq, payload, ack) -> {
+                    Client temp = client;
+                    return temp != null && temp.pushBizToServer(uniq, payload, ack);
+                }, () -> flushOutbox(false));
+            } else {
+                retransmitter.setPolicy(policy);
+            }
+        });
+    }
+
+    /**
+     * @return int | 开启自动重发后，尚未结束的需要回执的消息数，包括等待回执和等待重发的
+     */
+    public int getPendingRetries() {
+        Retransmitter temp = retransmitter;
+        return temp != null ? temp.size() : 0;
+    }
+
+    /**
+     * 获取需要回执的消息去重的统计：收到的消息数、重复数和重复率
+     *
+     * @return DedupMetrics
+     */
+    public DedupMetrics getDedupMetrics() {
+        return dedupStats.metrics();
+    }
+
+    private void postMsg(Runnable runnable) {
+        Handler handler = msgHandler;
+        if (handler != null) {
+            handler.post(runnable);
+        }
+    }
+
     /**
      * 将当前客户端注册到服务器
      *
@@ -349,6 +745,54 @@ public class PushClient {
         msgHandler.sendMessage(msgHandler.obtainMessage(7777, name));
     }
 
+    /**
+     * 订阅主题，之后可以收到{@link PushServer#pushMsgToTopic(String, String)}推送的消息；重连后自动重新订阅
+     *
+     * @param topic String | 主题名称
+     */
+    public void subscribe(String topic) {
+        if (TextUtils.isEmpty(topic)) {
+            return;
+        }
+        topics.add(topic);
+        msgHandler.sendMessage(msgHandler.obtainMessage(3333, topic));
+    }
+
+    /**
+     * 取消订阅主题
+     *
+     * @param topic String | 主题名称
+     */
+    public void unsubscribe(String topic) {
+        if (TextUtils.isEmpty(topic)) {
+            return;
+        }
+        topics.remove(topic);
+        msgHandler.sendMessage(msgHandler.obtainMessage(2222, topic));
+    }
+
+    /**
+     * 设置业务消息的压缩阈值，只在服务端同意压缩时生效
+     *
+     * @param threshold int | 消息体达到这个字节数时用Deflate压缩，小于等于0时关闭压缩
+     */
+    public void setCompressThreshold(int threshold) {
+        this.compressThreshold = threshold;
+        Client temp = client;
+        if (temp != null) {
+            temp.setCompressThreshold(threshold);
+        }
+    }
+
+    /**
+     * 获取缓冲池的统计，客户端的编码和解码都使用堆内缓冲池
+     *
+     * @return PoolMetrics
+     */
+    public PoolMetrics getBufferPoolMetrics() {
+        return BufferPool.heap().metrics();
+    }
+
     /**
      * 启动客户端，包括：
      * 1，构建{@link Client}
@@ -362,7 +806,7 @@ public class PushClient {
         this.serverAddress = address;
         this.serverPort = port;
         this.userReceiver = receiver;
-        connect();
+        postMsg(this::connect);
     }
 
     /**
@@ -375,7 +819,45 @@ public class PushClient {
             return;
         }
         this.serverAddress = address;
-        connect();
+        postMsg(this::connect);
+    }
+
+    /**
+     * 当前没有正在连接或已连接的链路
+     *
+     * @return boolean
+     */
+    private boolean needReconnect() {
+        Client temp = client;
+        return temp == null || temp.isDisconnected || temp.isFinish();
+    }
+
+    /**
+     * 请求重连，在消息线程里按退避间隔排期；已有排期或链路正在连接、已连接时忽略，
+     * 心跳线程、断开回调等多处同时触发也只重连一次
+     */
+    private void requestReconnect() {
+        postMsg(() -> {
+            if (msgHandler.hasMessages(6666) || !needReconnect()) {
+                return;
+            }
+            long delay = backoff.nextDelay();
+            Timber.i("PushClient 第" + backoff.getAttempts() + "次重连，" + delay + "ms后执行");
+            msgHandler.sendEmptyMessageDelayed(6666, delay);
+        });
+    }
+
+    /**
+     * 网络恢复，重置退避间隔并取消已有的排期，立即重连
+     */
+    private void networkAvailable() {
+        postMsg(() -> {
+            backoff.reset();
+            msgHandler.removeMessages(6666);
+            if (needReconnect()) {
+                msgHandler.sendEmptyMessage(6666);
+            }
+        });
     }
 
     /**
@@ -386,32 +868,56 @@ public class PushClient {
     }
 
     /**
-     * 进行连接
+     * 进行连接，在消息线程里调用：域名解析可能阻塞，不能放在调用方线程或事件循环线程
      */
     private synchronized void connect() {
+        // 已排期的重连不再需要
+        if (msgHandler != null) {
+            msgHandler.removeMessages(6666);
+        }
         disConnect();
         if (TextUtils.isEmpty(serverAddress) || serverPort < 3000) {
             Timber.e("PushClient connect() 参数没有设置 " + serverAddress + ":" + serverPort);
             return;
         }
-        client = new Client();
+        SelectorLoop temp = ensureLoop();
+        if (temp == null) {
+            return;
+        }
+        InetSocketAddress address = new InetSocketAddress(serverAddress, serverPort);
+        if (address.isUnresolved()) {
+            // 交给Client按连接失败处理，断开后按退避间隔重连
+            Timber.e("PushClient connect() 地址解析失败 " + serverAddress + ":" + serverPort);
+        }
+        client = new Client(lastSeq, rpc, dedup, ackManage, temp, timer);
         client.setName(name);
-
-        Thread workingThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                if (TextUtils.isEmpty(serverAddress) || serverPort < 3000) {
-                    Timber.e("PushClient connect() 参数没有设置 " + serverAddress + ":" + serverPort);
-                    return;
-                }
-                client.startConnect(serverAddress, serverPort, innerReceiver);
-            }
-        });
-        workingThread.setName("PushClientWorking_" + System.currentTimeMillis());
-        workingThread.start();
+        client.setCompressThreshold(compressThreshold);
+        client.startConnect(address, innerReceiver);
         Timber.e("PushClient startDo connect()  " + serverAddress + ":" + serverPort);
     }
 
+    /**
+     * 获取事件循环，第一次连接或事件循环异常退出时启动新的，其他情况下所有链路共用同一个线程
+     *
+     * @return SelectorLoop | 启动失败时为空
+     */
+    private SelectorLoop ensureLoop() {
+        if (loop != null && loopThread != null && loopThread.isAlive()) {
+            return loop;
+        }
+        try {
+            loop = new SelectorLoop();
+            loopThread = new Thread(loop, "PushClientLoop");
+            loopThread.start();
+            return loop;
+        } catch (IOException e) {
+            Timber.e(e);
+            loop = null;
+            loopThread = null;
+            return null;
+        }
+    }
+
     /**
      * 断开本地的Socket连接
      */
@@ -6,6 +6,15 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import timber.log.Timber;
 
@@ -36,8 +45,27 @@ public class PushServer {
 
         @Override
         public void receive(String uniq, final String param) {
+            receive(uniq, param.getBytes(Configure.UTF_8));
+        }
+
+        @Override
+        public void receive(String uniq, byte[] payload) {
+            if (userReceiver != null) {
+                threadHanlder.post(() -> userReceiver.receive(uniq, payload));
+            }
+        }
+
+        @Override
+        public void receiveChunk(String uniq, long offset, byte[] chunk, boolean last) {
+            if (userReceiver != null) {
+                threadHanlder.post(() -> userReceiver.receiveChunk(uniq, offset, chunk, last));
+            }
+        }
+
+        @Override
+        public void streamAborted(String uniq) {
             if (userReceiver != null) {
-                threadHanlder.post(() -> userReceiver.receive(uniq, param));
+                threadHanlder.post(() -> userReceiver.streamAborted(uniq));
             }
         }
 
@@ -50,11 +78,44 @@ public class PushServer {
         public void disconnected() {
 
         }
+
+        @Override
+        public void writabilityChanged(String target, boolean writable) {
+            if (userReceiver != null && threadHanlder != null) {
+                threadHanlder.post(() -> userReceiver.writabilityChanged(target, writable));
+            }
+        }
     };
     private Thread workingThread = null;
+    /**
+     * 链路发送队列的水位
+     */
+    private int lowWatermark = OutboundQueue.DEFAULT_LOW_WATERMARK;
+    private int highWatermark = OutboundQueue.DEFAULT_HIGH_WATERMARK;
+    /**
+     * 业务消息的压缩阈值
+     */
+    private int compressThreshold = Server.DEFAULT_COMPRESS_THRESHOLD;
+    /**
+     * 默认的积压处理策略
+     */
+    private int defaultPolicy = OverflowPolicy.DropNewest;
+    /**
+     * 按链路名称配置的积压处理策略，服务器重启后继续生效
+     */
+    private final Map<String, Integer> keyPolicy = new ConcurrentHashMap<>();
+    /**
+     * 离线信箱
+     */
+    private OfflineMailbox mailbox = null;
+    /**
+     * 请求和响应，服务器重启后保留，处理方在消息线程上回调
+     */
+    private final RpcEndpoint rpc = new RpcEndpoint("ALPServerRpc");
 
     private PushServer() {
         init();
+        rpc.setExecutor(this::post);
     }
 
     public static PushServer getInstance() {
@@ -87,14 +148,43 @@ public class PushServer {
     /**
      * 推送消息到所有站点
      *
-     * @param msg String | 消息体
+     * @param msg String | 消息体，按UTF-8编码
      */
     public void pushMsg(final String msg) {
+        pushMsg(msg.getBytes(Configure.UTF_8));
+    }
+
+    /**
+     * 推送字节消息到所有站点，适合protobuf、图片等已经是字节的内容，不需要Base64
+     *
+     * @param payload byte[] | 消息体，推送完成前不要修改
+     */
+    public void pushMsg(final byte[] payload) {
+        pushMsg(payload, OverflowPolicy.Default);
+    }
+
+    /**
+     * 推送消息到所有站点
+     *
+     * @param msg    String | 消息体，按UTF-8编码
+     * @param policy int | 链路积压超过高水位时的处理策略
+     */
+    public void pushMsg(final String msg, @OverflowPolicy final int policy) {
+        pushMsg(msg.getBytes(Configure.UTF_8), policy);
+    }
+
+    /**
+     * 推送字节消息到所有站点
+     *
+     * @param payload byte[] | 消息体，推送完成前不要修改
+     * @param policy  int | 链路积压超过高水位时的处理策略
+     */
+    public void pushMsg(final byte[] payload, @OverflowPolicy final int policy) {
         threadHanlder.post(() -> {
             if (server == null) {
                 return;
             }
-            server.pushMsgToAll(msg);
+            server.pushMsgToAll(payload, policy);
         });
     }
 
@@ -105,21 +195,398 @@ public class PushServer {
      * @param msg        String
      */
     public void pushMsgTo(final String targetName, final String msg) {
+        pushMsgTo(targetName, msg.getBytes(Configure.UTF_8));
+    }
+
+    /**
+     * 推送字节消息到指定的接收者
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param payload    byte[] | 消息体，推送完成前不要修改
+     */
+    public void pushMsgTo(final String targetName, final byte[] payload) {
+        pushMsgTo(targetName, payload, OverflowPolicy.Default);
+    }
+
+    /**
+     * 推送消息到指定的接收者
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param msg        String
+     * @param policy     int | 链路积压超过高水位时的处理策略
+     */
+    public void pushMsgTo(final String targetName, final String msg, @OverflowPolicy final int policy) {
+        pushMsgTo(targetName, msg.getBytes(Configure.UTF_8), policy);
+    }
+
+    /**
+     * 推送字节消息到指定的接收者
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param payload    byte[] | 消息体，推送完成前不要修改
+     * @param policy     int | 链路积压超过高水位时的处理策略
+     */
+    public void pushMsgTo(final String targetName, final byte[] payload, @OverflowPolicy final int policy) {
         threadHanlder.post(() -> {
             if (server == null) {
                 return;
             }
-            server.pushMsgToTarget(targetName, msg);
+            server.pushMsgToTarget(targetName, payload, policy);
         });
     }
 
     /**
-     * 启动服务器
+     * 推送需要回执的消息到指定的接收者
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param msg        String
+     * @param ack        Ack | 回执回调，在消息线程上回调
+     */
+    public void pushMsgTo(final String targetName, final String msg, final Ack ack) {
+        pushMsgTo(targetName, UUID.randomUUID().toString(), msg, ack);
+    }
+
+    /**
+     * 推送需要回执的字节消息到指定的接收者
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param payload    byte[] | 消息体，推送完成前不要修改
+     * @param ack        Ack | 回执回调，在消息线程上回调
+     */
+    public void pushMsgTo(final String targetName, final byte[] payload, final Ack ack) {
+        pushMsgTo(targetName, UUID.randomUUID().toString(), payload, ack);
+    }
+
+    /**
+     * 推送需要回执的消息到指定的接收者
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param uniq       String | 消息唯一标识
+     * @param msg        String
+     * @param ack        Ack | 回执回调，在消息线程上回调
+     */
+    public void pushMsgTo(final String targetName, final String uniq, final String msg, final Ack ack) {
+        pushMsgTo(targetName, uniq, msg.getBytes(Configure.UTF_8), ack);
+    }
+
+    /**
+     * 推送需要回执的字节消息到指定的接收者
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param uniq       String | 消息唯一标识
+     * @param payload    byte[] | 消息体，推送完成前不要修改
+     * @param ack        Ack | 回执回调，在消息线程上回调
+     */
+    public void pushMsgTo(final String targetName, final String uniq, final byte[] payload, final Ack ack) {
+        final Ack postAck = postAck(ack);
+        threadHanlder.post(() -> {
+            if (server == null) {
+                postAck.callback(uniq, AckStatus.Disconnected);
+                return;
+            }
+            server.pushMsgToTarget(targetName, uniq, payload, OverflowPolicy.Default, postAck);
+        });
+    }
+
+    /**
+     * 推送需要回执的消息到所有站点
+     *
+     * @param msg String | 消息体
+     * @param ack BroadcastAck | 所有站点都有结果后回调，在消息线程上回调
+     */
+    public void pushMsgNeedAck(final String msg, final BroadcastAck ack) {
+        pushMsgNeedAck(msg.getBytes(Configure.UTF_8), ack);
+    }
+
+    /**
+     * 推送需要回执的字节消息到所有站点
+     *
+     * @param payload byte[] | 消息体，推送完成前不要修改
+     * @param ack     BroadcastAck | 所有站点都有结果后回调，在消息线程上回调
+     */
+    public void pushMsgNeedAck(final byte[] payload, final BroadcastAck ack) {
+        final String uniq = UUID.randomUUID().toString();
+        final BroadcastAck postAck = new BroadcastAck() {
+            @Override
+            public long timeout() {
+                return ack.timeout();
+            }
+
+            @Override
+            public void targetCallback(String uniq, String target, int status) {
+                post(() -> ack.targetCallback(uniq, target, status));
+            }
+
+            @Override
+            public void callback(String uniq, Map<String, Integer> results) {
+                post(() -> ack.callback(uniq, results));
+            }
+        };
+        threadHanlder.post(() -> {
+            if (server == null) {
+                postAck.callback(uniq, Collections.<String, Integer>emptyMap());
+                return;
+            }
+            server.pushMsgToAll(uniq, payload, OverflowPolicy.Default, postAck);
+        });
+    }
+
+    /**
+     * 把回执回调切换到消息线程，避免业务代码阻塞读写线程
+     *
+     * @param ack Ack
+     * @return Ack
+     */
+    private Ack postAck(final Ack ack) {
+        return new Ack() {
+            @Override
+            public long timeout() {
+                return ack.timeout();
+            }
+
+            @Override
+            public void callback(String uniq, int status) {
+                post(() -> ack.callback(uniq, status));
+            }
+        };
+    }
+
+    private void post(Runnable runnable) {
+        Handler handler = threadHanlder;
+        if (handler != null) {
+            handler.post(runnable);
+        }
+    }
+
+    /**
+     * 推送消息到订阅了主题的所有接收者
+     *
+     * @param topic String | 对应{@link PushClient#subscribe(String)} 里的主题
+     * @param msg   String
+     */
+    public void pushMsgToTopic(final String topic, final String msg) {
+        pushMsgToTopic(topic, msg, OverflowPolicy.Default);
+    }
+
+    /**
+     * 推送字节消息到订阅了主题的所有接收者
+     *
+     * @param topic   String | 对应{@link PushClient#subscribe(String)} 里的主题
+     * @param payload byte[] | 消息体，推送完成前不要修改
+     */
+    public void pushMsgToTopic(final String topic, final byte[] payload) {
+        pushMsgToTopic(topic, payload, OverflowPolicy.Default);
+    }
+
+    /**
+     * 推送消息到订阅了主题的所有接收者
+     *
+     * @param topic  String | 对应{@link PushClient#subscribe(String)} 里的主题
+     * @param msg    String
+     * @param policy int | 链路积压超过高水位时的处理策略
+     */
+    public void pushMsgToTopic(final String topic, final String msg, @OverflowPolicy final int policy) {
+        pushMsgToTopic(topic, msg.getBytes(Configure.UTF_8), policy);
+    }
+
+    /**
+     * 推送字节消息到订阅了主题的所有接收者
+     *
+     * @param topic   String | 对应{@link PushClient#subscribe(String)} 里的主题
+     * @param payload byte[] | 消息体，推送完成前不要修改
+     * @param policy  int | 链路积压超过高水位时的处理策略
+     */
+    public void pushMsgToTopic(final String topic, final byte[] payload, @OverflowPolicy final int policy) {
+        threadHanlder.post(() -> {
+            if (server == null) {
+                return;
+            }
+            server.pushMsgToTopic(topic, payload, policy);
+        });
+    }
+
+    /**
+     * 按段推送大消息到指定的接收者，不受单条消息的长度限制，内存占用不超过一段；
+     * 各段和其他消息交错发送，接收方通过{@link IStreamReceiver#receiveChunk(String, long, byte[], boolean)}逐段收到，
+     * 只有支持二进制格式的接收者可以接收
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param uniq       String | 流标识，为空时自动生成
+     * @param in         InputStream | 流的内容，在读写线程里读取，应为文件等本地数据；发送结束或失败后关闭
+     */
+    public void pushStreamTo(final String targetName, final String uniq, final InputStream in) {
+        final OutboundStream stream = new OutboundStream(uniq, in);
+        threadHanlder.post(() -> {
+            if (server == null) {
+                stream.close();
+                return;
+            }
+            server.pushStreamToTarget(targetName, stream);
+        });
+    }
+
+    /**
+     * 发送请求到指定的接收者，同一条链路上可以同时有多个请求在等待；接收者需要注册对应的{@link IRequestHandler}
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称
+     * @param method     String | 方法名
+     * @param payload    byte[] | 请求内容
+     * @param timeout    long | 超时，毫秒
+     * @return RpcFuture | 回调在消息线程上执行
+     */
+    public RpcFuture request(final String targetName, final String method, final byte[] payload, final long timeout) {
+        RpcFuture future = new RpcFuture(this::post);
+        Server temp = server;
+        if (temp == null) {
+            future.fail(new IOException("server not started"));
+            return future;
+        }
+        temp.request(targetName, method, payload, timeout, future);
+        return future;
+    }
+
+    /**
+     * 注册请求的处理方，在消息线程上回调，{@link IRequestHandler#handle(String, byte[])}的source为终端注册的名称
+     *
+     * @param method  String | 方法名
+     * @param handler IRequestHandler
+     */
+    public void registerHandler(String method, IRequestHandler handler) {
+        rpc.registerHandler(method, handler);
+    }
+
+    public void unregisterHandler(String method) {
+        rpc.unregisterHandler(method);
+    }
+
+    /**
+     * 获取请求的统计：等待中的请求数、成功、失败、超时数和延迟分位数
+     *
+     * @return RpcMetrics
+     */
+    public RpcMetrics getRpcMetrics() {
+        return rpc.metrics();
+    }
+
+    /**
+     * 获取需要回执的消息去重的统计：收到的消息数、重复数和重复率，服务器重启后重新统计
+     *
+     * @return DedupMetrics | 服务器未启动时全为0
+     */
+    public DedupMetrics getDedupMetrics() {
+        Server temp = server;
+        return temp != null ? temp.getDedupMetrics() : new DedupMetrics(0, 0);
+    }
+
+    /**
+     * 启用离线信箱，推送给未连接的接收者的消息会持久化，接收者注册后按顺序补发
+     *
+     * @param dir       File | 信箱文件所在的目录
+     * @param maxPerKey int | 每个接收者最多保留的消息数，超过时丢弃最旧的
+     * @param ttl       long | 消息的有效期，毫秒，小于等于0时不过期
+     */
+    public synchronized void enableOfflineMailbox(File dir, int maxPerKey, long ttl) {
+        if (mailbox != null) {
+            mailbox.close();
+        }
+        mailbox = new OfflineMailbox(dir, maxPerKey, ttl);
+        Server temp = server;
+        if (temp != null) {
+            temp.setMailbox(mailbox);
+        }
+    }
+
+    /**
+     * 设置链路发送队列的水位，在{@link #startServer(int, IMsgReceiver)}之前调用
+     *
+     * @param low  int | 低水位，字节，积压回落到此以下时通知{@link IMsgReceiver#writabilityChanged(String, boolean)}
+     * @param high int | 高水位，字节，积压超过此值时按{@link OverflowPolicy}处理
+     */
+    public void setWriteWatermark(int low, int high) {
+        this.lowWatermark = low;
+        this.highWatermark = high;
+        Server temp = server;
+        if (temp != null) {
+            temp.setWriteWatermark(low, high);
+        }
+    }
+
+    /**
+     * 设置业务消息的压缩阈值，只对握手时声明支持压缩的终端生效，随时可以调用
+     *
+     * @param threshold int | 消息体达到这个字节数时用Deflate压缩，小于等于0时关闭压缩
+     */
+    public void setCompressThreshold(int threshold) {
+        this.compressThreshold = threshold;
+        Server temp = server;
+        if (temp != null) {
+            temp.setCompressThreshold(threshold);
+        }
+    }
+
+    /**
+     * 设置积压处理策略
+     *
+     * @param targetName String | 对应{@link PushClient#registerToServer(String)} 里的名称，为空时设置默认的策略
+     * @param policy     int | {@link OverflowPolicy}
+     */
+    public void setOverflowPolicy(final String targetName, @OverflowPolicy final int policy) {
+        if (TextUtils.isEmpty(targetName)) {
+            if (policy != OverflowPolicy.Default) {
+                defaultPolicy = policy;
+            }
+        } else if (policy == OverflowPolicy.Default) {
+            keyPolicy.remove(targetName);
+        } else {
+            keyPolicy.put(targetName, policy);
+        }
+        threadHanlder.post(() -> {
+            if (server == null) {
+                return;
+            }
+            server.setOverflowPolicy(targetName, policy);
+        });
+    }
+
+    /**
+     * 获取到指定接收者尚未写出的字节数
+     *
+     * @param targetName String
+     * @return long | 链路不存在时为-1
+     */
+    public long getPendingBytes(String targetName) {
+        Server temp = server;
+        return temp == null ? -1 : temp.getPendingBytes(targetName);
+    }
+
+    /**
+     * 获取缓冲池的统计，用于观察命中率和是否有缓冲未归还
+     *
+     * @param direct boolean | true：直接缓冲池（发送）；false：堆内缓冲池（接收）
+     * @return PoolMetrics
+     */
+    public PoolMetrics getBufferPoolMetrics(boolean direct) {
+        return (direct ? BufferPool.direct() : BufferPool.heap()).metrics();
+    }
+
+    /**
+     * 启动服务器，读写事件循环的个数和CPU核数一致
      *
      * @param port         int
      * @param userReceiver IMsgReceiver
      */
     public void startServer(final int port, IMsgReceiver userReceiver) {
+        startServer(port, userReceiver, 0);
+    }
+
+    /**
+     * 启动服务器
+     *
+     * @param port         int
+     * @param userReceiver IMsgReceiver
+     * @param workerCount  int | 读写事件循环的个数，小于1时按CPU核数
+     */
+    public void startServer(final int port, IMsgReceiver userReceiver, final int workerCount) {
         if (port < 3000) {
             Timber.e("PushServer startServer() 非法端口 " + port);
             return;
@@ -129,7 +596,15 @@ public class PushServer {
         }
         this.userReceiver = userReceiver;
         workingThread = new Thread(() -> {
-            server = new Server();
+            server = new Server(workerCount);
+            server.setWriteWatermark(lowWatermark, highWatermark);
+            server.setCompressThreshold(compressThreshold);
+            server.setRpcEndpoint(rpc);
+            server.setOverflowPolicy(null, defaultPolicy);
+            server.setMailbox(mailbox);
+            for (Map.Entry<String, Integer> entry : keyPolicy.entrySet()) {
+                server.setOverflowPolicy(entry.getKey(), entry.getValue());
+            }
             server.init(port, receiver);
         });
         workingThread.setName("PushServerWorking_" + SystemClock.elapsedRealtime());
@@ -144,6 +619,10 @@ public class PushServer {
                 server.finish();
                 server = null;
             }
+            if (mailbox != null) {
+                mailbox.close();
+                mailbox = null;
+            }
             try {
                 if (workingThread != null && !workingThread.isInterrupted() && workingThread.isAlive()) {
                     workingThread.interrupt();
@@ -0,0 +1,65 @@
+package com.mwee.android.alp;
+
+import java.util.Random;
+
+/**
+ * @Description: 重连的退避间隔，按失败次数指数增长并设置上限，每次在区间的后一半里随机取值，
+ * 服务器重启后大量终端不会在同一时刻重连
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+class ReconnectBackoff {
+    /**
+     * 默认的初始间隔，1秒
+     */
+    public static final long DEFAULT_BASE = 1000;
+    /**
+     * 默认的最大间隔，1分钟
+     */
+    public static final long DEFAULT_CAP = 60 * 1000;
+
+    private final long base;
+    private final long cap;
+    private final Random random = new Random();
+    /**
+     * 连续失败的次数
+     */
+    private int attempts = 0;
+
+    protected ReconnectBackoff() {
+        this(DEFAULT_BASE, DEFAULT_CAP);
+    }
+
+    /**
+     * @param base long | 初始间隔，毫秒
+     * @param cap  long | 最大间隔，毫秒
+     */
+    protected ReconnectBackoff(long base, long cap) {
+        this.base = base;
+        this.cap = Math.max(base, cap);
+    }
+
+    /**
+     * 下一次重连前等待的时间，并增加失败次数
+     *
+     * @return long | 毫秒，在[间隔/2, 间隔]之间
+     */
+    public synchronized long nextDelay() {
+        // 避免移位溢出，达到上限后不再增长
+        long interval = attempts >= 30 ? cap : Math.min(cap, base << attempts);
+        attempts++;
+        long half = interval / 2;
+        return half + (long) (random.nextDouble() * (interval - half));
+    }
+
+    /**
+     * 连接成功或网络恢复后，从初始间隔重新开始
+     */
+    public synchronized void reset() {
+        attempts = 0;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,127 @@
+package com.mwee.android.alp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @Description: 一个终端名称的会话，给推送的业务消息分配递增的序号，并在环形缓冲里保留最近的消息，
+ * 终端重连后从它收到的最后一个序号开始补发；调用方需要在持有会话锁的情况下分配序号并入队，保证顺序
+ * @author: Xiaolong
+ * @Date: 2018/10/17
+ */
+class ResumeSession {
+    /**
+     * 最多保留的消息数
+     */
+    private static final int RING_SIZE = 256;
+    /**
+     * 最多保留的字节数，1M
+     */
+    private static final long RING_MAX_BYTES = 1024 * 1024;
+
+    /**
+     * 遍历保留的消息
+     */
+    interface IVisitor {
+        /**
+         * @param seq  long | 序号
+         * @param body ByteBuffer | 只读的消息体
+         * @return boolean | false：停止遍历
+         */
+        boolean visit(long seq, ByteBuffer body);
+    }
+
+    private final long[] seqs = new long[RING_SIZE];
+    private final ByteBuffer[] bodies = new ByteBuffer[RING_SIZE];
+    /**
+     * 最旧的消息在环里的下标
+     */
+    private int head = 0;
+    private int count = 0;
+    private long bytes = 0;
+    /**
+     * 最后分配的序号
+     */
+    private long lastSeq = 0;
+    /**
+     * 最后一次有链路使用这个会话的时间
+     */
+    private long lastActive = 0;
+
+    /**
+     * 分配序号并保留消息
+     *
+     * @param body ByteBuffer | 只读的消息体
+     * @return long | 序号
+     */
+    public synchronized long append(ByteBuffer body) {
+        long seq = ++lastSeq;
+        while (count > 0 && (count == RING_SIZE || bytes + body.remaining() > RING_MAX_BYTES)) {
+            bytes -= bodies[head].remaining();
+            bodies[head] = null;
+            head = (head + 1) % RING_SIZE;
+            count--;
+        }
+        int index = (head + count) % RING_SIZE;
+        seqs[index] = seq;
+        bodies[index] = body;
+        bytes += body.remaining();
+        count++;
+        return seq;
+    }
+
+    /**
+     * 能否从指定的序号之后无缺口地补发
+     *
+     * @param seq long | 终端收到的最后一个序号
+     * @return boolean
+     */
+    public synchronized boolean canResumeFrom(long seq) {
+        if (seq > lastSeq || seq < 0) {
+            return false;
+        }
+        long oldest = count == 0 ? lastSeq + 1 : seqs[head];
+        return seq + 1 >= oldest;
+    }
+
+    /**
+     * 遍历指定序号之后保留的消息
+     *
+     * @param seq     long | 终端收到的最后一个序号
+     * @param visitor IVisitor
+     */
+    public synchronized void replayAfter(long seq, IVisitor visitor) {
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % RING_SIZE;
+            if (seqs[index] <= seq) {
+                continue;
+            }
+            if (!visitor.visit(seqs[index], bodies[index])) {
+                break;
+            }
+        }
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * 记录有链路正在使用这个会话
+     *
+     * @param now long | 当前时间，毫秒
+     */
+    public synchronized void touch(long now) {
+        lastActive = now;
+    }
+
+    /**
+     * 没有链路使用的时间是否超过指定的时长
+     *
+     * @param now    long | 当前时间，毫秒
+     * @param expire long | 毫秒
+     * @return boolean
+     */
+    public synchronized boolean isExpired(long now, long expire) {
+        return now - lastActive > expire;
+    }
+}
@@ -0,0 +1,301 @@
+package com.mwee.android.alp;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 需要回执的消息的自动重发，至少送达一次：发出的消息保留消息体，超时后按{@link RetryPolicy}的间隔用相同的消息id重发；
+ * 链路断开时等待中的消息转入重发队列，重连后最先分批重发。服务端按消息id去重，重复送达不会重复回调业务层。
+ * 非线程安全，只在{@link PushClient}的消息线程里访问
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+class Retransmitter {
+
+    /**
+     * 一条需要保证送达的消息
+     */
+    private static final class Entry {
+        private final String uniq;
+        private final byte[] payload;
+        private final Ack userAck;
+        /**
+         * 提交的顺序，重发时先提交的先发
+         */
+        private final long order;
+        /**
+         * 已经重发的次数
+         */
+        private int attempts = 0;
+        /**
+         * 最早可以重发的时间
+         */
+        private long nextAt = 0;
+        /**
+         * 当前这次发送登记的回执，等待重发时为空
+         */
+        private TransmitAck current = null;
+
+        private Entry(String uniq, byte[] payload, Ack userAck, long order) {
+            this.uniq = uniq;
+            this.payload = payload;
+            this.userAck = userAck;
+            this.order = order;
+        }
+    }
+
+    /**
+     * 每次发送登记到{@link AckManage}的回执，只处理最近一次发送的结果
+     */
+    private final class TransmitAck extends Ack {
+        private final Entry entry;
+
+        private TransmitAck(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public long timeout() {
+            return entry.userAck != null ? entry.userAck.timeout() : super.timeout();
+        }
+
+        @Override
+        public void callback(String uniq, int status) {
+            onAck(entry, this, status);
+        }
+    }
+
+    private volatile RetryPolicy policy;
+    private final AckManage ackManage;
+    private final Handler handler;
+    private final ClientOutbox.ISender sender;
+    /**
+     * 重发队列清空后执行，用于接着补发待发信箱
+     */
+    private final Runnable onDrained;
+    /**
+     * 消息id和尚未结束的消息，包括等待回执和等待重发的
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+    /**
+     * 等待重发的消息，按可以重发的时间和提交顺序排列
+     */
+    private final PriorityQueue<Entry> waiting = new PriorityQueue<>(16, (a, b) -> {
+        if (a.nextAt != b.nextAt) {
+            return a.nextAt < b.nextAt ? -1 : 1;
+        }
+        return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+    });
+    private final Runnable drainTask = this::drain;
+    /**
+     * 已排期的重发时间，没有排期时为-1
+     */
+    private long armedAt = -1;
+    private long order = 0;
+
+    /**
+     * @param policy    RetryPolicy
+     * @param ackManage AckManage | 链路断开时取消登记的回执
+     * @param handler   Handler | 消息线程
+     * @param sender    ISender | 发送需要回执的消息，链路断开时返回false
+     * @param onDrained Runnable | 重发队列清空后执行
+     */
+    protected Retransmitter(RetryPolicy policy, AckManage ackManage, Handler handler, ClientOutbox.ISender sender, Runnable onDrained) {
+        this.policy = policy;
+        this.ackManage = ackManage;
+        this.handler = handler;
+        this.sender = sender;
+        this.onDrained = onDrained;
+    }
+
+    public void setPolicy(RetryPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * 登记一条即将发出的消息
+     *
+     * @param uniq    String | 消息id
+     * @param payload byte[] | 消息体，保留到收到回执或放弃重发
+     * @param userAck Ack | 调用方的回执回调，可以为空
+     * @return Ack | 发送时代替调用方的回执登记
+     */
+    public Ack track(String uniq, byte[] payload, Ack userAck) {
+        Entry old = entries.get(uniq);
+        if (old != null) {
+            // 调用方用相同的消息id重新推送，之前的不再重发
+            waiting.remove(old);
+        }
+        Entry entry = new Entry(uniq, payload, userAck, order++);
+        entry.current = new TransmitAck(entry);
+        entries.put(uniq, entry);
+        return entry.current;
+    }
+
+    /**
+     * 消息没有发出，取消登记
+     *
+     * @param uniq String | 消息id
+     */
+    public void untrack(String uniq) {
+        Entry entry = entries.remove(uniq);
+        if (entry != null) {
+            waiting.remove(entry);
+        }
+    }
+
+    private void onAck(Entry entry, TransmitAck ack, int status) {
+        if (entry.current != ack || entries.get(entry.uniq) != entry) {
+            // 重发或重新推送后，之前那次发送的结果不再处理
+            return;
+        }
+        entry.current = null;
+        switch (status) {
+            case AckStatus.Timeout:
+                retryLater(entry, policy.backoff(entry.attempts));
+                break;
+            case AckStatus.Disconnected:
+                retryLater(entry, 0);
+                break;
+            default:
+                finish(entry, status);
+                break;
+        }
+    }
+
+    /**
+     * 排期重发，重发次数用完时回调{@link AckStatus#Failed}
+     */
+    private void retryLater(Entry entry, long delay) {
+        if (entry.attempts >= policy.maxRetries) {
+            Timber.i("Retransmitter 消息[" + entry.uniq + "]重发" + entry.attempts + "次仍未收到回执，放弃");
+            finish(entry, AckStatus.Failed);
+            return;
+        }
+        entry.nextAt = SystemClock.elapsedRealtime() + delay;
+        waiting.offer(entry);
+        arm(delay);
+    }
+
+    private void finish(Entry entry, int status) {
+        entries.remove(entry.uniq);
+        if (entry.userAck != null) {
+            try {
+                entry.userAck.callback(entry.uniq, status);
+            } catch (Exception e) {
+                Timber.e(e);
+            }
+        }
+    }
+
+    /**
+     * 链路断开，等待回执的消息转入重发队列，重连后立即重发，不再等超时
+     */
+    public void linkDown() {
+        List<Entry> sent = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.current != null) {
+                sent.add(entry);
+            }
+        }
+        for (Entry entry : sent) {
+            ackManage.cancelAck(entry.uniq);
+            entry.current = null;
+            entry.nextAt = 0;
+            waiting.offer(entry);
+        }
+        if (!sent.isEmpty()) {
+            Timber.i("Retransmitter 链路断开，" + sent.size() + "条消息等待重连后重发");
+        }
+    }
+
+    /**
+     * 链路恢复，所有等待重发的消息立即按提交顺序分批重发
+     */
+    public void linkUp() {
+        if (waiting.isEmpty()) {
+            return;
+        }
+        List<Entry> all = new ArrayList<>(waiting);
+        waiting.clear();
+        for (Entry entry : all) {
+            entry.nextAt = 0;
+            waiting.offer(entry);
+        }
+        Timber.i("Retransmitter 链路恢复，重发" + all.size() + "条消息");
+        drain();
+    }
+
+    /**
+     * 是否有已经到期、等待重发的消息
+     *
+     * @return boolean
+     */
+    public boolean hasDue() {
+        Entry head = waiting.peek();
+        return head != null && head.nextAt <= SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return int | 尚未结束的消息数，包括等待回执和等待重发的
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 重发一批到期的消息，还有到期的消息时间隔一段时间再发下一批
+     */
+    private void drain() {
+        armedAt = -1;
+        RetryPolicy temp = policy;
+        int count = 0;
+        while (count < temp.batchSize && hasDue()) {
+            Entry entry = waiting.poll();
+            entry.attempts++;
+            entry.current = new TransmitAck(entry);
+            if (!sender.send(entry.uniq, entry.payload, entry.current)) {
+                // 链路断开，等重连后再发
+                entry.attempts--;
+                entry.current = null;
+                waiting.offer(entry);
+                return;
+            }
+            count++;
+        }
+        if (count > 0) {
+            Timber.i("Retransmitter 重发" + count + "条消息，剩余" + waiting.size() + "条等待重发");
+        }
+        Entry head = waiting.peek();
+        if (head == null) {
+            onDrained.run();
+            return;
+        }
+        long delay = Math.max(head.nextAt - SystemClock.elapsedRealtime(), 0);
+        arm(count >= temp.batchSize ? Math.max(delay, temp.batchInterval) : delay);
+        if (!hasDue()) {
+            onDrained.run();
+        }
+    }
+
+    /**
+     * 排期下一次重发，已有更早的排期时不变
+     */
+    private void arm(long delay) {
+        long at = SystemClock.elapsedRealtime() + delay;
+        if (armedAt >= 0 && armedAt <= at) {
+            return;
+        }
+        armedAt = at;
+        handler.removeCallbacks(drainTask);
+        handler.postDelayed(drainTask, delay);
+    }
+}
@@ -0,0 +1,71 @@
+package com.mwee.android.alp;
+
+/**
+ * @Description: 需要回执的消息的自动重发策略：超时后按指数增长的间隔用相同的消息id重发，
+ * 重发次数用完后回调{@link AckStatus#Failed}；重发分批进行，每批之间有间隔，重连后不会集中冲击服务端
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class RetryPolicy {
+    /**
+     * 最多重发的次数
+     */
+    public final int maxRetries;
+    /**
+     * 第一次重发前等待的时间，之后每次翻倍，毫秒
+     */
+    public final long initialBackoff;
+    /**
+     * 重发间隔的上限，毫秒
+     */
+    public final long maxBackoff;
+    /**
+     * 一批最多重发的消息数
+     */
+    public final int batchSize;
+    /**
+     * 两批重发之间的间隔，毫秒
+     */
+    public final long batchInterval;
+
+    /**
+     * 每批20条，间隔200毫秒
+     *
+     * @param maxRetries     int | 最多重发的次数
+     * @param initialBackoff long | 第一次重发前等待的时间，毫秒
+     */
+    public RetryPolicy(int maxRetries, long initialBackoff) {
+        this(maxRetries, initialBackoff, 30 * 1000, 20, 200);
+    }
+
+    /**
+     * @param maxRetries     int | 最多重发的次数
+     * @param initialBackoff long | 第一次重发前等待的时间，毫秒
+     * @param maxBackoff     long | 重发间隔的上限，毫秒
+     * @param batchSize      int | 一批最多重发的消息数
+     * @param batchInterval  long | 两批重发之间的间隔，毫秒
+     */
+    public RetryPolicy(int maxRetries, long initialBackoff, long maxBackoff, int batchSize, long batchInterval) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.initialBackoff = Math.max(0, initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        this.batchSize = Math.max(1, batchSize);
+        this.batchInterval = Math.max(0, batchInterval);
+    }
+
+    /**
+     * 第几次重发前等待的时间
+     *
+     * @param attempt int | 已经重发的次数
+     * @return long | 毫秒
+     */
+    long backoff(int attempt) {
+        return attempt >= 30 ? maxBackoff : Math.min(maxBackoff, initialBackoff << attempt);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxRetries=" + maxRetries + ", initialBackoff=" + initialBackoff + ", maxBackoff=" + maxBackoff
+                + ", batchSize=" + batchSize + ", batchInterval=" + batchInterval + "}";
+    }
+}
@@ -0,0 +1,265 @@
+package com.mwee.android.alp;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 请求和响应的两端：作为请求方按请求id匹配响应，超时由时间轮触发，不需要扫描所有请求；
+ * 作为处理方按方法名找到{@link IRequestHandler}，在消息线程上处理后回复；
+ * 一条链路上可以同时有多个请求在等待，跨链路重连保留，链路断开时只结束这条链路上的请求
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+class RpcEndpoint {
+    /**
+     * 计算延迟分位数保留的最近请求数
+     */
+    private static final int SAMPLE_SIZE = 1024;
+
+    /**
+     * 回复响应的链路
+     */
+    interface IResponder {
+        void respond(long requestId, byte[] payload, boolean error);
+    }
+
+    /**
+     * 一个等待响应的请求
+     */
+    private static final class Pending {
+        private final RpcFuture future;
+        /**
+         * 发出请求的链路
+         */
+        private final Object owner;
+        private final long startTime = SystemClock.elapsedRealtime();
+        private TimingWheel.Timeout timeout;
+
+        private Pending(RpcFuture future, Object owner) {
+            this.future = future;
+            this.owner = owner;
+        }
+    }
+
+    private final String name;
+    private final AtomicLong requestId = new AtomicLong(0);
+    private final ConcurrentHashMap<Long, Pending> pendingMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IRequestHandler> handlers = new ConcurrentHashMap<>();
+    private final AtomicLong completed = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong timedOut = new AtomicLong(0);
+    /**
+     * 最近请求的延迟，环形记录
+     */
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private long sampleCount = 0;
+    private volatile TimingWheel wheel = null;
+    /**
+     * 处理请求的线程，为空时在读线程上处理
+     */
+    private volatile Executor executor = null;
+
+    /**
+     * @param name String | 时间轮线程的名称
+     */
+    protected RpcEndpoint(String name) {
+        this.name = name;
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void registerHandler(String method, IRequestHandler handler) {
+        handlers.put(method, handler);
+    }
+
+    public void unregisterHandler(String method) {
+        handlers.remove(method);
+    }
+
+    /**
+     * 登记一个请求，超时后以{@link TimeoutException}结束
+     *
+     * @param future  RpcFuture
+     * @param owner   Object | 发出请求的链路
+     * @param timeout long | 毫秒
+     * @return long | 请求id
+     */
+    public long add(RpcFuture future, Object owner, long timeout) {
+        final long id = requestId.incrementAndGet();
+        final Pending pending = new Pending(future, owner);
+        pendingMap.put(id, pending);
+        pending.timeout = wheel().newTimeout(() -> {
+            if (pendingMap.remove(id, pending)) {
+                timedOut.incrementAndGet();
+                Timber.i("request [" + id + "] timeout");
+                pending.future.fail(new TimeoutException("request " + id + " timeout"));
+            }
+        }, timeout);
+        return id;
+    }
+
+    /**
+     * 请求没有发出去
+     *
+     * @param id long | 请求id
+     * @param e  Exception
+     */
+    public void fail(long id, Exception e) {
+        Pending pending = pendingMap.remove(id);
+        if (pending != null) {
+            finish(pending, null, e);
+        }
+    }
+
+    /**
+     * 链路断开，结束这条链路上所有等待中的请求
+     *
+     * @param owner Object | 链路
+     * @param e     Exception
+     */
+    public void failAll(Object owner, Exception e) {
+        if (pendingMap.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        for (Map.Entry<Long, Pending> entry : pendingMap.entrySet()) {
+            if (entry.getValue().owner == owner) {
+                ids.add(entry.getKey());
+            }
+        }
+        for (Long id : ids) {
+            fail(id, e);
+        }
+    }
+
+    /**
+     * 收到响应，只接受发出请求的链路上的响应，请求id在所有链路间递增，其他链路可能伪造或误发同样的id
+     *
+     * @param source Object | 收到响应的链路
+     * @param frame  Frame | {@link Configure#MSG_TYPE_RESPONSE}
+     */
+    public void receiveResponse(Object source, Frame frame) {
+        Pending pending = pendingMap.get(frame.seq);
+        if (pending == null) {
+            Timber.i("丢弃已超时或未知的响应 [" + frame.seq + "]");
+            return;
+        }
+        if (pending.owner != source) {
+            Timber.i("丢弃其他链路上的响应 [" + frame.seq + "]");
+            return;
+        }
+        if (!pendingMap.remove(frame.seq, pending)) {
+            return;
+        }
+        record(SystemClock.elapsedRealtime() - pending.startTime);
+        if (frame.failed) {
+            finish(pending, null, new RpcException(frame.value()));
+        } else {
+            finish(pending, frame.bytes(), null);
+        }
+    }
+
+    /**
+     * 收到请求，找到对应的处理方后在消息线程上处理并回复
+     *
+     * @param source    String | 请求方
+     * @param frame     Frame | {@link Configure#MSG_TYPE_REQUEST}
+     * @param responder IResponder | 回复响应的链路
+     */
+    public void receiveRequest(final String source, Frame frame, final IResponder responder) {
+        final long id = frame.seq;
+        final String method = frame.uniq();
+        final IRequestHandler handler = method == null ? null : handlers.get(method);
+        if (handler == null) {
+            responder.respond(id, ("no handler for method " + method).getBytes(Configure.UTF_8), true);
+            return;
+        }
+        final byte[] payload = frame.bytes();
+        Runnable task = () -> {
+            try {
+                byte[] response = handler.handle(source, payload);
+                responder.respond(id, response != null ? response : new byte[0], false);
+            } catch (Exception e) {
+                Timber.e(e);
+                responder.respond(id, String.valueOf(e).getBytes(Configure.UTF_8), true);
+            }
+        };
+        Executor temp = executor;
+        if (temp != null) {
+            temp.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    private void finish(Pending pending, byte[] response, Exception e) {
+        if (pending.timeout != null) {
+            pending.timeout.cancel();
+        }
+        if (e == null) {
+            completed.incrementAndGet();
+            pending.future.complete(response);
+        } else {
+            failed.incrementAndGet();
+            pending.future.fail(e);
+        }
+    }
+
+    private synchronized void record(long latency) {
+        samples[(int) (sampleCount++ % SAMPLE_SIZE)] = latency;
+    }
+
+    private TimingWheel wheel() {
+        TimingWheel temp = wheel;
+        if (temp == null) {
+            synchronized (this) {
+                if (wheel == null) {
+                    wheel = new TimingWheel(name, 100, 512);
+                }
+                temp = wheel;
+            }
+        }
+        return temp;
+    }
+
+    /**
+     * @return RpcMetrics | 当前的统计
+     */
+    public RpcMetrics metrics() {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, (int) Math.min(sampleCount, SAMPLE_SIZE));
+        }
+        Arrays.sort(sorted);
+        return new RpcMetrics(pendingMap.size(), completed.get(), failed.get(), timedOut.get(),
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99));
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * 链路不支持请求时使用的异常
+     */
+    static IOException unsupported() {
+        return new IOException("peer does not support request/response");
+    }
+}
@@ -0,0 +1,14 @@
+package com.mwee.android.alp;
+
+/**
+ * @Description: 对端处理请求失败，或没有注册对应的方法
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class RpcException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public RpcException(String message) {
+        super(message);
+    }
+}
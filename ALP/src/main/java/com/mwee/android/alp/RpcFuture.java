@@ -0,0 +1,145 @@
+package com.mwee.android.alp;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @Description: 一次请求的结果，可以阻塞等待，也可以设置回调；
+ * 失败原因：超时为{@link TimeoutException}，链路断开或不支持为{@link java.io.IOException}，对端处理失败为{@link RpcException}
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class RpcFuture implements Future<byte[]> {
+
+    /**
+     * 结果回调，只回调一次
+     */
+    public interface Callback {
+        void onResponse(byte[] response);
+
+        void onFailure(Exception e);
+    }
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    /**
+     * 回调所在的线程
+     */
+    private final Executor executor;
+    private byte[] response;
+    private Exception error;
+    private boolean done = false;
+    private boolean cancelled = false;
+    private Callback callback;
+
+    /**
+     * @param executor Executor | 回调所在的线程，为空时在完成的线程上回调
+     */
+    protected RpcFuture(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 设置回调，已经完成时立即回调
+     *
+     * @param callback Callback
+     */
+    public void setCallback(Callback callback) {
+        synchronized (this) {
+            this.callback = callback;
+            if (!done) {
+                return;
+            }
+        }
+        notifyCallback(callback);
+    }
+
+    boolean complete(byte[] response) {
+        return finish(response, null, false);
+    }
+
+    boolean fail(Exception error) {
+        return finish(null, error, false);
+    }
+
+    private boolean finish(byte[] response, Exception error, boolean cancel) {
+        Callback temp;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.response = response;
+            this.error = error;
+            this.cancelled = cancel;
+            this.done = true;
+            temp = callback;
+        }
+        latch.countDown();
+        if (temp != null) {
+            notifyCallback(temp);
+        }
+        return true;
+    }
+
+    private void notifyCallback(final Callback callback) {
+        if (executor == null) {
+            invoke(callback);
+        } else {
+            executor.execute(() -> invoke(callback));
+        }
+    }
+
+    private void invoke(Callback callback) {
+        if (error == null) {
+            callback.onResponse(response);
+        } else {
+            callback.onFailure(error);
+        }
+    }
+
+    /**
+     * 取消等待，之后到达的响应被丢弃；请求已经发出时对端仍会处理
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException(), true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public byte[] get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    @Override
+    public byte[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private synchronized byte[] result() throws ExecutionException {
+        if (cancelled) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return response;
+    }
+}
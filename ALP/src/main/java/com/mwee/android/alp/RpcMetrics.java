@@ -0,0 +1,81 @@
+package com.mwee.android.alp;
+
+/**
+ * @Description: 请求的统计，延迟按最近的请求计算
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class RpcMetrics {
+    private final int pending;
+    private final long completed;
+    private final long failed;
+    private final long timedOut;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+
+    RpcMetrics(int pending, long completed, long failed, long timedOut, long p50, long p90, long p99) {
+        this.pending = pending;
+        this.completed = completed;
+        this.failed = failed;
+        this.timedOut = timedOut;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+    }
+
+    /**
+     * @return int | 等待响应的请求数
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return long | 收到成功响应的请求数
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return long | 对端处理失败或链路断开的请求数
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return long | 超时的请求数
+     */
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return long | 延迟的中位数，毫秒
+     */
+    public long getLatencyP50() {
+        return p50;
+    }
+
+    /**
+     * @return long | 90%的请求的延迟不超过这个值，毫秒
+     */
+    public long getLatencyP90() {
+        return p90;
+    }
+
+    /**
+     * @return long | 99%的请求的延迟不超过这个值，毫秒
+     */
+    public long getLatencyP99() {
+        return p99;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcMetrics{pending=" + pending + ", completed=" + completed + ", failed=" + failed
+                + ", timedOut=" + timedOut + ", p50=" + p50 + "ms, p90=" + p90 + "ms, p99=" + p99 + "ms}";
+    }
+}
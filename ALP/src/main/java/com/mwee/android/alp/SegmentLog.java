@@ -0,0 +1,292 @@
+package com.mwee.android.alp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 只追加的内存映射分段日志；记录按名称分组，消费后只把记录头的标记位置为已消费，
+ * 一个分段里的记录都被消费后删除该分段文件。非线程安全，调用方需要保证在同一个线程里访问
+ * @author: Xiaolong
+ * @Date: 2018/10/16
+ */
+class SegmentLog {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SUFFIX = ".log";
+    /**
+     * 记录头：长度(4) + 标记(1) + 时间戳(8) + 名称长度(2)
+     */
+    private static final int HEADER_LENGTH = 4 + 1 + 8 + 2;
+    private static final byte FLAG_LIVE = 0;
+    private static final byte FLAG_CONSUMED = 1;
+
+    /**
+     * 内存里的索引项，指向分段里的一条记录
+     */
+    static final class Record {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final String key;
+        private final long timestamp;
+
+        private Record(Segment segment, int offset, int length, String key, long timestamp) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.key = key;
+            this.timestamp = timestamp;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return String | 记录所在的分段和位置，重启后不变
+         */
+        public String getId() {
+            return segment.id + "_" + offset;
+        }
+
+        /**
+         * @return long | 写入时的时间戳，System.currentTimeMillis()
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return int | 记录占用的字节数
+         */
+        public int getSize() {
+            return 4 + length;
+        }
+    }
+
+    /**
+     * 一个分段文件
+     */
+    private static final class Segment {
+        private final File file;
+        private final long id;
+        private final MappedByteBuffer buffer;
+        /**
+         * 尚未消费的记录数
+         */
+        private int liveCount = 0;
+
+        private Segment(File file, long id, MappedByteBuffer buffer) {
+            this.file = file;
+            this.id = id;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active = null;
+
+    /**
+     * @param dir         File | 分段文件所在的目录
+     * @param segmentSize int | 单个分段文件的大小
+     */
+    protected SegmentLog(File dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * 加载目录里已有的分段，返回所有尚未消费的记录，按写入顺序排列
+     *
+     * @return List
+     * @throws IOException
+     */
+    public List<Record> load() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("create dir failed " + dir);
+        }
+        List<Record> records = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return records;
+        }
+        long[] ids = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            try {
+                ids[count++] = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                Timber.e(e);
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        for (int i = 0; i < count; i++) {
+            File file = segmentFile(ids[i]);
+            Segment segment = new Segment(file, ids[i], map(file, (int) file.length()));
+            scan(segment, records);
+            if (segment.liveCount == 0) {
+                delete(segment);
+            } else {
+                segments.add(segment);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 扫描分段里的记录
+     *
+     * @param segment Segment
+     * @param records List | 尚未消费的记录
+     */
+    private void scan(Segment segment, List<Record> records) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        while (position + HEADER_LENGTH <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + 4 + length > buffer.capacity()) {
+                break;
+            }
+            byte flag = buffer.get(position + 4);
+            long timestamp = buffer.getLong(position + 5);
+            int keyLength = buffer.getShort(position + 13) & 0xFFFF;
+            if (flag == FLAG_LIVE) {
+                byte[] key = new byte[keyLength];
+                buffer.position(position + HEADER_LENGTH);
+                buffer.get(key);
+                records.add(new Record(segment, position, length, new String(key, UTF_8), timestamp));
+                segment.liveCount++;
+            }
+            position += 4 + length;
+        }
+        segment.buffer.position(position);
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param key     String | 分组名称
+     * @param payload byte[]
+     * @return Record
+     * @throws IOException
+     */
+    public Record append(String key, byte[] payload) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int length = HEADER_LENGTH - 4 + keyBytes.length + payload.length;
+        if (active == null || active.buffer.remaining() < 4 + length) {
+            roll(4 + length);
+        }
+        long timestamp = System.currentTimeMillis();
+        MappedByteBuffer buffer = active.buffer;
+        int offset = buffer.position();
+        // 先写内容，最后写长度，进程中途退出时不会留下半条记录
+        buffer.position(offset + 4);
+        buffer.put(FLAG_LIVE).putLong(timestamp).putShort((short) keyBytes.length).put(keyBytes).put(payload);
+        buffer.putInt(offset, length);
+        active.liveCount++;
+        return new Record(active, offset, length, key, timestamp);
+    }
+
+    /**
+     * 读取记录的消息体
+     *
+     * @param record Record
+     * @return byte[]
+     */
+    public byte[] read(Record record) {
+        ByteBuffer buffer = record.segment.buffer.duplicate();
+        int keyLength = buffer.getShort(record.offset + 13) & 0xFFFF;
+        int start = record.offset + HEADER_LENGTH + keyLength;
+        byte[] payload = new byte[record.offset + 4 + record.length - start];
+        buffer.position(start);
+        buffer.get(payload);
+        return payload;
+    }
+
+    /**
+     * 标记记录为已消费，分段里的记录都已消费且不是当前写入的分段时删除该分段
+     *
+     * @param record Record
+     */
+    public void consume(Record record) {
+        Segment segment = record.segment;
+        if (segment.buffer.get(record.offset + 4) == FLAG_CONSUMED) {
+            return;
+        }
+        segment.buffer.put(record.offset + 4, FLAG_CONSUMED);
+        segment.liveCount--;
+        if (segment.liveCount <= 0 && segment != active) {
+            segments.remove(segment);
+            delete(segment);
+        }
+    }
+
+    /**
+     * 把映射的内容刷到磁盘
+     */
+    public void force() {
+        if (active != null) {
+            active.buffer.force();
+        }
+    }
+
+    /**
+     * 新建分段
+     *
+     * @param minSize int | 至少要容纳的字节数
+     * @throws IOException
+     */
+    private void roll(int minSize) throws IOException {
+        if (active != null) {
+            active.buffer.force();
+            if (active.liveCount <= 0) {
+                segments.remove(active);
+                delete(active);
+            }
+        }
+        long id = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).id + 1;
+        File file = segmentFile(id);
+        active = new Segment(file, id, map(file, Math.max(segmentSize, minSize)));
+        segments.add(active);
+    }
+
+    private File segmentFile(long id) {
+        return new File(dir, String.format("%020d", id) + SUFFIX);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void delete(Segment segment) {
+        if (!segment.file.delete()) {
+            Timber.i("SegmentLog delete failed " + segment.file);
+        }
+    }
+
+    /**
+     * 关闭日志，刷盘
+     */
+    public void close() {
+        force();
+        segments.clear();
+        active = null;
+    }
+}
@@ -0,0 +1,204 @@
+package com.mwee.android.alp;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 基于Selector的事件循环，一个线程复用多条链路的读写
+ * @author: Xiaolong
+ * @Date: 2018/10/8
+ */
+class SelectorLoop implements Runnable {
+
+    /**
+     * 通道就绪时的回调
+     */
+    interface ISelectHandler {
+        /**
+         * 通道就绪
+         *
+         * @param key SelectionKey
+         * @throws IOException
+         */
+        void onSelected(SelectionKey key) throws IOException;
+
+        /**
+         * 处理就绪事件时发生异常
+         *
+         * @param e Throwable
+         */
+        void onError(Throwable e);
+    }
+
+    private final Selector selector;
+    /**
+     * 其他线程投递到事件循环里执行的任务
+     */
+    private final ConcurrentLinkedQueue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    private volatile boolean callFinish = false;
+    private volatile Thread loopThread = null;
+    /**
+     * 当前事件循环承载的链路数，用于选择负载最低的事件循环
+     */
+    private final AtomicInteger load = new AtomicInteger(0);
+
+    protected SelectorLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * 注册通道，注册操作在事件循环线程里执行
+     *
+     * @param channel SelectableChannel | 必须是非阻塞模式
+     * @param ops     int
+     * @param handler ISelectHandler
+     */
+    public void register(final SelectableChannel channel, final int ops, final ISelectHandler handler) {
+        execute(() -> {
+            try {
+                channel.register(selector, ops, handler);
+            } catch (Exception e) {
+                handler.onError(e);
+            }
+        });
+    }
+
+    /**
+     * 在事件循环线程里执行任务
+     *
+     * @param task Runnable
+     */
+    public void execute(Runnable task) {
+        taskQueue.offer(task);
+        // 在事件循环线程里投递时也要唤醒，否则处理就绪事件时投递的任务要等到下一次有事件才执行
+        selector.wakeup();
+    }
+
+    /**
+     * 当前线程是否为事件循环线程
+     *
+     * @return boolean
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * 修改通道关注的事件，必须在事件循环线程里修改，避免部分实现在select()期间阻塞调用方
+     *
+     * @param channel SelectableChannel
+     * @param ops     int | 需要修改的事件
+     * @param add     boolean | true:增加；false：移除
+     */
+    public void interestOps(final SelectableChannel channel, final int ops, final boolean add) {
+        if (inLoop()) {
+            updateInterestOps(channel, ops, add);
+        } else {
+            execute(() -> updateInterestOps(channel, ops, add));
+        }
+    }
+
+    private void updateInterestOps(SelectableChannel channel, int ops, boolean add) {
+        SelectionKey key = channel.keyFor(selector);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int current = key.interestOps();
+        key.interestOps(add ? (current | ops) : (current & ~ops));
+    }
+
+    @Override
+    public void run() {
+        loopThread = Thread.currentThread();
+        try {
+            while (!callFinish) {
+                selector.select();
+                runTasks();
+                if (callFinish) {
+                    break;
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    ISelectHandler handler = (ISelectHandler) key.attachment();
+                    if (handler == null) {
+                        continue;
+                    }
+                    try {
+                        if (key.isValid()) {
+                            handler.onSelected(key);
+                        }
+                    } catch (Throwable e) {
+                        handler.onError(e);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            Timber.e(e);
+        } finally {
+            closeAll();
+            loopThread = null;
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                Timber.e(e);
+            }
+        }
+    }
+
+    /**
+     * 关闭所有注册在当前Selector上的通道
+     */
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    Timber.e(e);
+                }
+            }
+            selector.close();
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
+    /**
+     * 结束事件循环，循环退出时会关闭所有通道
+     */
+    public void finish() {
+        callFinish = true;
+        selector.wakeup();
+    }
+
+    public boolean isFinish() {
+        return callFinish;
+    }
+
+    public int getLoad() {
+        return load.get();
+    }
+
+    public void incrementLoad() {
+        load.incrementAndGet();
+    }
+
+    public void decrementLoad() {
+        load.decrementAndGet();
+    }
+}
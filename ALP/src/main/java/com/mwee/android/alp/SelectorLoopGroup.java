@@ -0,0 +1,86 @@
+package com.mwee.android.alp;
+
+import java.io.IOException;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 一组工作事件循环，每个事件循环独占一个线程，由接入线程把新链路分配给负载最低的事件循环
+ * @author: Xiaolong
+ * @Date: 2018/10/9
+ */
+class SelectorLoopGroup {
+    private final SelectorLoop[] loops;
+    /**
+     * 负载相同的时候轮询分配的游标
+     */
+    private int cursor = 0;
+
+    /**
+     * @param name  String | 线程名前缀
+     * @param count int | 事件循环的个数，小于1时按CPU核数
+     * @throws IOException
+     */
+    protected SelectorLoopGroup(String name, int count) throws IOException {
+        if (count < 1) {
+            count = defaultCount();
+        }
+        loops = new SelectorLoop[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                loops[i] = new SelectorLoop();
+            }
+        } catch (IOException e) {
+            finish();
+            throw e;
+        }
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(loops[i], name + "_" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Timber.i("SelectorLoopGroup " + name + " started with " + count + " loops");
+    }
+
+    /**
+     * 默认的事件循环个数，和可用的CPU核数一致
+     *
+     * @return int
+     */
+    public static int defaultCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 选出当前负载最低的事件循环，负载相同则轮询
+     *
+     * @return SelectorLoop
+     */
+    public synchronized SelectorLoop next() {
+        int length = loops.length;
+        SelectorLoop target = null;
+        for (int i = 0; i < length; i++) {
+            SelectorLoop temp = loops[(cursor + i) % length];
+            if (target == null || temp.getLoad() < target.getLoad()) {
+                target = temp;
+            }
+        }
+        cursor = (cursor + 1) % length;
+        return target;
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    /**
+     * 结束所有事件循环
+     */
+    public void finish() {
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                loop.finish();
+            }
+        }
+    }
+}
@@ -3,21 +3,24 @@ package com.mwee.android.alp;
 
 import android.os.SystemClock;
 import android.text.TextUtils;
-import android.util.ArrayMap;
 import android.util.Log;
 
 import com.google.gson.Gson;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.ArrayList;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import timber.log.Timber;
 
@@ -28,13 +31,37 @@ import timber.log.Timber;
  */
 class Server {
     /**
-     * 客户端和名称的mapping
+     * 客户端列表，以及客户端和名称的mapping
      */
-    private ArrayMap<String, ClientHandler> keyClient = new ArrayMap<>();
+    private final LinkRegistry<ClientHandler> registry = new LinkRegistry<>(new ClientHandler[0]);
     /**
-     * 客户端列表
+     * 离线信箱，为空时不保存离线消息
      */
-    private List<ClientHandler> clientList = new ArrayList<>();
+    private volatile OfflineMailbox mailbox = null;
+    /**
+     * 终端名称和会话的mapping，会话在链路断开后保留，用于重连后补发；超过{@link #SESSION_EXPIRE}没有链路使用的会话被清理
+     */
+    private final ConcurrentHashMap<String, ResumeSession> sessions = new ConcurrentHashMap<>();
+    /**
+     * 会话在终端离线后保留的时长，30分钟
+     */
+    private static final long SESSION_EXPIRE = 30 * 60 * 1000L;
+    /**
+     * 检查过期会话的周期，1分钟
+     */
+    private static final long SESSION_CHECK_PERIOD = 60 * 1000L;
+    /**
+     * 主题和订阅链路的索引
+     */
+    private final TopicIndex<ClientHandler> topicIndex = new TopicIndex<>();
+    /**
+     * 终端名称和需要回执的消息去重窗口的mapping，链路断开后保留，重连后重发的消息也能识别
+     */
+    private final ConcurrentHashMap<String, DedupWindow> dedupWindows = new ConcurrentHashMap<>();
+    /**
+     * 所有去重窗口共享的统计
+     */
+    private final DedupWindow.Stats dedupStats = new DedupWindow.Stats();
     /**
      * 手动终止
      */
@@ -43,84 +70,144 @@ class Server {
      * 服务器的监听
      */
     private IMsgReceiver receiver;
-    private Thread handlerThread = null;
+    /**
+     * 链路空闲检测的时间轮，1秒一个刻度
+     */
+    private volatile TimingWheel idleWheel = null;
+    /**
+     * 只负责接入的事件循环，运行在调用{@link #init(int, IMsgReceiver)}的线程上
+     */
+    private volatile SelectorLoop acceptLoop = null;
+    /**
+     * 负责链路读写的事件循环组
+     */
+    private volatile SelectorLoopGroup workerGroup = null;
+    /**
+     * 读写事件循环的个数
+     */
+    private final int workerCount;
+    /**
+     * 接入队列的长度，重启后大量终端同时重连时避免被拒绝
+     */
+    private static final int ACCEPT_BACKLOG = 1024;
     private int heartbeatPeriod = 6 * 60;
+    /**
+     * 链路发送队列的低水位和高水位
+     */
+    private volatile int lowWatermark = OutboundQueue.DEFAULT_LOW_WATERMARK;
+    private volatile int highWatermark = OutboundQueue.DEFAULT_HIGH_WATERMARK;
+    /**
+     * 默认的积压处理策略
+     */
+    private volatile int defaultPolicy = OverflowPolicy.DropNewest;
+    /**
+     * 按链路名称配置的积压处理策略
+     */
+    private final ConcurrentHashMap<String, Integer> keyPolicy = new ConcurrentHashMap<>();
+    /**
+     * 业务消息体达到这个字节数时压缩，小于等于0时不压缩
+     */
+    private volatile int compressThreshold = DEFAULT_COMPRESS_THRESHOLD;
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 1024;
+    /**
+     * 请求和响应，为空时不支持
+     */
+    private volatile RpcEndpoint rpc = null;
 
     protected Server() {
+        this(0);
+    }
+
+    /**
+     * @param workerCount int | 读写事件循环的个数，小于1时按CPU核数
+     */
+    protected Server(int workerCount) {
+        this.workerCount = workerCount;
         Timber.e("server created " + Thread.currentThread().getName());
     }
 
     /**
-     * 链路管理器，每6分钟检测所有链路，如果链路的心跳间隔超过了6分钟，则主动断掉链路
+     * 链路管理器，每条链路在时间轮上有一个空闲检测任务，空闲超过{@link #heartbeatPeriod}则主动断掉链路
      */
-    private void initClientChecker() {
-        if (handlerThread == null) {
-            handlerThread = new Thread("ALPServerLoop") {
-                @Override
-                public void run() {
-                    super.run();
-                    while (!checkFinish()) {
-                        try {
-                            Thread.sleep(heartbeatPeriod * 1000);
-                        } catch (InterruptedException e) {
-                            Timber.e(e);
-                        }
-                        Timber.i("Server 开始轮询心跳链路");
-                        try {
-
-                            // 心跳检测
-                            List<ClientHandler> cloneClientList = new ArrayList<>(clientList);
-                            for (int i = 0; i < cloneClientList.size(); i++) {
-                                ClientHandler temp = cloneClientList.get(i);
-                                if (temp.isFinished || ((temp.lastBeating > 0) && ((SystemClock.elapsedRealtime() - temp.lastBeating) > heartbeatPeriod * 1000))) {
-                                    if (temp.isFinished) {
-                                        Timber.i("Server 链路[" + temp.getLogName() + "] isFinished");
-                                    } else {
-                                        Timber.i("Server 链路[" + temp.getLogName() + "] 超时");
-                                    }
-                                    Log.d("ALP", "链路[" + temp.getLogName() + "] " + (temp.isFinished ? "finished" : "超时"));
-                                    temp.callStop();
-                                    synchronized (Server.this) {
-                                        clientList.remove(temp);
-                                    }
-                                    cloneClientList.remove(temp);
-                                    i--;
-                                    if (!TextUtils.isEmpty(temp.clientKey)) {
-                                        synchronized (Server.this) {
-                                            keyClient.remove(temp.clientKey);
-                                        }
-                                    } else {
-                                        if (keyClient.containsValue(temp)) {
-                                            ArrayMap<String, ClientHandler> cloneKeyClient = new ArrayMap<>(keyClient);
-                                            for (Map.Entry<String, ClientHandler> tempEntry : cloneKeyClient.entrySet()) {
-                                                if (tempEntry.getValue() == temp) {
-                                                    synchronized (Server.this) {
-                                                        keyClient.remove(tempEntry.getKey());
-                                                    }
-                                                    break;
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                }
-                            }
-
-                            // 连接数检测
-                            checkConnectionRegister();
-
-                        } catch (Exception e) {
-                            Timber.e(e);
-                        }
-                    }
-                }
-            };
-            handlerThread.start();
+    private synchronized void initClientChecker() {
+        if (idleWheel == null) {
+            idleWheel = new TimingWheel("ALPServerWheel", 1000, 512);
+            scheduleSessionCheck();
         }
     }
 
     /**
-     * 初始化服务器
+     * 在时间轮上安排下一次过期会话检查
+     */
+    private void scheduleSessionCheck() {
+        TimingWheel wheel = idleWheel;
+        if (wheel == null) {
+            return;
+        }
+        wheel.newTimeout(this::checkSessions, SESSION_CHECK_PERIOD);
+    }
+
+    /**
+     * 清理终端离线超过{@link #SESSION_EXPIRE}的会话，每个会话最多保留1M的消息，不能一直累积
+     */
+    private void checkSessions() {
+        if (checkFinish()) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<String, ResumeSession> entry : sessions.entrySet()) {
+            ResumeSession session = entry.getValue();
+            if (registry.get(entry.getKey()) != null) {
+                session.touch(now);
+            } else if (session.isExpired(now, SESSION_EXPIRE) && sessions.remove(entry.getKey(), session)) {
+                Timber.i("Server 会话[" + entry.getKey() + "] 离线超时，清理");
+            }
+        }
+        scheduleSessionCheck();
+    }
+
+    /**
+     * 在时间轮上安排链路的空闲检测
+     *
+     * @param client ClientHandler
+     * @param delay  long | 毫秒
+     */
+    private void scheduleIdleCheck(final ClientHandler client, long delay) {
+        TimingWheel wheel = idleWheel;
+        if (wheel == null || client.callStop) {
+            return;
+        }
+        client.idleTimeout = wheel.newTimeout(() -> checkIdle(client), delay);
+    }
+
+    /**
+     * 空闲检测到期；收到心跳和消息时只刷新{@link ClientHandler#lastBeating}，到期时再按剩余时间重新安排，
+     * 这样每条消息不需要操作时间轮，每条活跃链路每个周期只触发一次
+     *
+     * @param client ClientHandler
+     */
+    private void checkIdle(ClientHandler client) {
+        if (client.callStop || checkFinish()) {
+            return;
+        }
+        long period = heartbeatPeriod * 1000L;
+        long idle = SystemClock.elapsedRealtime() - client.lastBeating;
+        if (idle >= period) {
+            Timber.i("Server 链路[" + client.getLogName() + "] 超时");
+            Log.d("ALP", "链路[" + client.getLogName() + "] 超时");
+            client.callStop();
+            return;
+        }
+        // 连接数检测
+        if (registry.get(client.clientKey) != client) {
+            Log.d("ALP", client + "未注册，即将发送需要注册的消息");
+            client.pushInner(Configure.KEY_UNREGISTERED, "");
+        }
+        scheduleIdleCheck(client, period - idle);
+    }
+
+    /**
+     * 初始化服务器，当前线程只负责接入，新链路按负载分配给工作事件循环
      *
      * @param port     int
      * @param receiver IMsgReceiver
@@ -130,23 +217,40 @@ class Server {
             return;
         }
         initClientChecker();
-        ServerSocket serverSocket = null;
+        ServerSocketChannel serverChannel = null;
         try {
-            serverSocket = new ServerSocket();
             this.receiver = receiver;
-            serverSocket.setReuseAddress(true);
-            serverSocket.bind(new InetSocketAddress(port));
+            initWorkerGroup();
+            acceptLoop = new SelectorLoop();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            final ServerSocketChannel acceptChannel = serverChannel;
+            acceptLoop.register(serverChannel, SelectionKey.OP_ACCEPT, new SelectorLoop.ISelectHandler() {
+                @Override
+                public void onSelected(SelectionKey key) throws IOException {
+                    SocketChannel client;
+                    while ((client = acceptChannel.accept()) != null) {
+                        receiveClient(client);
+                    }
+                }
 
-            while (!checkFinish()) {
-                Socket client = serverSocket.accept();
-                receiveClient(client);
+                @Override
+                public void onError(Throwable e) {
+                    Timber.e(e);
+                }
+            });
+            if (checkFinish()) {
+                acceptLoop.finish();
             }
+            acceptLoop.run();
         } catch (Exception e) {
             Timber.e(e);
         } finally {
-            if (serverSocket != null) {
+            if (serverChannel != null) {
                 try {
-                    serverSocket.close();
+                    serverChannel.close();
                 } catch (IOException e) {
                     Timber.e(e);
                 }
@@ -168,6 +272,17 @@ class Server {
 
     }
 
+    /**
+     * 初始化读写事件循环组，接入失败重试时沿用已有的事件循环组，已建立的链路不受影响
+     *
+     * @throws IOException
+     */
+    private synchronized void initWorkerGroup() throws IOException {
+        if (workerGroup == null) {
+            workerGroup = new SelectorLoopGroup("ALPServerWorker", workerCount);
+        }
+    }
+
     /**
      * 注销当前的链路
      *
@@ -177,92 +292,112 @@ class Server {
         if (client == null) {
             return;
         }
-        synchronized (Server.this) {
-            if (clientList != null && !clientList.isEmpty()) {
-                if (clientList.contains(client)) {
-                    clientList.remove(client);
-                }
-            }
-            if (keyClient != null && !keyClient.isEmpty()) {
-                String key = client.clientKey;
-                if (keyClient.containsKey(key)) {
-                    keyClient.remove(key);
-                }
-            }
-        }
-
+        registry.remove(client, client.clientKey);
+        topicIndex.remove(client);
     }
 
     /**
      * 收到链路创建的请求
      *
-     * @param client Socket
+     * @param client SocketChannel
      */
-    private void receiveClient(Socket client) {
-        Timber.i("Server receiveClient " + String.format("开始监听客户端: %s", client.getRemoteSocketAddress()));
-        Log.d("ALP", String.format("开始监听客户端: %s", client.getRemoteSocketAddress()));
-        ClientHandler clientHandler = new ClientHandler(client);
-        synchronized (Server.this) {
-            clientList.add(clientHandler);
-        }
-        clientHandler.start();
+    private void receiveClient(SocketChannel client) throws IOException {
+        SocketAddress address = client.socket().getRemoteSocketAddress();
+        Timber.i("Server receiveClient " + String.format("开始监听客户端: %s", address));
+        Log.d("ALP", String.format("开始监听客户端: %s", address));
+        client.configureBlocking(false);
+        client.socket().setOOBInline(false);
+        SelectorLoop loop = workerGroup.next();
+        ClientHandler clientHandler = new ClientHandler(client, address, loop);
+        registry.add(clientHandler);
         clientHandler.lastBeating = SystemClock.elapsedRealtime();
-        Log.d("ALP", "开始监听客户端[" + client.getRemoteSocketAddress() + "]\n" +
-                "Client List: " + clientList + "\n" +
-                "Key Client: " + new Gson().toJson(keyClient.keySet()));
+        scheduleIdleCheck(clientHandler, heartbeatPeriod * 1000L);
+        loop.incrementLoad();
+        loop.register(client, SelectionKey.OP_READ, clientHandler);
+        //首次链接，即回执一个心跳
+        clientHandler.pushInner(Configure.KEY_HEART, "");
+        Log.d("ALP", "开始监听客户端[" + address + "]\n" +
+                "Client List: " + registry + "\n" +
+                "Key Client: " + new Gson().toJson(registry.keySet()));
     }
 
     /**
      * 处理消息
      *
      * @param socket ClientHandler
-     * @param key    String
-     * @param value  String
+     * @param frame  Frame
      */
-    private void processMsg(ClientHandler socket, String key, String value) {
-        switch (key) {
+    private void processMsg(ClientHandler socket, Frame frame) {
+        switch (frame.type) {
             case Configure.MSG_TYPE_BIZ: {
                 if (receiver != null) {
-                    receiver.receive("", value);
+                    receiver.receive("", frame.bytes());
                 }
             }
             break;
             case Configure.MSG_TYPE_INNER: {
-                int indexValueType = value.indexOf(Configure.SYMBOL_SPLIT);
-                String valueType = value.substring(0, indexValueType);
-                String msgValue = value.substring(indexValueType + Configure.SYMBOL_SPLIT.length());
-                switch (valueType) {
+                String msgValue = frame.value();
+                switch (frame.key) {
                     case Configure.KEY_HEART:
                         socket.lastBeating = SystemClock.elapsedRealtime();
+                        negotiate(socket, msgValue);
                         break;
                     case Configure.KEY_REGIST:
-                        synchronized (Server.this) {
-                            keyClient.put(msgValue, socket);
+                        register(socket, msgValue);
+                        break;
+                    case Configure.KEY_RESUME:
+                        resume(socket, msgValue);
+                        break;
+                    case Configure.KEY_SUBSCRIBE:
+                        if (!TextUtils.isEmpty(msgValue)) {
+                            topicIndex.subscribe(msgValue, socket);
+                            Timber.i("Server 链路[" + socket.getLogName() + "] 订阅主题[" + msgValue + "]");
                         }
-                        socket.clientKey = msgValue;
-                        Log.d("ALP", "接受到客户端[" + msgValue + "]注册消息.\n" +
-                                "Client List: " + clientList + "\n" +
-                                "Key Client: " + new Gson().toJson(keyClient.keySet()));
+                        break;
+                    case Configure.KEY_UNSUBSCRIBE:
+                        topicIndex.unsubscribe(msgValue, socket);
+                        Timber.i("Server 链路[" + socket.getLogName() + "] 取消订阅主题[" + msgValue + "]");
                         break;
                     case Configure.KEY_ACK:
-                        // 回执消息，服务端暂不实现
-
+                        Timber.i("Server receive ack for message [" + msgValue + "] from [" + socket.getLogName() + "]");
+                        socket.ackTracker.complete(msgValue, AckStatus.Success);
                         break;
                     default:
                         break;
                 }
             }
             break;
+            case Configure.MSG_TYPE_STREAM:
+                socket.inboundStreams.receive(frame, receiver);
+                break;
+            case Configure.MSG_TYPE_REQUEST: {
+                RpcEndpoint temp = rpc;
+                if (temp != null) {
+                    temp.receiveRequest(socket.clientKey, frame, socket::pushResponse);
+                } else {
+                    socket.pushResponse(frame.seq, "request not supported".getBytes(Configure.UTF_8), true);
+                }
+            }
+            break;
+            case Configure.MSG_TYPE_RESPONSE: {
+                RpcEndpoint temp = rpc;
+                if (temp != null) {
+                    temp.receiveResponse(socket, frame);
+                }
+            }
+            break;
             case Configure.MSG_TYPE_BIZ_NEED_ACK: {
-                int indexValueType = value.indexOf(Configure.SYMBOL_SPLIT);
-                String uniq = value.substring(0, indexValueType);
-                String message = value.substring(indexValueType + Configure.SYMBOL_SPLIT.length());
-
                 // 发送回执
-                socket.pushMsg(buildAck(uniq));
+                String uniq = frame.uniq();
+                socket.pushInner(Configure.KEY_ACK, uniq);
 
+                // 终端没收到回执而重发的消息，只回执不再回调
+                if (socket.dedupWindow().isDuplicate(uniq)) {
+                    Timber.i("Server 收到重复的消息 " + uniq + " " + socket);
+                    break;
+                }
                 if (receiver != null) {
-                    receiver.receive(uniq, message);
+                    receiver.receive(uniq, frame.bytes());
                 }
             }
             break;
@@ -271,41 +406,292 @@ class Server {
         }
     }
 
-    private String buildHeartBeating() {
-        return Configure.MSG_TYPE_INNER + Configure.SYMBOL_SPLIT + Configure.KEY_HEART + Configure.SYMBOL_SPLIT;
+    /**
+     * 协商协议版本：客户端在心跳里带上它支持的最高版本和压缩算法，服务端用当前格式回复一次心跳后切换到双方都支持的版本；
+     * 老客户端的心跳不带版本，一直使用字符串格式；只有二进制格式支持压缩
+     *
+     * @param socket ClientHandler
+     * @param value  String | 客户端支持的最高版本和压缩算法，例如"2,deflate"
+     */
+    private void negotiate(ClientHandler socket, String value) {
+        if (TextUtils.isEmpty(value) || socket.version != FrameCodec.VERSION_LEGACY) {
+            return;
+        }
+        int version = Math.min(FrameCodec.parseVersion(value), FrameCodec.VERSION_BINARY);
+        if (version <= FrameCodec.VERSION_LEGACY) {
+            return;
+        }
+        boolean deflate = FrameCodec.supports(value, FrameCodec.CODEC_DEFLATE);
+        socket.pushInner(Configure.KEY_HEART, FrameCodec.handshake(version, deflate));
+        socket.version = version;
+        socket.deflate = deflate;
+        Timber.i("Server 链路[" + socket.getLogName() + "] 切换到协议版本" + version + (deflate ? "，支持压缩" : ""));
+    }
+
+    /**
+     * 链路注册名称
+     *
+     * @param socket ClientHandler
+     * @param key    String
+     */
+    private void register(ClientHandler socket, String key) {
+        // 登录时恢复会话和注册都会走到这里，同一条链路只补发一次离线消息
+        boolean registered = TextUtils.equals(socket.clientKey, key);
+        if (!registered) {
+            registry.unbind(socket.clientKey, socket);
+        }
+        socket.clientKey = key;
+        if (!registered) {
+            // 先进入补发状态再登记链路，登记后新推送的消息排在离线消息后面
+            replayMailbox(socket, key);
+        }
+        ClientHandler old = registry.bind(key, socket);
+        if (old != null) {
+            // 同一个名称从新的链路注册，旧链路已经失效
+            Log.d("ALP", "客户端[" + key + "]从新的链路注册，断开旧链路" + old);
+            old.callStop();
+        }
+        Log.d("ALP", "接受到客户端[" + key + "]注册消息.\n" +
+                "Client List: " + registry + "\n" +
+                "Key Client: " + new Gson().toJson(registry.keySet()));
+    }
+
+    /**
+     * 终端请求恢复会话：从它收到的最后一个序号之后补发，补不齐时通知终端重置，然后注册名称
+     *
+     * @param socket ClientHandler
+     * @param value  String | 名称#@%最后收到的序号
+     */
+    private void resume(ClientHandler socket, String value) {
+        int index = value.lastIndexOf(Configure.SYMBOL_SPLIT);
+        if (index <= 0) {
+            return;
+        }
+        String key = value.substring(0, index);
+        long lastSeq;
+        try {
+            lastSeq = Long.parseLong(value.substring(index + Configure.SYMBOL_SPLIT.length()));
+        } catch (NumberFormatException e) {
+            lastSeq = -1;
+        }
+        ResumeSession session = sessions.get(key);
+        if (session == null) {
+            ResumeSession created = new ResumeSession();
+            session = sessions.putIfAbsent(key, created);
+            if (session == null) {
+                session = created;
+            }
+        }
+        // 持有会话锁，保证补发的消息排在之后推送的新消息前面
+        synchronized (session) {
+            session.touch(SystemClock.elapsedRealtime());
+            boolean resumable = session.canResumeFrom(lastSeq);
+            socket.pushInner(Configure.KEY_RESUME, (resumable ? Configure.RESUME_OK : Configure.RESUME_RESET)
+                    + Configure.SYMBOL_SPLIT + session.getLastSeq());
+            if (resumable) {
+                session.replayAfter(lastSeq, (seq, body) -> socket.offerSeq(seq, body, OutboundQueue.POLICY_NEVER_DROP));
+            }
+            socket.session = session;
+            Timber.i("Server 链路[" + socket.getLogName() + "] 恢复会话[" + key + "] 终端序号" + lastSeq
+                    + " 服务端序号" + session.getLastSeq() + (resumable ? "" : "，需要重置"));
+        }
+        register(socket, key);
+    }
+
+    /**
+     * 设置离线信箱
+     *
+     * @param mailbox OfflineMailbox | 为空时不再保存离线消息
+     */
+    public void setMailbox(OfflineMailbox mailbox) {
+        this.mailbox = mailbox;
+    }
+
+    /**
+     * 终端注册后补发离线信箱里的消息，每批消息合并成一次入队，全部收到回执后信箱才消费
+     *
+     * @param socket ClientHandler
+     * @param key    String
+     */
+    private void replayMailbox(final ClientHandler socket, String key) {
+        OfflineMailbox temp = mailbox;
+        if (temp == null) {
+            return;
+        }
+        temp.replay(key, socket::pushMailbox);
+    }
+
+    /**
+     * 设置链路发送队列的水位，只对之后建立的链路生效
+     *
+     * @param low  int | 低水位，字节
+     * @param high int | 高水位，字节
+     */
+    public void setWriteWatermark(int low, int high) {
+        this.lowWatermark = low;
+        this.highWatermark = high;
+    }
+
+    /**
+     * 设置业务消息的压缩阈值，只对协商过压缩的链路生效
+     *
+     * @param threshold int | 消息体达到这个字节数时压缩，小于等于0时不压缩
+     */
+    public void setCompressThreshold(int threshold) {
+        this.compressThreshold = threshold;
+    }
+
+    /**
+     * 设置请求和响应的处理，服务器重启后继续使用同一个，等待中的请求和注册的处理方都保留
+     *
+     * @param rpc RpcEndpoint
+     */
+    public void setRpcEndpoint(RpcEndpoint rpc) {
+        this.rpc = rpc;
+    }
+
+    /**
+     * 需要回执的消息去重的统计
+     *
+     * @return DedupMetrics
+     */
+    public DedupMetrics getDedupMetrics() {
+        return dedupStats.metrics();
+    }
+
+    /**
+     * 设置积压处理策略
+     *
+     * @param targetName String | 链路名称，为空时设置默认的策略
+     * @param policy     int | {@link OverflowPolicy}，为{@link OverflowPolicy#Default}时清除该链路的配置
+     */
+    public void setOverflowPolicy(String targetName, @OverflowPolicy int policy) {
+        if (TextUtils.isEmpty(targetName)) {
+            if (policy != OverflowPolicy.Default) {
+                defaultPolicy = policy;
+            }
+        } else if (policy == OverflowPolicy.Default) {
+            keyPolicy.remove(targetName);
+        } else {
+            keyPolicy.put(targetName, policy);
+        }
     }
 
     /**
-     * 回执消息
+     * 获取指定链路尚未写出的字节数
      *
-     * @param messageId 消息id
-     * @return
+     * @param targetName String
+     * @return long | 链路不存在时为-1
      */
-    public String buildAck(String messageId) {
-        return Configure.MSG_TYPE_INNER + Configure.SYMBOL_SPLIT + Configure.KEY_ACK + Configure.SYMBOL_SPLIT + messageId;
+    public long getPendingBytes(String targetName) {
+        ClientHandler temp = registry.get(targetName);
+        return temp == null ? -1 : temp.outboundQueue.getPendingBytes();
     }
 
     /**
-     * 发送给客户端的连接未注册的消息
+     * 给所有链路推送消息
      *
-     * @return
+     * @param payload byte[]
      */
-    public String buildUnregistered() {
-        return Configure.MSG_TYPE_INNER + Configure.SYMBOL_SPLIT + Configure.KEY_UNREGISTERED + Configure.SYMBOL_SPLIT;
+    protected void pushMsgToAll(byte[] payload) {
+        pushMsgToAll(payload, OverflowPolicy.Default);
     }
 
     /**
      * 给所有链路推送消息
      *
-     * @param msg String
+     * @param payload byte[]
+     * @param policy  int | {@link OverflowPolicy}
      */
-    protected void pushMsgToAll(String msg) {
+    protected void pushMsgToAll(byte[] payload, @OverflowPolicy int policy) {
+        if (isOversize("all", payload)) {
+            return;
+        }
+        try {
+            // 只编码一次，所有链路共享同一份只读的消息
+            OutboundMessage message = new OutboundMessage(payload);
+            for (ClientHandler temp : registry.snapshot()) {
+                temp.pushBiz(message, policy);
+            }
+            message.release();
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+    }
+
+    /**
+     * 给所有链路推送需要回执的消息
+     *
+     * @param uniq    String | 消息id
+     * @param payload byte[]
+     * @param policy  int | {@link OverflowPolicy}
+     * @param ack     BroadcastAck | 所有链路都有结果后回调
+     */
+    protected void pushMsgToAll(String uniq, byte[] payload, @OverflowPolicy int policy, BroadcastAck ack) {
+        ClientHandler[] links = registry.snapshot();
+        BroadcastAckCollector collector = new BroadcastAckCollector(uniq, ack, links.length);
+        if (isOversize("all", payload)) {
+            for (ClientHandler temp : links) {
+                collector.forTarget(temp.getTargetName()).callback(uniq, AckStatus.Failed);
+            }
+            return;
+        }
+        OutboundMessage message = new OutboundMessage(uniq, payload);
+        for (ClientHandler temp : links) {
+            temp.pushNeedAck(message, policy, uniq, collector.forTarget(temp.getTargetName()));
+        }
+        message.release();
+    }
+
+    /**
+     * 推送需要回执的消息给指定的链路
+     *
+     * @param targetName String
+     * @param uniq       String | 消息id
+     * @param payload    byte[]
+     * @param policy     int | {@link OverflowPolicy}
+     * @param ack        Ack
+     */
+    public void pushMsgToTarget(String targetName, String uniq, byte[] payload, @OverflowPolicy int policy, Ack ack) {
+        if (isOversize(targetName, payload)) {
+            ack.callback(uniq, AckStatus.Failed);
+            return;
+        }
+        ClientHandler temp = registry.get(targetName);
+        if (temp == null) {
+            Log.d("ALP", "指定链路[" + targetName + "]不存在, 消息[" + uniq + "]取消推送");
+            ack.callback(uniq, AckStatus.Disconnected);
+            checkConnectionRegister();
+            return;
+        }
+        OutboundMessage message = new OutboundMessage(uniq, payload);
+        temp.pushNeedAck(message, policy, uniq, ack);
+        message.release();
+    }
+
+    /**
+     * 给订阅了主题的所有链路推送消息，消息只编码一次
+     *
+     * @param topic   String
+     * @param payload byte[]
+     * @param policy  int | {@link OverflowPolicy}
+     */
+    public void pushMsgToTopic(String topic, byte[] payload, @OverflowPolicy int policy) {
+        if (isOversize(topic, payload)) {
+            return;
+        }
         try {
-            String finalMsg = Configure.MSG_TYPE_BIZ + Configure.SYMBOL_SPLIT + msg;
-            List<ClientHandler> tempList = new ArrayList<>(clientList);
-            for (ClientHandler temp : tempList) {
-                temp.pushMsg(finalMsg);
+            Set<ClientHandler> subscribers = topicIndex.subscribers(topic);
+            if (subscribers.isEmpty()) {
+                Timber.i("Server 主题[" + topic + "]没有订阅者，消息取消推送");
+                return;
             }
+            // 同一主题的消息互相合并
+            OutboundMessage message = new OutboundMessage(null, payload, topic);
+            for (ClientHandler temp : subscribers) {
+                temp.pushBiz(message, policy);
+            }
+            message.release();
         } catch (Exception e) {
             Timber.e(e);
         }
@@ -315,21 +701,106 @@ class Server {
      * 推送消息给指定的链路
      *
      * @param targetName String
-     * @param msg        String
+     * @param payload    byte[]
+     */
+    public void pushMsgToTarget(String targetName, byte[] payload) {
+        pushMsgToTarget(targetName, payload, OverflowPolicy.Default);
+    }
+
+    /**
+     * 推送消息给指定的链路
+     *
+     * @param targetName String
+     * @param payload    byte[]
+     * @param policy     int | {@link OverflowPolicy}
      */
-    public void pushMsgToTarget(String targetName, String msg) {
-        ClientHandler temp = keyClient.get(targetName);
+    public void pushMsgToTarget(String targetName, byte[] payload, @OverflowPolicy int policy) {
+        if (isOversize(targetName, payload)) {
+            return;
+        }
+        OfflineMailbox box = mailbox;
+        if (box != null && box.offerIfReplaying(targetName, payload)) {
+            // 离线消息还没补发完，排在后面
+            return;
+        }
+        ClientHandler temp = registry.get(targetName);
+        ResumeSession session;
         if (temp != null) {
-            String finalMsg = Configure.MSG_TYPE_BIZ + Configure.SYMBOL_SPLIT + msg;
-            temp.pushMsg(finalMsg);
+            OutboundMessage message = new OutboundMessage(payload);
+            temp.pushBiz(message, policy);
+            message.release();
+        } else if ((session = sessions.get(targetName)) != null) {
+            // 终端恢复会话时按序号补发，不再存入离线信箱，避免重复收到
+            Log.d("ALP", "指定链路[" + targetName + "]不存在, 消息[" + payload.length + "字节]保留在会话里");
+            OutboundMessage message = new OutboundMessage(payload);
+            synchronized (session) {
+                session.append(message.body());
+            }
+            message.release();
+            checkConnectionRegister();
+        } else if (box != null) {
+            Log.d("ALP", "指定链路[" + targetName + "]不存在, 消息[" + payload.length + "字节]存入离线信箱");
+            box.offer(targetName, payload);
+            checkConnectionRegister();
         } else {
-            Log.d("ALP", "指定链路[" + targetName + "]不存在, 消息[" + msg + "]取消推送\n" +
-                    "Client List: " + clientList + "\n" +
-                    "Key Client: " + new Gson().toJson(keyClient.keySet()));
+            Log.d("ALP", "指定链路[" + targetName + "]不存在, 消息[" + payload.length + "字节]取消推送\n" +
+                    "Client List: " + registry + "\n" +
+                    "Key Client: " + new Gson().toJson(registry.keySet()));
+            checkConnectionRegister();
+        }
+    }
+
+    /**
+     * 消息体超过{@link FrameCodec#MAX_PAYLOAD_LENGTH}时拒绝推送，对端收到超长的消息会断开链路
+     *
+     * @param target  String | 链路名称或主题，用于日志
+     * @param payload byte[]
+     * @return boolean | true：超长，已记录日志，调用方不再推送
+     */
+    private static boolean isOversize(String target, byte[] payload) {
+        if (payload.length <= FrameCodec.MAX_PAYLOAD_LENGTH) {
+            return false;
+        }
+        Timber.e("Server 消息[" + payload.length + "字节]超过最大长度" + FrameCodec.MAX_PAYLOAD_LENGTH + "，推送给[" + target + "]被拒绝，请使用pushStreamToTarget分段推送");
+        return true;
+    }
+
+    /**
+     * 推送流给指定的链路，各段在链路的事件循环里读取并入队，每次只入队一段
+     *
+     * @param targetName String
+     * @param stream     OutboundStream | 无法推送时关闭
+     * @return boolean | false：链路不存在或不支持流消息
+     */
+    public boolean pushStreamToTarget(String targetName, OutboundStream stream) {
+        ClientHandler temp = registry.get(targetName);
+        if (temp == null) {
+            Log.d("ALP", "指定链路[" + targetName + "]不存在, 流[" + stream.getUniq() + "]取消推送");
+            stream.close();
             checkConnectionRegister();
+            return false;
         }
+        return temp.pushStream(stream);
     }
 
+    /**
+     * 发送请求给指定的链路，响应、超时或链路断开时结束future
+     *
+     * @param targetName String
+     * @param method     String | 方法名
+     * @param payload    byte[]
+     * @param timeout    long | 毫秒
+     * @param future     RpcFuture
+     */
+    public void request(String targetName, String method, byte[] payload, long timeout, RpcFuture future) {
+        RpcEndpoint temp = rpc;
+        ClientHandler link = registry.get(targetName);
+        if (temp == null || link == null) {
+            future.fail(new IOException("target [" + targetName + "] not connected"));
+            return;
+        }
+        link.pushRequest(temp, method, payload, timeout, future);
+    }
 
     private synchronized boolean checkFinish() {
         return callFinish;
@@ -340,11 +811,26 @@ class Server {
      */
     public void finish() {
         Timber.i("Server call finish " + Thread.currentThread().getName());
-        clientList.clear();
-        keyClient.clear();
+        registry.clear();
+        topicIndex.clear();
+        sessions.clear();
+        dedupWindows.clear();
         synchronized (this) {
             callFinish = true;
         }
+        if (acceptLoop != null) {
+            acceptLoop.finish();
+        }
+        synchronized (this) {
+            if (workerGroup != null) {
+                workerGroup.finish();
+                workerGroup = null;
+            }
+            if (idleWheel != null) {
+                idleWheel.stop();
+                idleWheel = null;
+            }
+        }
     }
 
     /**
@@ -352,110 +838,476 @@ class Server {
      */
     public void checkConnectionRegister() {
         Log.d("ALP", "校验 Socket 连接注册");
-        if (clientList == null || clientList.size() == 0) {
+        if (registry.size() == 0) {
             Log.d("ALP", "ALP 连接池为空，跳过注册校验");
             return;
         }
-        for (ClientHandler client : clientList) {
+        for (ClientHandler client : registry.snapshot()) {
             if (client == null) {
                 continue;
             }
-            if (keyClient.containsKey(client.clientKey)) {
+            if (registry.get(client.clientKey) == client) {
                 continue;
             }
             Log.d("ALP", client + "未注册，即将发送需要注册的消息");
-            client.pushMsg(buildUnregistered());
+            client.pushInner(Configure.KEY_UNREGISTERED, "");
         }
     }
 
     /**
-     * 链路
+     * 链路，读写都由{@link SelectorLoop}驱动，不再独占线程
      */
-    private class ClientHandler extends Thread {
-        private Socket client;
-        private InputStream in;
-        private OutputStream out;
-        private boolean callStop = false;
-        private String clientKey = "";
+    private class ClientHandler implements SelectorLoop.ISelectHandler {
+        /**
+         * 读缓冲的初始大小
+         */
+        private static final int READ_BUFFER_SIZE = 4 * 1024;
+        private SocketChannel client;
+        private final SocketAddress address;
+        /**
+         * 链路所在的事件循环
+         */
+        private final SelectorLoop loop;
+        /**
+         * 按消息头拆分消息，读缓冲和解码出的消息都复用
+         */
+        private final FrameDecoder decoder = new FrameDecoder(READ_BUFFER_SIZE, FrameCodec.MAX_FRAME_LENGTH);
+        /**
+         * 待发送的消息
+         */
+        private final OutboundQueue outboundQueue;
         /**
-         * 上一次收到心跳包的时间
+         * 推送时使用的协议版本，{@link FrameCodec#VERSION_LEGACY}或{@link FrameCodec#VERSION_BINARY}
          */
-        private long lastBeating = 0L;
-        private boolean isFinished = false;
+        private volatile int version = FrameCodec.VERSION_LEGACY;
+        /**
+         * 恢复过的会话，为空时推送普通业务消息
+         */
+        private volatile ResumeSession session = null;
+        /**
+         * 是否协商过Deflate压缩
+         */
+        private volatile boolean deflate = false;
+        /**
+         * 等待终端回执的消息
+         */
+        private final AckTracker ackTracker = new AckTracker(idleWheel);
+        /**
+         * 正在接收的流，只在事件循环线程里访问
+         */
+        private final InboundStreams inboundStreams = new InboundStreams();
+        /**
+         * 未注册时使用的去重窗口，注册后改用按终端名称保留的窗口
+         */
+        private DedupWindow localDedup = null;
+        /**
+         * 正在发送的流，只在事件循环线程里访问
+         */
+        private final ArrayDeque<OutboundStream> outboundStreams = new ArrayDeque<>();
+        /**
+         * 是否已关注可写事件
+         */
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        private volatile boolean callStop = false;
+        private volatile String clientKey = "";
+        /**
+         * 上一次收到心跳包或消息的时间
+         */
+        private volatile long lastBeating = 0L;
+        /**
+         * 时间轮上的空闲检测任务
+         */
+        private volatile TimingWheel.Timeout idleTimeout = null;
 
-        ClientHandler(Socket client) {
+        ClientHandler(SocketChannel client, SocketAddress address, SelectorLoop loop) {
             this.client = client;
+            this.address = address;
+            this.loop = loop;
+            this.outboundQueue = new OutboundQueue(lowWatermark, highWatermark, writable -> {
+                Timber.i("Server 链路[" + getLogName() + "] " + (writable ? "恢复可写" : "积压超过高水位"));
+                if (receiver != null) {
+                    receiver.writabilityChanged(clientKey, writable);
+                }
+            });
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) throws IOException {
+            if (key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
         }
 
         @Override
-        public void run() {
-            super.run();
+        public void onError(Throwable e) {
+            Timber.e(e);
+            callStop();
+            Log.d("ALP", "客户端[" + getLogName() + "]连接异常\n" + e.getMessage());
+        }
 
-            try {
-                client.setOOBInline(false);
-                init();
-                //首次链接，即回执一个心跳
-                pushMsg(buildHeartBeating());
-                while (!callStop) {
-                    if (in == null) {
-                        break;
-                    }
-                    if (client.isInputShutdown() || client.isOutputShutdown() || client.isClosed() || !client.isConnected()) {
-                        callStop();
-                        break;
+        /**
+         * 读取并拆分消息，一次可能读到多条或半条
+         *
+         * @throws IOException
+         */
+        private void read() throws IOException {
+            if (callStop || client == null) {
+                return;
+            }
+            int readCount = decoder.readFrom(client);
+            if (readCount < 0) {
+                Timber.i("Server " + getLogName() + " 读取失败");
+                callStop();
+                return;
+            }
+            Frame frame;
+            while (!callStop && (frame = decoder.next()) != null) {
+                dispatch(frame);
+            }
+        }
+
+        private void dispatch(Frame frame) {
+            lastBeating = SystemClock.elapsedRealtime();
+            Timber.i("Server receive msg [" + frame + "] from [" + this.getLogName() + "]");
+            processMsg(this, frame);
+        }
+
+        /**
+         * 通过当前链路推送内部链路消息，不受积压策略限制
+         *
+         * @param key   String | {@link Configure#KEY_HEART}等
+         * @param value String
+         */
+        private void pushInner(String key, String value) {
+            offer(null, FrameCodec.encodeInner(BufferPool.direct(), version, key, value), OutboundQueue.POLICY_NEVER_DROP);
+        }
+
+        /**
+         * 通过当前链路推送共享的已编码消息，只入队不写，由事件循环在可写时批量写出，调用方不会被慢链路阻塞
+         *
+         * @param frame       PooledBuffer | 已编码的消息，多个链路共享，这里持有一次引用并只写它的副本
+         * @param policy      int | {@link OverflowPolicy}
+         * @param conflateKey String | 合并键
+         * @return boolean | false：链路已断开或消息被丢弃
+         */
+        private boolean pushShared(PooledBuffer frame, int policy, String conflateKey) {
+            return offer(null, frame.buffer().duplicate(), frame.retain(), policy, conflateKey);
+        }
+
+        /**
+         * 推送业务消息；恢复过会话的链路带上序号并保留在会话里，其他链路推送普通业务消息
+         *
+         * @param message OutboundMessage
+         * @param policy  int | {@link OverflowPolicy}
+         * @return boolean | false：链路已断开或消息被丢弃
+         */
+        private boolean pushBiz(OutboundMessage message, int policy) {
+            boolean compressed = shouldDeflate(message);
+            ResumeSession temp = session;
+            if (temp == null) {
+                return pushShared(compressed ? message.deflatedFrame() : message.frame(version), policy, message.getConflateKey());
+            }
+            synchronized (temp) {
+                long seq = temp.append(message.body());
+                if (compressed) {
+                    ByteBuffer body = message.deflatedBody();
+                    return offer(FrameCodec.encodeSeqHeader(BufferPool.direct(), version, seq, body.remaining(), true), body.duplicate(), null, policy, message.getConflateKey());
+                }
+                return offer(FrameCodec.encodeSeqHeader(BufferPool.direct(), version, seq, message.body().remaining(), false), message.body().duplicate(), null, policy, message.getConflateKey());
+            }
+        }
+
+        /**
+         * 是否压缩推送给这个链路的消息，会话里保留的仍是未压缩的消息体
+         *
+         * @param message OutboundMessage
+         * @return boolean
+         */
+        private boolean shouldDeflate(OutboundMessage message) {
+            return deflate && version >= FrameCodec.VERSION_BINARY && message.deflate(compressThreshold);
+        }
+
+        /**
+         * 推送带序号的业务消息，只生成链路自己的消息头，消息体共享
+         *
+         * @param seq    long | 序号
+         * @param body   ByteBuffer | 只读的消息体
+         * @param policy int | {@link OverflowPolicy}
+         * @return boolean | false：链路已断开或消息被丢弃
+         */
+        private boolean offerSeq(long seq, ByteBuffer body, int policy) {
+            return offer(FrameCodec.encodeSeqHeader(BufferPool.direct(), version, seq, body.remaining(), false), body.duplicate(), null, policy);
+        }
+
+        /**
+         * 入队独占的已编码消息
+         *
+         * @param header PooledBuffer | 链路独有的消息头，可以为空
+         * @param frame  PooledBuffer | 链路独有的消息，所有权交给发送队列
+         * @param policy int | {@link OverflowPolicy}
+         * @return boolean | false：链路已断开或消息被丢弃
+         */
+        private boolean offer(PooledBuffer header, PooledBuffer frame, int policy) {
+            return offer(header, frame.buffer(), frame, policy);
+        }
+
+        /**
+         * 入队并关注可写事件，持有的缓冲无论成败都交给发送队列释放
+         *
+         * @param header    PooledBuffer | 链路独有的消息头，可以为空
+         * @param body      ByteBuffer | 链路独有的缓冲
+         * @param bodyLease PooledBuffer | 消息体所属的缓冲，可以为空
+         * @param policy    int | {@link OverflowPolicy}
+         * @return boolean | false：链路已断开或消息被丢弃
+         */
+        private boolean offer(PooledBuffer header, ByteBuffer body, PooledBuffer bodyLease, int policy) {
+            return offer(header, body, bodyLease, policy, null);
+        }
+
+        /**
+         * 入队并关注可写事件，持有的缓冲无论成败都交给发送队列释放
+         *
+         * @param header      PooledBuffer | 链路独有的消息头，可以为空
+         * @param body        ByteBuffer | 链路独有的缓冲
+         * @param bodyLease   PooledBuffer | 消息体所属的缓冲，可以为空
+         * @param policy      int | {@link OverflowPolicy}
+         * @param conflateKey String | {@link OverflowPolicy#Conflate}的合并键
+         * @return boolean | false：链路已断开或消息被丢弃
+         */
+        private boolean offer(PooledBuffer header, ByteBuffer body, PooledBuffer bodyLease, int policy, String conflateKey) {
+            if (callStop) {
+                if (header != null) {
+                    header.release();
+                }
+                if (bodyLease != null) {
+                    bodyLease.release();
+                }
+                return false;
+            }
+            if (policy == OverflowPolicy.Default) {
+                Integer temp = keyPolicy.get(clientKey);
+                policy = temp != null ? temp : defaultPolicy;
+            }
+            switch (outboundQueue.offer(header, body, bodyLease, policy, conflateKey)) {
+                case OutboundQueue.OFFER_DROPPED:
+                    Timber.i("Server 链路[" + getLogName() + "] 积压" + outboundQueue.getPendingBytes() + "字节，丢弃消息");
+                    return false;
+                case OutboundQueue.OFFER_DISCONNECT:
+                    Timber.i("Server 链路[" + getLogName() + "] 积压" + outboundQueue.getPendingBytes() + "字节，断开链路");
+                    callStop();
+                    return false;
+                default:
+                    break;
+            }
+            // 入队期间链路结束，callStop()可能已经清空过队列，再清空一次归还刚入队的缓冲
+            if (callStop) {
+                outboundQueue.clear();
+                return false;
+            }
+            scheduleFlush();
+            return true;
+        }
+
+        /**
+         * 推送需要回执的消息，先登记回执再入队，避免回执先于登记到达
+         *
+         * @param message OutboundMessage | 需要回执的消息
+         * @param policy  int | {@link OverflowPolicy}
+         * @param uniq    String | 消息id
+         * @param ack     Ack
+         */
+        private void pushNeedAck(OutboundMessage message, int policy, String uniq, Ack ack) {
+            if (callStop) {
+                ack.callback(uniq, AckStatus.Disconnected);
+                return;
+            }
+            ackTracker.add(uniq, ack);
+            PooledBuffer frame = shouldDeflate(message) ? message.deflatedFrame() : message.frame(version);
+            if (!pushShared(frame, policy, message.getConflateKey())) {
+                ackTracker.complete(uniq, callStop ? AckStatus.Disconnected : AckStatus.UnKnow);
+            }
+        }
+
+        /**
+         * 补发一批离线消息，每条都需要回执，全部成功后才通知信箱消费
+         *
+         * @param uniqs     List | 消息id
+         * @param batch     List | 消息体
+         * @param delivered OfflineMailbox.IDelivered
+         */
+        private void pushMailbox(List<String> uniqs, List<byte[]> batch, final OfflineMailbox.IDelivered delivered) {
+            if (callStop) {
+                delivered.onDelivered(false);
+                return;
+            }
+            final AtomicInteger remaining = new AtomicInteger(uniqs.size());
+            final AtomicBoolean failed = new AtomicBoolean(false);
+            Ack ack = new Ack() {
+                @Override
+                public void callback(String uniq, int status) {
+                    if (status != AckStatus.Success) {
+                        failed.set(true);
                     }
-                    byte[] header = new byte[4];
-                    String clientMsg = Util.socketReader(in, header);
-                    if (TextUtils.isEmpty(clientMsg)) {
-                        Timber.i("Server " + getLogName() + " 读取失败");
-                        callStop();
-                        break;
+                    if (remaining.decrementAndGet() == 0) {
+                        delivered.onDelivered(!failed.get());
                     }
-                    Timber.i("Server receive msg [" + clientMsg + "] from [" + this.getLogName() + "]");
-                    int indexMsgType = clientMsg.indexOf(Configure.SYMBOL_SPLIT);
-                    String msgType = clientMsg.substring(0, indexMsgType);
-                    String value = clientMsg.substring(indexMsgType + Configure.SYMBOL_SPLIT.length());
-                    processMsg(this, msgType, value);
                 }
-            } catch (Throwable e) {
-                Timber.e(e);
-                callStop();
-                Log.d("ALP", "客户端[" + getLogName() + "]连接异常\n" + e.getMessage());
+            };
+            for (String uniq : uniqs) {
+                ackTracker.add(uniq, ack);
+            }
+            if (!offer(null, FrameCodec.encodeBizBatch(BufferPool.direct(), version, uniqs, batch), OutboundQueue.POLICY_NEVER_DROP)) {
+                for (String uniq : uniqs) {
+                    ackTracker.complete(uniq, AckStatus.Disconnected);
+                }
+            }
+        }
+
+        /**
+         * 发送请求，先登记再入队，避免响应先于登记到达
+         */
+        private void pushRequest(RpcEndpoint endpoint, String method, byte[] payload, long timeout, RpcFuture future) {
+            if (callStop || version < FrameCodec.VERSION_BINARY) {
+                future.fail(callStop ? new IOException("link closed") : RpcEndpoint.unsupported());
+                return;
+            }
+            long id = endpoint.add(future, this, timeout);
+            if (!offer(null, FrameCodec.encodeRequest(BufferPool.direct(), id, method, payload), OverflowPolicy.Default)) {
+                endpoint.fail(id, new IOException(callStop ? "link closed" : "request dropped"));
+            }
+        }
+
+        /**
+         * 回复响应，对端在等待，不受积压策略限制
+         */
+        private void pushResponse(long requestId, byte[] payload, boolean error) {
+            if (version < FrameCodec.VERSION_BINARY) {
+                return;
             }
-            isFinished = true;
+            offer(null, FrameCodec.encodeResponse(BufferPool.direct(), requestId, payload, error), OutboundQueue.POLICY_NEVER_DROP);
         }
 
         /**
-         * 初始化流
+         * 推送流，只有二进制格式的链路支持
          *
-         * @throws IOException
+         * @param stream OutboundStream
+         * @return boolean | false：链路已断开或不支持流消息
+         */
+        private boolean pushStream(OutboundStream stream) {
+            if (callStop || version < FrameCodec.VERSION_BINARY) {
+                Timber.i("Server 链路[" + getLogName() + "] 不支持流消息，流[" + stream.getUniq() + "]取消推送");
+                stream.close();
+                return false;
+            }
+            loop.execute(() -> {
+                if (callStop) {
+                    stream.close();
+                    return;
+                }
+                outboundStreams.offer(stream);
+                pumpStreams();
+            });
+            return true;
+        }
+
+        /**
+         * 发送队列的积压少于一段时，从正在发送的流里轮流读取下一段入队；
+         * 队列里最多只有一段，之后入队的心跳、回执和业务消息不会排在整条大消息后面
+         */
+        private void pumpStreams() {
+            while (!callStop && !outboundStreams.isEmpty() && outboundQueue.getPendingBytes() < OutboundStream.CHUNK_SIZE) {
+                OutboundStream stream = outboundStreams.poll();
+                offer(null, stream.next(BufferPool.direct()), OutboundQueue.POLICY_NEVER_DROP);
+                if (stream.isFinished()) {
+                    Timber.i("Server 链路[" + getLogName() + "] 流[" + stream.getUniq() + "]发送结束，共" + stream.getOffset() + "字节");
+                    stream.close();
+                } else {
+                    outboundStreams.offer(stream);
+                }
+            }
+        }
+
+        /**
+         * 链路断开后在事件循环线程里归还读缓冲、关闭正在发送的流、中止正在接收的流
          */
-        private void init() throws IOException {
-            in = client.getInputStream();
-            out = client.getOutputStream();
+        private void releaseInLoop() {
+            decoder.release();
+            OutboundStream stream;
+            while ((stream = outboundStreams.poll()) != null) {
+                stream.close();
+            }
+            inboundStreams.abortAll(receiver);
         }
 
         /**
-         * 通过当前链路推送消息
+         * 这条链路的去重窗口，只在事件循环线程里调用
          *
-         * @param msg String
+         * @return DedupWindow | 已注册的终端按名称共享，跨重连保留
          */
-        private void pushMsg(String msg) {
-            try {
-                synchronized (ClientHandler.this) {
-                    if (out != null) {
-                        byte[] infoByte = msg.getBytes();
-                        byte[] header = Util.integerToBytes(infoByte.length, 4);
-                        out.write(header);
-                        out.write(infoByte);
-                        out.flush();
-                    }
+        private DedupWindow dedupWindow() {
+            String key = clientKey;
+            if (TextUtils.isEmpty(key)) {
+                if (localDedup == null) {
+                    localDedup = new DedupWindow(dedupStats);
                 }
-            } catch (SocketException e) {
-                Timber.e(e);
-                callStop();
-            } catch (Exception e) {
-                Timber.e(e);
+                return localDedup;
+            }
+            DedupWindow window = dedupWindows.get(key);
+            if (window == null) {
+                DedupWindow created = new DedupWindow(dedupStats);
+                window = dedupWindows.putIfAbsent(key, created);
+                if (window == null) {
+                    window = created;
+                }
+            }
+            return window;
+        }
+
+        /**
+         * 链路的名称，未注册时为远端地址
+         *
+         * @return String
+         */
+        private String getTargetName() {
+            return !TextUtils.isEmpty(clientKey) ? clientKey : String.valueOf(address);
+        }
+
+        /**
+         * 关注可写事件，队列由空变为非空时才需要投递，避免每条消息都唤醒事件循环
+         */
+        private void scheduleFlush() {
+            SocketChannel channel = client;
+            if (channel != null && !flushScheduled.getAndSet(true)) {
+                loop.interestOps(channel, SelectionKey.OP_WRITE, true);
+            }
+        }
+
+        /**
+         * 通道可写时，把积压的消息聚合成尽量少的写调用
+         *
+         * @throws IOException
+         */
+        private void flush() throws IOException {
+            SocketChannel channel = client;
+            if (channel == null) {
+                return;
+            }
+            boolean drained = outboundQueue.writeTo(channel);
+            if (!outboundStreams.isEmpty()) {
+                pumpStreams();
+                drained = outboundQueue.isEmpty();
+            }
+            if (!drained) {
+                return;
+            }
+            flushScheduled.set(false);
+            loop.interestOps(channel, SelectionKey.OP_WRITE, false);
+            // 取消关注期间又有新消息入队
+            if (!outboundQueue.isEmpty()) {
+                scheduleFlush();
             }
         }
 
@@ -463,25 +1315,33 @@ class Server {
          * 结束链路，并注销掉Server的引用
          */
         private void callStop() {
-            callStop = true;
             unRegriserClient(this);
-            try {
-                if (in != null) {
-                    in.close();
-                }
-                if (out != null) {
-                    out.close();
+            synchronized (ClientHandler.this) {
+                if (!callStop) {
+                    loop.decrementLoad();
                 }
-                if (client != null) {
-                    client.close();
+                callStop = true;
+                try {
+                    if (client != null) {
+                        client.close();
+                    }
+                } catch (Exception e) {
+                    Timber.e(e);
                 }
-            } catch (Exception e) {
-                Timber.e(e);
+                client = null;
+                outboundQueue.clear();
+            }
+            // 读缓冲只能在事件循环线程里归还，避免正在读取时被其他链路租走
+            loop.execute(this::releaseInLoop);
+            TimingWheel.Timeout timeout = idleTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            ackTracker.completeAll(AckStatus.Disconnected);
+            RpcEndpoint temp = rpc;
+            if (temp != null) {
+                temp.failAll(this, new IOException("link closed"));
             }
-            in = null;
-            out = null;
-            client = null;
-            isFinished = true;
         }
 
         /**
@@ -490,12 +1350,12 @@ class Server {
          * @return String
          */
         private String getLogName() {
-            return clientKey + "," + (client != null ? client.getRemoteSocketAddress() : "");
+            return clientKey + "," + (address != null ? address : "");
         }
 
         @Override
         public String toString() {
-            return "[" + clientKey + "," + (client != null ? client.getRemoteSocketAddress() : "") + "]";
+            return "[" + clientKey + "," + (address != null ? address : "") + "]";
         }
     }
 }
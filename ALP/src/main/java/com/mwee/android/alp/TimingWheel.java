@@ -0,0 +1,260 @@
+package com.mwee.android.alp;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * @Description: 哈希时间轮，添加、取消、到期都是O(1)，到期精度为一个刻度；
+ * 到期任务在时间轮自己的线程上执行，任务里不能做耗时操作
+ * @author: Xiaolong
+ * @Date: 2018/10/12
+ */
+class TimingWheel {
+
+    /**
+     * 一个定时任务
+     */
+    static final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        /**
+         * 相对时间轮启动时间的到期时间
+         */
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+        /**
+         * 还需要转几圈才到期
+         */
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消任务
+         *
+         * @return boolean | false：任务已到期或已被取消
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            wheel.cancelledTimeouts.offer(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable e) {
+                Timber.e(e);
+            }
+        }
+    }
+
+    /**
+     * 时间轮的一格，双向链表，只在时间轮线程里访问
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        private void expireTimeouts() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    next = remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    next = remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final ConcurrentLinkedQueue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread workerThread;
+    private volatile boolean callFinish = false;
+    /**
+     * 已走过的刻度数，只在时间轮线程里访问
+     */
+    private long tick = 0;
+
+    /**
+     * @param name         String | 线程名称
+     * @param tickDuration long | 一个刻度的毫秒数
+     * @param ticksPerWheel int | 一圈的刻度数，会向上取整为2的幂
+     */
+    protected TimingWheel(String name, long tickDuration, int ticksPerWheel) {
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.tickDuration = tickDuration;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startTime = now();
+        workerThread = new Thread(this::work, name);
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    /**
+     * 添加定时任务
+     *
+     * @param task  Runnable
+     * @param delay long | 毫秒
+     * @return Timeout
+     */
+    public Timeout newTimeout(Runnable task, long delay) {
+        Timeout timeout = new Timeout(this, task, now() + Math.max(0, delay) - startTime);
+        pendingTimeouts.offer(timeout);
+        return timeout;
+    }
+
+    private void work() {
+        while (!callFinish) {
+            if (!waitForNextTick()) {
+                continue;
+            }
+            processCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expireTimeouts();
+            tick++;
+        }
+    }
+
+    /**
+     * 等待到下一个刻度
+     *
+     * @return boolean | false：时间轮已停止
+     */
+    private boolean waitForNextTick() {
+        long deadline = tickDuration * (tick + 1);
+        while (true) {
+            long sleepTime = deadline - (now() - startTime);
+            if (sleepTime <= 0) {
+                return true;
+            }
+            try {
+                Thread.sleep(sleepTime);
+            } catch (InterruptedException e) {
+                if (callFinish) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前时间，包含深度睡眠的时间，单元测试里没有Android时钟时覆盖
+     *
+     * @return long | 毫秒
+     */
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    private void transferPending() {
+        // 每个刻度最多转移的任务数，避免添加过快时时间轮线程一直在转移
+        for (int i = 0; i < 100000; i++) {
+            Timeout timeout = pendingTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long calculated = timeout.deadline / tickDuration;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            // 已经过期的任务放到当前刻度
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void processCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * 停止时间轮，未到期的任务不再执行
+     */
+    public void stop() {
+        callFinish = true;
+        workerThread.interrupt();
+    }
+}
@@ -0,0 +1,107 @@
+package com.mwee.android.alp;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Description: 主题到链路的倒排索引，订阅、取消订阅都是O(1)，链路断开时只处理它自己订阅的主题
+ * @author: Xiaolong
+ * @Date: 2018/10/14
+ */
+class TopicIndex<T> {
+    /**
+     * 主题和订阅链路的mapping，主题的集合不会因为没有订阅者而删除，避免和并发的订阅冲突
+     */
+    private final ConcurrentHashMap<String, Set<T>> topicLinks = new ConcurrentHashMap<>();
+    /**
+     * 链路和它订阅的主题的mapping
+     */
+    private final ConcurrentHashMap<T, Set<String>> linkTopics = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅
+     *
+     * @param topic String
+     * @param link  T
+     */
+    public void subscribe(String topic, T link) {
+        topicSet(link).add(topic);
+        linkSet(topic).add(link);
+    }
+
+    /**
+     * 取消订阅
+     *
+     * @param topic String
+     * @param link  T
+     */
+    public void unsubscribe(String topic, T link) {
+        Set<String> topics = linkTopics.get(link);
+        if (topics != null) {
+            topics.remove(topic);
+        }
+        Set<T> links = topicLinks.get(topic);
+        if (links != null) {
+            links.remove(link);
+        }
+    }
+
+    /**
+     * 链路断开，取消它所有的订阅
+     *
+     * @param link T
+     */
+    public void remove(T link) {
+        Set<String> topics = linkTopics.remove(link);
+        if (topics == null) {
+            return;
+        }
+        for (String topic : topics) {
+            Set<T> links = topicLinks.get(topic);
+            if (links != null) {
+                links.remove(link);
+            }
+        }
+    }
+
+    /**
+     * 主题的订阅者
+     *
+     * @param topic String
+     * @return Set | 没有订阅者时为空集合
+     */
+    public Set<T> subscribers(String topic) {
+        Set<T> links = topicLinks.get(topic);
+        return links == null ? Collections.<T>emptySet() : links;
+    }
+
+    public void clear() {
+        topicLinks.clear();
+        linkTopics.clear();
+    }
+
+    private Set<T> linkSet(String topic) {
+        Set<T> links = topicLinks.get(topic);
+        if (links == null) {
+            Set<T> created = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+            links = topicLinks.putIfAbsent(topic, created);
+            if (links == null) {
+                links = created;
+            }
+        }
+        return links;
+    }
+
+    private Set<String> topicSet(T link) {
+        Set<String> topics = linkTopics.get(link);
+        if (topics == null) {
+            Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            topics = linkTopics.putIfAbsent(link, created);
+            if (topics == null) {
+                topics = created;
+            }
+        }
+        return topics;
+    }
+}
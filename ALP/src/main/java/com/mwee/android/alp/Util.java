@@ -4,14 +4,10 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.text.TextUtils;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import timber.log.Timber;
 
 /**
  * @Description: 工具包
@@ -52,54 +48,4 @@ class Util {
     public static byte[] integerToBytes(int x, int len) {
         return ByteBuffer.allocate(len).order(ByteOrder.BIG_ENDIAN).putInt(x).array();
     }
-
-    public static int bytesToInteger(byte[] bytes) {
-        ByteBuffer wrapped = ByteBuffer.wrap(bytes);
-        return wrapped.getInt();
-    }
-
-    private static String getStringByByte(byte[] header) {
-        StringBuilder sb = new StringBuilder("[");
-        for (byte b : header) {
-            sb.append(String.format("0x%2x", b)).append(",");
-        }
-        if (sb.length() > 1) {
-            sb.deleteCharAt(sb.length() - 1);
-        }
-        sb.append("]");
-        return sb.toString();
-    }
-
-    public static String socketReader(InputStream in, byte[] header) throws IOException {
-        String originStr = getStringByByte(header);
-        //当断开链接的时候也会调用
-        int tempHead = in.read(header, 0, 4);
-        if (tempHead < 0) {
-            Timber.i("tempHead=" + tempHead);
-            return null;
-        }
-        int totalLength = bytesToInteger(header);
-        if (totalLength < 0) {
-
-            Timber.i("totalLength=" + totalLength + ";now=" + getStringByByte(header) + ";origin=" + originStr);
-            return null;
-        }
-        if (totalLength >= 10000000) {
-            return "2" + Configure.SYMBOL_SPLIT + "4" + Configure.SYMBOL_SPLIT;
-        }
-
-        byte[] content = new byte[totalLength];
-        int totalReadCount = 0;
-        int readCount;
-        while (totalLength > 0) {
-            readCount = in.read(content, totalReadCount, totalLength);
-            totalReadCount += readCount;
-            totalLength = totalLength - readCount;
-        }
-        String strRequest = new String(content);
-        if (TextUtils.isEmpty(strRequest)) {
-            strRequest = null;
-        }
-        return strRequest;
-    }
 }
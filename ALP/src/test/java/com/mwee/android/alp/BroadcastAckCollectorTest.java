@@ -0,0 +1,72 @@
+package com.mwee.android.alp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @Description: 广播回执汇总：所有链路都有结果后回调一次，同一链路只计第一次结果
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class BroadcastAckCollectorTest {
+
+    private static class RecordingAck extends BroadcastAck {
+        private final List<String> targets = new ArrayList<>();
+        private Map<String, Integer> results;
+        private int calls = 0;
+
+        @Override
+        public void targetCallback(String uniq, String target, int status) {
+            targets.add(target + "=" + status);
+        }
+
+        @Override
+        public void callback(String uniq, Map<String, Integer> results) {
+            this.results = results;
+            calls++;
+        }
+    }
+
+    @Test
+    public void callbackAfterAllTargets() {
+        RecordingAck ack = new RecordingAck();
+        BroadcastAckCollector collector = new BroadcastAckCollector("u-1", ack, 2);
+        collector.forTarget("pos1").callback("u-1", AckStatus.Success);
+        assertNull(ack.results);
+        collector.forTarget("pos2").callback("u-1", AckStatus.Timeout);
+        assertEquals(1, ack.calls);
+        assertEquals(2, ack.results.size());
+        assertEquals(AckStatus.Success, (int) ack.results.get("pos1"));
+        assertEquals(AckStatus.Timeout, (int) ack.results.get("pos2"));
+    }
+
+    @Test
+    public void repeatedResultCountsOnce() {
+        RecordingAck ack = new RecordingAck();
+        BroadcastAckCollector collector = new BroadcastAckCollector("u-1", ack, 2);
+        Ack pos1 = collector.forTarget("pos1");
+        // 回执和超时先后到达
+        pos1.callback("u-1", AckStatus.Success);
+        pos1.callback("u-1", AckStatus.Timeout);
+        assertNull(ack.results);
+        assertEquals("[pos1=" + AckStatus.Success + "]", ack.targets.toString());
+
+        collector.forTarget("pos2").callback("u-1", AckStatus.Success);
+        assertEquals(1, ack.calls);
+        assertEquals(AckStatus.Success, (int) ack.results.get("pos1"));
+    }
+
+    @Test
+    public void noTargetsCallsBackImmediately() {
+        RecordingAck ack = new RecordingAck();
+        new BroadcastAckCollector("u-1", ack, 0);
+        assertEquals(1, ack.calls);
+        assertEquals(0, ack.results.size());
+    }
+}
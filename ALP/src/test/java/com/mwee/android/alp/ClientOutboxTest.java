@@ -0,0 +1,141 @@
+package com.mwee.android.alp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 客户端待发信箱：按写入顺序补发、链路断开时保留、超出容量丢弃最旧的、重启后重新加载
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class ClientOutboxTest {
+
+    /**
+     * 记录发出的消息，发出limit条后相当于链路断开
+     */
+    private static class RecordingSender implements ClientOutbox.ISender {
+        private final List<String> sent = new ArrayList<>();
+        private final List<Ack> acks = new ArrayList<>();
+        private int limit = Integer.MAX_VALUE;
+
+        @Override
+        public boolean send(String uniq, byte[] payload, Ack ack) {
+            if (sent.size() >= limit) {
+                return false;
+            }
+            sent.add(uniq + "=" + new String(payload, Configure.UTF_8));
+            acks.add(ack);
+            return true;
+        }
+    }
+
+    /**
+     * 记录回执结果
+     */
+    private static class RecordingAck extends Ack {
+        private final List<Integer> statuses = new ArrayList<>();
+
+        @Override
+        public void callback(String uniq, int status) {
+            statuses.add(status);
+        }
+    }
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("client-outbox").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(Configure.UTF_8);
+    }
+
+    @Test
+    public void flushesInWriteOrder() {
+        ClientOutbox outbox = new ClientOutbox(dir, ClientOutbox.DEFAULT_CAPACITY);
+        RecordingAck ack = new RecordingAck();
+        outbox.offer("u-1", bytes("a"), ack);
+        outbox.offer(null, bytes("b"), null);
+        RecordingSender sender = new RecordingSender();
+        assertFalse(outbox.flushBatch(sender));
+        assertEquals("[u-1=a, null=b]", sender.sent.toString());
+        // 回执回调随消息交给发送方
+        assertSame(ack, sender.acks.get(0));
+        assertNull(sender.acks.get(1));
+        assertTrue(outbox.isEmpty());
+        assertEquals(2, outbox.metrics().getFlushed());
+    }
+
+    @Test
+    public void keepsMessagesWhenLinkDrops() {
+        ClientOutbox outbox = new ClientOutbox(dir, ClientOutbox.DEFAULT_CAPACITY);
+        outbox.offer("u-1", bytes("a"), null);
+        outbox.offer("u-2", bytes("b"), null);
+        outbox.offer("u-3", bytes("c"), null);
+        RecordingSender sender = new RecordingSender();
+        sender.limit = 1;
+        assertFalse(outbox.flushBatch(sender));
+        assertEquals(2, outbox.metrics().getDepth());
+
+        // 重新连接后从没有发出的消息继续
+        sender.limit = Integer.MAX_VALUE;
+        outbox.flushBatch(sender);
+        assertEquals("[u-1=a, u-2=b, u-3=c]", sender.sent.toString());
+    }
+
+    @Test
+    public void dropsOldestOverCapacity() {
+        ClientOutbox outbox = new ClientOutbox(dir, 2);
+        RecordingAck ack = new RecordingAck();
+        outbox.offer("u-1", bytes("a"), ack);
+        outbox.offer("u-2", bytes("b"), null);
+        outbox.offer("u-3", bytes("c"), null);
+        // 被丢弃的消息回调未知状态
+        assertEquals("[" + AckStatus.UnKnow + "]", ack.statuses.toString());
+        assertEquals(1, outbox.metrics().getDropped());
+        RecordingSender sender = new RecordingSender();
+        outbox.flushBatch(sender);
+        assertEquals("[u-2=b, u-3=c]", sender.sent.toString());
+    }
+
+    @Test
+    public void reloadsAfterRestart() {
+        ClientOutbox outbox = new ClientOutbox(dir, ClientOutbox.DEFAULT_CAPACITY);
+        outbox.offer("u-1", bytes("a"), new RecordingAck());
+        outbox.offer("u-2", bytes("b"), null);
+
+        ClientOutbox restarted = new ClientOutbox(dir, ClientOutbox.DEFAULT_CAPACITY);
+        restarted.load();
+        RecordingSender sender = new RecordingSender();
+        restarted.flushBatch(sender);
+        assertEquals("[u-1=a, u-2=b]", sender.sent.toString());
+        // 回执回调只在内存里，重启后不再回调
+        assertNull(sender.acks.get(0));
+    }
+}
@@ -0,0 +1,56 @@
+package com.mwee.android.alp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 去重窗口：按时间和条数淘汰，统计命中
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class DedupWindowTest {
+
+    @Test
+    public void duplicateWithinWindow() {
+        DedupWindow.Stats stats = new DedupWindow.Stats();
+        DedupWindow window = new DedupWindow(16, 1000, stats);
+        assertFalse(window.isDuplicate("a", 0));
+        assertFalse(window.isDuplicate("b", 10));
+        assertTrue(window.isDuplicate("a", 500));
+        assertEquals(3, stats.metrics().getChecked());
+        assertEquals(1, stats.metrics().getDuplicates());
+    }
+
+    @Test
+    public void expiresAfterWindow() {
+        DedupWindow window = new DedupWindow(16, 1000, new DedupWindow.Stats());
+        assertFalse(window.isDuplicate("a", 0));
+        assertTrue(window.isDuplicate("a", 1000));
+        assertFalse(window.isDuplicate("a", 1001));
+    }
+
+    @Test
+    public void evictsEldestOverCapacity() {
+        DedupWindow window = new DedupWindow(2, 1000, new DedupWindow.Stats());
+        assertFalse(window.isDuplicate("a", 0));
+        assertFalse(window.isDuplicate("b", 1));
+        assertFalse(window.isDuplicate("c", 2));
+        assertTrue(window.isDuplicate("c", 3));
+        assertFalse(window.isDuplicate("a", 4));
+    }
+
+    @Test
+    public void statsSharedAcrossWindows() {
+        DedupWindow.Stats stats = new DedupWindow.Stats();
+        DedupWindow first = new DedupWindow(stats);
+        DedupWindow second = new DedupWindow(stats);
+        first.isDuplicate("a", 0);
+        second.isDuplicate("a", 0);
+        second.isDuplicate("a", 1);
+        assertEquals(3, stats.metrics().getChecked());
+        assertEquals(1, stats.metrics().getDuplicates());
+    }
+}
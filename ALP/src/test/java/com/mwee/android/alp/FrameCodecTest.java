@@ -0,0 +1,165 @@
+package com.mwee.android.alp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 消息编解码：两种格式的往返、压缩、不合法和超长的消息头
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class FrameCodecTest {
+
+    /**
+     * 取出编码后的字节并归还缓冲
+     */
+    static byte[] toBytes(PooledBuffer frame) {
+        ByteBuffer buffer = frame.buffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        frame.release();
+        return bytes;
+    }
+
+    private static Frame decode(byte[] bytes) {
+        long length = FrameCodec.frameLength(bytes, 0, bytes.length);
+        assertEquals(bytes.length, length);
+        Frame frame = new Frame(FrameCodec.MAX_FRAME_LENGTH);
+        assertTrue(FrameCodec.decode(bytes, 0, bytes.length, frame));
+        return frame;
+    }
+
+    @Test
+    public void binaryRoundTrip() {
+        byte[] payload = "hello 你好".getBytes(Configure.UTF_8);
+        Frame frame = decode(toBytes(FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, "u-1", payload)));
+        assertEquals(Configure.MSG_TYPE_BIZ_NEED_ACK, frame.type);
+        assertEquals("u-1", frame.uniq());
+        assertArrayEquals(payload, frame.bytes());
+    }
+
+    @Test
+    public void legacyRoundTrip() {
+        Frame frame = decode(toBytes(FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_LEGACY, null, "hello 你好")));
+        assertEquals(Configure.MSG_TYPE_BIZ, frame.type);
+        assertNull(frame.uniq());
+        assertEquals("hello 你好", frame.value());
+    }
+
+    @Test
+    public void innerRoundTrip() {
+        for (int version = FrameCodec.VERSION_LEGACY; version <= FrameCodec.VERSION_BINARY; version++) {
+            Frame frame = decode(toBytes(FrameCodec.encodeInner(BufferPool.heap(), version, Configure.KEY_HEART, "ping")));
+            assertEquals(Configure.MSG_TYPE_INNER, frame.type);
+            assertEquals(Configure.KEY_HEART, frame.key);
+            assertEquals("ping", frame.value());
+        }
+    }
+
+    @Test
+    public void deflatedRoundTrip() {
+        byte[] payload = new byte[32 * 1024];
+        Arrays.fill(payload, (byte) 'a');
+        byte[] deflated = FrameCodec.deflate(payload);
+        assertTrue(deflated != null && deflated.length < payload.length);
+        Frame frame = decode(toBytes(FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, null, deflated, true)));
+        assertTrue(frame.compressed);
+        assertArrayEquals(payload, frame.bytes());
+    }
+
+    @Test
+    public void channelByType() {
+        PooledBuffer small = FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, null, new byte[10]);
+        PooledBuffer large = FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, null, new byte[256 * 1024]);
+        PooledBuffer legacy = FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_LEGACY, null, new byte[256 * 1024]);
+        PooledBuffer seq = FrameCodec.encodeSeqHeader(BufferPool.heap(), FrameCodec.VERSION_BINARY, 1, 256 * 1024, false);
+        // 业务消息不论大小都在同一个通道里，带序号的消息不会互相超越
+        assertEquals(FrameCodec.CHANNEL_NORMAL, FrameCodec.channelOf(small.buffer()));
+        assertEquals(FrameCodec.CHANNEL_NORMAL, FrameCodec.channelOf(large.buffer()));
+        assertEquals(FrameCodec.CHANNEL_NORMAL, FrameCodec.channelOf(legacy.buffer()));
+        assertEquals(FrameCodec.CHANNEL_NORMAL, FrameCodec.channelOf(seq.buffer()));
+        for (PooledBuffer frame : new PooledBuffer[]{small, large, legacy, seq}) {
+            frame.release();
+        }
+        PooledBuffer inner = FrameCodec.encodeInner(BufferPool.heap(), FrameCodec.VERSION_LEGACY, Configure.KEY_HEART, "");
+        assertEquals(FrameCodec.CHANNEL_CONTROL, FrameCodec.channelOf(inner.buffer()));
+        inner.release();
+        PooledBuffer needAck = FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, "u-1", new byte[10]);
+        assertEquals(FrameCodec.CHANNEL_URGENT, FrameCodec.channelOf(needAck.buffer()));
+        needAck.release();
+    }
+
+    @Test
+    public void incompleteHeaderNeedsMore() {
+        byte[] bytes = toBytes(FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, "u-1", new byte[300]));
+        for (int limit = 0; limit < 5; limit++) {
+            assertEquals(FrameCodec.NEED_MORE, FrameCodec.frameLength(bytes, 0, limit));
+        }
+        byte[] legacy = {0, 0, 1};
+        assertEquals(FrameCodec.NEED_MORE, FrameCodec.frameLength(legacy, 0, legacy.length));
+    }
+
+    @Test
+    public void negativeLengthIsMalformed() {
+        byte[] bytes = {(byte) 0xA2, 1, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1};
+        assertEquals(FrameCodec.MALFORMED, FrameCodec.frameLength(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void lengthBeyondIntIsMalformed() {
+        byte[] bytes = {(byte) 0xA2, 1, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F};
+        assertEquals(FrameCodec.MALFORMED, FrameCodec.frameLength(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void legacyZeroLengthIsMalformed() {
+        byte[] bytes = {0, 0, 0, 0};
+        assertEquals(FrameCodec.MALFORMED, FrameCodec.frameLength(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void uniqLongerThanFrameIsRejected() {
+        // 消息id声明100字节，整条消息只有3字节
+        byte[] bytes = {(byte) 0xA2, 1, 1, 0, 3, 100, 'a', 'b'};
+        long length = FrameCodec.frameLength(bytes, 0, bytes.length);
+        assertEquals(bytes.length, length);
+        assertFalse(FrameCodec.decode(bytes, 0, (int) length, new Frame(100)));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void inflateStopsAtMaxLength() throws DataFormatException {
+        byte[] deflated = FrameCodec.deflate(new byte[1024 * 1024]);
+        FrameCodec.inflate(deflated, 0, deflated.length, 64 * 1024);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void oversizeInflatedBodyFailsOnRead() {
+        byte[] deflated = FrameCodec.deflate(new byte[1024 * 1024]);
+        byte[] bytes = toBytes(FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, null, deflated, true));
+        Frame frame = new Frame(64 * 1024);
+        assertTrue(FrameCodec.decode(bytes, 0, bytes.length, frame));
+        frame.bytes();
+    }
+
+    @Test
+    public void oversizeText() {
+        assertFalse(FrameCodec.isOversize(null));
+        assertFalse(FrameCodec.isOversize("short"));
+        char[] chars = new char[FrameCodec.MAX_PAYLOAD_LENGTH / 2];
+        Arrays.fill(chars, '中');
+        // 每个字符编码后3个字节
+        assertTrue(FrameCodec.isOversize(new String(chars)));
+        Arrays.fill(chars, 'a');
+        assertFalse(FrameCodec.isOversize(new String(chars)));
+    }
+}
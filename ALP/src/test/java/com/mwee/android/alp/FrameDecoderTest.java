@@ -0,0 +1,146 @@
+package com.mwee.android.alp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @Description: 增量解码：任意切分的读取、不合法的消息、超长的消息
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class FrameDecoderTest {
+
+    /**
+     * 每次最多读出固定字节数的通道
+     */
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private final int chunk;
+        private int position = 0;
+
+        private ChunkedChannel(byte[] data, int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int length = Math.min(Math.min(chunk, dst.remaining()), data.length - position);
+            dst.put(data, position, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private FrameDecoder decoder;
+
+    @After
+    public void tearDown() {
+        if (decoder != null) {
+            decoder.release();
+        }
+    }
+
+    private static byte[] concat(byte[]... frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            out.write(frame, 0, frame.length);
+        }
+        return out.toByteArray();
+    }
+
+    private List<byte[]> readAll(ReadableByteChannel channel) throws IOException {
+        List<byte[]> bodies = new ArrayList<>();
+        while (decoder.readFrom(channel) >= 0) {
+            Frame frame;
+            while ((frame = decoder.next()) != null) {
+                bodies.add(frame.bytes());
+            }
+        }
+        return bodies;
+    }
+
+    private static byte[] biz(int version, String uniq, byte[] payload) {
+        return FrameCodecTest.toBytes(FrameCodec.encodeBiz(BufferPool.heap(), version, uniq, payload));
+    }
+
+    @Test
+    public void partialReads() throws IOException {
+        byte[] small = "small".getBytes(Configure.UTF_8);
+        byte[] large = new byte[10 * 1024];
+        Arrays.fill(large, (byte) 7);
+        byte[] data = concat(biz(FrameCodec.VERSION_BINARY, "u-1", small),
+                biz(FrameCodec.VERSION_BINARY, null, large),
+                biz(FrameCodec.VERSION_LEGACY, null, small));
+        for (int chunk : new int[]{1, 3, 7, 1000, data.length}) {
+            decoder = new FrameDecoder(16, FrameCodec.MAX_FRAME_LENGTH);
+            List<byte[]> bodies = readAll(new ChunkedChannel(data, chunk));
+            assertEquals("chunk " + chunk, 3, bodies.size());
+            assertArrayEquals(small, bodies.get(0));
+            assertArrayEquals(large, bodies.get(1));
+            assertArrayEquals(small, bodies.get(2));
+            decoder.release();
+            decoder = null;
+        }
+    }
+
+    @Test
+    public void invalidFrameIsSkipped() throws IOException {
+        // 消息id的长度超出消息，解码失败后跳过这一条
+        byte[] invalid = {(byte) 0xA2, 1, 1, 0, 3, 100, 'a', 'b'};
+        byte[] valid = "next".getBytes(Configure.UTF_8);
+        decoder = new FrameDecoder(16, FrameCodec.MAX_FRAME_LENGTH);
+        List<byte[]> bodies = readAll(new ChunkedChannel(concat(invalid, biz(FrameCodec.VERSION_BINARY, null, valid)), 5));
+        assertEquals(1, bodies.size());
+        assertArrayEquals(valid, bodies.get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedHeaderFails() throws IOException {
+        decoder = new FrameDecoder(16, FrameCodec.MAX_FRAME_LENGTH);
+        readAll(new ChunkedChannel(new byte[]{0, 0, 0, 0, 1}, 16));
+    }
+
+    @Test
+    public void oversizeFrameFails() throws IOException {
+        decoder = new FrameDecoder(16, 100);
+        byte[] data = concat(biz(FrameCodec.VERSION_BINARY, null, new byte[10]), biz(FrameCodec.VERSION_BINARY, null, new byte[200]));
+        ChunkedChannel channel = new ChunkedChannel(data, 8);
+        int decoded = 0;
+        try {
+            while (decoder.readFrom(channel) >= 0) {
+                while (decoder.next() != null) {
+                    decoded++;
+                }
+            }
+            fail("oversize frame accepted");
+        } catch (IOException e) {
+            // 超长的消息之前的消息正常解码，不会被当成心跳
+            assertEquals(1, decoded);
+        }
+    }
+}
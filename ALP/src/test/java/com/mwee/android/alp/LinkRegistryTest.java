@@ -0,0 +1,89 @@
+package com.mwee.android.alp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 链路注册表：名称绑定的替换和解除、快照复用
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class LinkRegistryTest {
+    private LinkRegistry<String> registry;
+
+    @Before
+    public void setUp() {
+        registry = new LinkRegistry<>(new String[0]);
+    }
+
+    @Test
+    public void bindReturnsReplacedLink() {
+        registry.add("link1");
+        registry.add("link2");
+        assertNull(registry.bind("pos", "link1"));
+        // 同一条链路重复注册不算替换
+        assertNull(registry.bind("pos", "link1"));
+        assertEquals("link1", registry.bind("pos", "link2"));
+        assertEquals("link2", registry.get("pos"));
+    }
+
+    @Test
+    public void oldLinkDoesNotUnbindNewLink() {
+        registry.add("link1");
+        registry.bind("pos", "link1");
+        registry.add("link2");
+        registry.bind("pos", "link2");
+        // 旧链路断开时名称已经指向新链路
+        registry.remove("link1", "pos");
+        assertEquals("link2", registry.get("pos"));
+        registry.remove("link2", "pos");
+        assertFalse(registry.containsKey("pos"));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void nullKeysAreIgnored() {
+        registry.add("link1");
+        assertNull(registry.bind(null, "link1"));
+        assertNull(registry.get(null));
+        assertFalse(registry.containsKey(null));
+        registry.remove("link1", null);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void snapshotReusedUntilLinksChange() {
+        registry.add("link1");
+        registry.add("link2");
+        String[] first = registry.snapshot();
+        assertSame(first, registry.snapshot());
+        // 只改变名称绑定不影响快照
+        registry.bind("pos", "link1");
+        assertSame(first, registry.snapshot());
+
+        registry.add("link3");
+        String[] second = registry.snapshot();
+        assertNotSame(first, second);
+        Arrays.sort(second);
+        assertEquals("[link1, link2, link3]", Arrays.toString(second));
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        registry.add("link1");
+        registry.bind("pos", "link1");
+        registry.snapshot();
+        registry.clear();
+        assertEquals(0, registry.snapshot().length);
+        assertTrue(registry.keySet().isEmpty());
+    }
+}
@@ -0,0 +1,150 @@
+package com.mwee.android.alp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 离线信箱：按顺序分批补发、收到回执后才消费、补发期间的新消息排在后面
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class OfflineMailboxTest {
+
+    /**
+     * 一次投递
+     */
+    private static class Delivery {
+        private final List<String> uniqs;
+        private final List<byte[]> batch;
+        private final OfflineMailbox.IDelivered delivered;
+
+        private Delivery(List<String> uniqs, List<byte[]> batch, OfflineMailbox.IDelivered delivered) {
+            this.uniqs = uniqs;
+            this.batch = batch;
+            this.delivered = delivered;
+        }
+
+        private String text() {
+            StringBuilder builder = new StringBuilder();
+            for (byte[] payload : batch) {
+                builder.append(builder.length() == 0 ? "" : ",").append(new String(payload, Configure.UTF_8));
+            }
+            return builder.toString();
+        }
+    }
+
+    private final LinkedBlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+    private final OfflineMailbox.IDeliver deliver = (uniqs, batch, delivered) -> deliveries.offer(new Delivery(uniqs, batch, delivered));
+    private File dir;
+    private OfflineMailbox mailbox;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("mailbox").toFile();
+        mailbox = new OfflineMailbox(dir, 100, 0);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mailbox.close();
+        // 等信箱线程关闭文件后再删除
+        Thread.sleep(100);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(Configure.UTF_8);
+    }
+
+    private Delivery next() throws InterruptedException {
+        Delivery delivery = deliveries.poll(2, TimeUnit.SECONDS);
+        assertNotNull("no delivery", delivery);
+        return delivery;
+    }
+
+    /**
+     * 等信箱线程处理完之前提交的任务：信箱线程按提交顺序执行，补发另一个名称的消息作为标记
+     */
+    private void flush() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mailbox.offer("flush", bytes("flush"));
+        mailbox.replay("flush", (uniqs, batch, delivered) -> {
+            latch.countDown();
+            delivered.onDelivered(true);
+        });
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void replaysInOrderAndFinishes() throws InterruptedException {
+        mailbox.offer("pos", bytes("1"));
+        mailbox.offer("pos", bytes("2"));
+        mailbox.offer("other", bytes("x"));
+        mailbox.replay("pos", deliver);
+        Delivery first = next();
+        assertEquals("1,2", first.text());
+        assertEquals(2, first.uniqs.size());
+        assertTrue(first.uniqs.get(0).startsWith("mailbox_"));
+
+        // 补发期间的新消息排在离线消息后面，等这一批确认后再发
+        assertTrue(mailbox.offerIfReplaying("pos", bytes("3")));
+        assertFalse(mailbox.offerIfReplaying("idle", bytes("y")));
+        flush();
+        assertTrue(deliveries.isEmpty());
+
+        first.delivered.onDelivered(true);
+        Delivery second = next();
+        assertEquals("3", second.text());
+        second.delivered.onDelivered(true);
+        flush();
+        // 信箱清空后恢复直接推送
+        assertFalse(mailbox.offerIfReplaying("pos", bytes("4")));
+    }
+
+    @Test
+    public void failedBatchIsKept() throws InterruptedException {
+        mailbox.offer("pos", bytes("1"));
+        mailbox.replay("pos", deliver);
+        Delivery first = next();
+        first.delivered.onDelivered(false);
+        flush();
+        assertFalse(mailbox.offerIfReplaying("pos", bytes("2")));
+
+        // 下次注册时同样的消息用同样的id重发，终端据此去重
+        mailbox.replay("pos", deliver);
+        Delivery again = next();
+        assertEquals("1", again.text());
+        assertEquals(first.uniqs, again.uniqs);
+    }
+
+    @Test
+    public void oldestDroppedOverCapacity() throws InterruptedException {
+        mailbox.close();
+        mailbox = new OfflineMailbox(dir, 2, 0);
+        mailbox.offer("pos", bytes("1"));
+        mailbox.offer("pos", bytes("2"));
+        mailbox.offer("pos", bytes("3"));
+        mailbox.replay("pos", deliver);
+        assertEquals("2,3", next().text());
+    }
+}
@@ -0,0 +1,263 @@
+package com.mwee.android.alp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 发送队列：积压处理策略、水位和写出顺序
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class OutboundQueueTest {
+    private static final int LOW = 1000;
+    private static final int HIGH = 4000;
+
+    /**
+     * 收集写出的字节，最多写出budget字节，之后相当于发送缓冲已满
+     */
+    private static class CollectingChannel implements GatheringByteChannel {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private long budget = Long.MAX_VALUE;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long written = 0;
+            for (int i = offset; i < offset + length && written < budget; i++) {
+                while (srcs[i].hasRemaining() && written < budget) {
+                    out.write(srcs[i].get());
+                    written++;
+                }
+            }
+            budget -= written;
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final List<Boolean> changes = new ArrayList<>();
+    private OutboundQueue queue;
+
+    @Before
+    public void setUp() {
+        changes.clear();
+        queue = new OutboundQueue(LOW, HIGH, changes::add);
+    }
+
+    /**
+     * 业务消息，第一个字节标记是第几条
+     */
+    private static PooledBuffer biz(int mark, int length) {
+        byte[] payload = new byte[length];
+        payload[0] = (byte) mark;
+        return FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, null, payload);
+    }
+
+    private int offer(PooledBuffer frame, int policy, String conflateKey) {
+        return queue.offer(null, frame.buffer(), frame, policy, conflateKey);
+    }
+
+    /**
+     * 写出全部消息，返回按写出顺序排列的标记
+     */
+    private List<Integer> drain() throws IOException {
+        CollectingChannel channel = new CollectingChannel();
+        assertTrue(queue.writeTo(channel));
+        return marks(channel.out.toByteArray());
+    }
+
+    /**
+     * 解码写出的字节，返回每条消息的标记，内部链路消息为-1
+     */
+    private static List<Integer> marks(byte[] bytes) {
+        List<Integer> marks = new ArrayList<>();
+        Frame frame = new Frame(FrameCodec.MAX_FRAME_LENGTH);
+        int start = 0;
+        while (start < bytes.length) {
+            int end = start + (int) FrameCodec.frameLength(bytes, start, bytes.length);
+            assertTrue(FrameCodec.decode(bytes, start, end, frame));
+            marks.add(Configure.MSG_TYPE_INNER.equals(frame.type) ? -1 : (int) frame.bytes()[0]);
+            start = end;
+        }
+        return marks;
+    }
+
+    @Test
+    public void resumesPartialWritesInOrder() throws IOException {
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(i, 500), OverflowPolicy.DropNewest));
+        }
+        CollectingChannel channel = new CollectingChannel();
+        // 发送缓冲满时写了一半的消息留在队头，下次从断点继续
+        for (int round = 0; round < 3; round++) {
+            channel.budget = 700;
+            assertFalse(queue.writeTo(channel));
+        }
+        channel.budget = Long.MAX_VALUE;
+        assertTrue(queue.writeTo(channel));
+        assertTrue(queue.isEmpty());
+        assertEquals("[1, 2, 3, 4, 5]", marks(channel.out.toByteArray()).toString());
+    }
+
+    @Test
+    public void dropNewestOverHighWatermark() throws IOException {
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(1, 1500), OverflowPolicy.DropNewest));
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(2, 1500), OverflowPolicy.DropNewest));
+        assertEquals(OutboundQueue.OFFER_DROPPED, queue.offer(biz(3, 1500), OverflowPolicy.DropNewest));
+        assertEquals(2, queue.size());
+        assertEquals("[1, 2]", drain().toString());
+    }
+
+    @Test
+    public void disconnectOverHighWatermark() {
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(1, 3000), OverflowPolicy.Disconnect));
+        assertEquals(OutboundQueue.OFFER_DISCONNECT, queue.offer(biz(2, 3000), OverflowPolicy.Disconnect));
+    }
+
+    @Test
+    public void dropOldestAcrossChannels() throws IOException {
+        queue = new OutboundQueue(LOW, 100 * 1024, changes::add);
+        // 普通消息先入队，之后是进入低优先级通道的流消息
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(1, 20 * 1024), OverflowPolicy.DropOldest));
+        PooledBuffer chunk = FrameCodec.encodeChunk(BufferPool.heap(), 1, null, 2, new byte[64 * 1024], 64 * 1024, false, false);
+        assertEquals(FrameCodec.CHANNEL_BULK, FrameCodec.channelOf(chunk.buffer()));
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(chunk, OverflowPolicy.DropOldest));
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(3, 20 * 1024), OverflowPolicy.DropOldest));
+        // 最旧的是第1条，不是低优先级通道里的第2条
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(4, 10 * 1024), OverflowPolicy.DropOldest));
+        List<Integer> marks = drain();
+        assertEquals(3, marks.size());
+        assertFalse(marks.contains(1));
+    }
+
+    @Test
+    public void dropOldestKeepsNeverDrop() throws IOException {
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(1, 3000), OutboundQueue.POLICY_NEVER_DROP));
+        // 能丢弃的消息不够时新消息被丢弃
+        assertEquals(OutboundQueue.OFFER_DROPPED, queue.offer(biz(2, 2000), OverflowPolicy.DropOldest));
+        assertEquals("[1]", drain().toString());
+    }
+
+    @Test
+    public void trackedFramesAreNeverEvicted() throws IOException {
+        byte[] payload = new byte[1500];
+        payload[0] = 1;
+        assertEquals(OutboundQueue.OFFER_OK, offer(FrameCodec.encodeBiz(BufferPool.heap(), FrameCodec.VERSION_BINARY, "uniq", payload),
+                OverflowPolicy.DropOldest, null));
+        payload[0] = 2;
+        PooledBuffer header = FrameCodec.encodeSeqHeader(BufferPool.heap(), FrameCodec.VERSION_BINARY, 1, payload.length, false);
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(header, ByteBuffer.wrap(payload.clone()), null, OverflowPolicy.Conflate, null));
+        // 需要回执和带序号的消息丢弃后对方无法察觉，只能拒绝新消息
+        assertEquals(OutboundQueue.OFFER_DROPPED, queue.offer(biz(3, 1500), OverflowPolicy.DropOldest));
+        assertEquals(OutboundQueue.OFFER_DROPPED, offer(biz(4, 1500), OverflowPolicy.Conflate, null));
+        assertEquals("[1, 2]", drain().toString());
+    }
+
+    @Test
+    public void dropOldestRejectsFrameAboveHighWatermark() throws IOException {
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(1, 1000), OverflowPolicy.DropOldest));
+        assertEquals(OutboundQueue.OFFER_DROPPED, queue.offer(biz(2, HIGH + 1), OverflowPolicy.DropOldest));
+        // 放不下的消息不会让已有的消息被丢弃
+        assertEquals("[1]", drain().toString());
+    }
+
+    @Test
+    public void emptyQueueAcceptsFrameAboveHighWatermark() throws IOException {
+        int[] policies = {OverflowPolicy.DropNewest, OverflowPolicy.DropOldest, OverflowPolicy.Conflate, OverflowPolicy.Disconnect};
+        for (int policy : policies) {
+            setUp();
+            assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(1, HIGH + 1), policy));
+            assertEquals("[false]", changes.toString());
+            assertEquals("[1]", drain().toString());
+        }
+        // 队列不空以后照常按策略处理
+        setUp();
+        assertEquals(OutboundQueue.OFFER_OK, queue.offer(biz(1, HIGH + 1), OverflowPolicy.DropNewest));
+        assertEquals(OutboundQueue.OFFER_DROPPED, queue.offer(biz(2, 100), OverflowPolicy.DropNewest));
+        assertEquals(OutboundQueue.OFFER_DISCONNECT, queue.offer(biz(3, 100), OverflowPolicy.Disconnect));
+    }
+
+    @Test
+    public void conflateByKey() throws IOException {
+        assertEquals(OutboundQueue.OFFER_OK, offer(biz(1, 1200), OverflowPolicy.Conflate, "a"));
+        assertEquals(OutboundQueue.OFFER_OK, offer(biz(2, 1200), OverflowPolicy.Conflate, "b"));
+        assertEquals(OutboundQueue.OFFER_OK, offer(biz(3, 1200), OverflowPolicy.Conflate, "a"));
+        assertEquals(OutboundQueue.OFFER_OK, offer(biz(4, 1200), OverflowPolicy.Conflate, "a"));
+        assertEquals("[2, 4]", drain().toString());
+    }
+
+    @Test
+    public void conflateWithoutSameKeyIsDropped() throws IOException {
+        assertEquals(OutboundQueue.OFFER_OK, offer(biz(1, 1800), OverflowPolicy.Conflate, "a"));
+        assertEquals(OutboundQueue.OFFER_OK, offer(biz(2, 1800), OverflowPolicy.Conflate, "b"));
+        assertEquals(OutboundQueue.OFFER_DROPPED, offer(biz(3, 1800), OverflowPolicy.Conflate, "c"));
+        assertEquals("[1, 2]", drain().toString());
+    }
+
+    @Test
+    public void controlFramesFirst() throws IOException {
+        queue.offer(biz(1, 100), OverflowPolicy.DropNewest);
+        queue.offer(biz(2, 100), OverflowPolicy.DropNewest);
+        queue.offer(FrameCodec.encodeInner(BufferPool.heap(), FrameCodec.VERSION_BINARY, Configure.KEY_HEART, ""), OutboundQueue.POLICY_NEVER_DROP);
+        assertEquals("[-1, 1, 2]", drain().toString());
+    }
+
+    @Test
+    public void writabilityFollowsWatermarks() throws IOException {
+        queue.offer(biz(1, 3000), OutboundQueue.POLICY_NEVER_DROP);
+        assertTrue(queue.isWritable());
+        queue.offer(biz(2, 3000), OutboundQueue.POLICY_NEVER_DROP);
+        assertFalse(queue.isWritable());
+        assertEquals("[false]", changes.toString());
+
+        CollectingChannel channel = new CollectingChannel();
+        channel.budget = 2000;
+        assertFalse(queue.writeTo(channel));
+        // 仍高于低水位
+        assertFalse(queue.isWritable());
+        channel.budget = Long.MAX_VALUE;
+        assertTrue(queue.writeTo(channel));
+        assertTrue(queue.isWritable());
+        assertEquals("[false, true]", changes.toString());
+        assertEquals(0, queue.getPendingBytes());
+    }
+
+    @Test
+    public void clearRestoresWritable() {
+        queue.offer(biz(1, 5000), OutboundQueue.POLICY_NEVER_DROP);
+        assertFalse(queue.isWritable());
+        queue.clear();
+        assertTrue(queue.isWritable());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.getPendingBytes());
+        assertEquals("[false, true]", changes.toString());
+    }
+}
@@ -0,0 +1,63 @@
+package com.mwee.android.alp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 重连退避：指数增长、上限、随机区间和重置
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class ReconnectBackoffTest {
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value + " not in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+
+    @Test
+    public void growsExponentiallyUpToCap() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 60 * 1000);
+        long[] intervals = {1000, 2000, 4000, 8000, 16000, 32000, 60000, 60000};
+        for (long interval : intervals) {
+            assertBetween(interval / 2, interval, backoff.nextDelay());
+        }
+        assertEquals(intervals.length, backoff.getAttempts());
+    }
+
+    @Test
+    public void manyAttemptsDoNotOverflow() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        for (int i = 0; i < 100; i++) {
+            assertBetween(0, ReconnectBackoff.DEFAULT_CAP, backoff.nextDelay());
+        }
+        assertBetween(ReconnectBackoff.DEFAULT_CAP / 2, ReconnectBackoff.DEFAULT_CAP, backoff.nextDelay());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 60 * 1000);
+        for (int i = 0; i < 5; i++) {
+            backoff.nextDelay();
+        }
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertBetween(500, 1000, backoff.nextDelay());
+    }
+
+    @Test
+    public void delaysAreSpread() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 60 * 1000);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 200; i++) {
+            backoff.reset();
+            long delay = backoff.nextDelay();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        // 同一时刻断开的终端不会在同一时刻重连
+        assertTrue(max - min > 100);
+    }
+}
@@ -0,0 +1,109 @@
+package com.mwee.android.alp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 会话：序号分配、环形缓冲淘汰后能否恢复、按序号补发和离线过期
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class ResumeSessionTest {
+    private ResumeSession session;
+
+    @Before
+    public void setUp() {
+        session = new ResumeSession();
+    }
+
+    private static ByteBuffer body(int length) {
+        return ByteBuffer.allocate(length).asReadOnlyBuffer();
+    }
+
+    private List<Long> replayedAfter(long seq) {
+        final List<Long> seqs = new ArrayList<>();
+        session.replayAfter(seq, (s, body) -> {
+            seqs.add(s);
+            return true;
+        });
+        return seqs;
+    }
+
+    @Test
+    public void sequencesIncrease() {
+        assertEquals(1, session.append(body(10)));
+        assertEquals(2, session.append(body(10)));
+        assertEquals(2, session.getLastSeq());
+    }
+
+    @Test
+    public void replaysAfterLastReceived() {
+        for (int i = 0; i < 5; i++) {
+            session.append(body(10));
+        }
+        assertTrue(session.canResumeFrom(0));
+        assertTrue(session.canResumeFrom(5));
+        assertEquals("[4, 5]", replayedAfter(3).toString());
+        assertTrue(replayedAfter(5).isEmpty());
+    }
+
+    @Test
+    public void cannotResumeUnknownSequence() {
+        session.append(body(10));
+        // 终端的序号比服务端新，说明服务端的会话已经重建
+        assertFalse(session.canResumeFrom(2));
+        assertFalse(session.canResumeFrom(-1));
+    }
+
+    @Test
+    public void evictedMessagesCannotBeResumed() {
+        // 超过条数上限后最旧的消息被淘汰
+        for (int i = 0; i < 300; i++) {
+            session.append(body(10));
+        }
+        assertFalse(session.canResumeFrom(0));
+        assertFalse(session.canResumeFrom(43));
+        assertTrue(session.canResumeFrom(44));
+        assertEquals(256, replayedAfter(0).size());
+    }
+
+    @Test
+    public void evictedByBytes() {
+        session.append(body(600 * 1024));
+        session.append(body(600 * 1024));
+        // 超过1M后淘汰第1条
+        assertFalse(session.canResumeFrom(0));
+        assertTrue(session.canResumeFrom(1));
+        assertEquals("[2]", replayedAfter(0).toString());
+    }
+
+    @Test
+    public void visitorStopsReplay() {
+        for (int i = 0; i < 5; i++) {
+            session.append(body(10));
+        }
+        final List<Long> seqs = new ArrayList<>();
+        session.replayAfter(0, (seq, body) -> {
+            seqs.add(seq);
+            return seq < 2;
+        });
+        assertEquals("[1, 2]", seqs.toString());
+    }
+
+    @Test
+    public void expiresAfterLastUse() {
+        session.touch(1000);
+        assertFalse(session.isExpired(5000, 10000));
+        assertTrue(session.isExpired(12000, 10000));
+        session.touch(12000);
+        assertFalse(session.isExpired(12000, 10000));
+    }
+}
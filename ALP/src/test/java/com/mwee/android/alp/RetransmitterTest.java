@@ -0,0 +1,147 @@
+package com.mwee.android.alp;
+
+import android.os.Handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 自动重发：重发次数用完后失败、按提交顺序重发、只处理最近一次发送的回执；
+ * 单元测试里Handler不执行任务，时钟停在0，用{@link Retransmitter#linkUp()}立即重发到期的消息
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class RetransmitterTest {
+
+    /**
+     * 记录回调结果的回执
+     */
+    private static class RecordingAck extends Ack {
+        private final List<Integer> statuses = new ArrayList<>();
+
+        @Override
+        public void callback(String uniq, int status) {
+            statuses.add(status);
+        }
+    }
+
+    private final List<String> sent = new ArrayList<>();
+    private final List<Ack> sentAcks = new ArrayList<>();
+    private boolean connected = true;
+    private int drained = 0;
+    private TimingWheel wheel;
+    private Retransmitter retransmitter;
+
+    @Before
+    public void setUp() {
+        wheel = new TimingWheel("RetransmitterTest", 100, 8) {
+            @Override
+            long now() {
+                return System.nanoTime() / 1000000;
+            }
+        };
+        retransmitter = create(new RetryPolicy(3, 0));
+    }
+
+    @After
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    private Retransmitter create(RetryPolicy policy) {
+        AckManage ackManage = new AckManage(wheel, Runnable::run);
+        return new Retransmitter(policy, ackManage, new Handler(), (uniq, payload, ack) -> {
+            if (!connected) {
+                return false;
+            }
+            sent.add(uniq);
+            sentAcks.add(ack);
+            return true;
+        }, () -> drained++);
+    }
+
+    private Ack lastAck() {
+        return sentAcks.get(sentAcks.size() - 1);
+    }
+
+    @Test
+    public void failsAfterRetryBudget() {
+        RecordingAck userAck = new RecordingAck();
+        Ack ack = retransmitter.track("u1", new byte[1], userAck);
+        for (int i = 0; i < 3; i++) {
+            ack.callback("u1", AckStatus.Timeout);
+            assertTrue(retransmitter.hasDue());
+            retransmitter.linkUp();
+            assertEquals(i + 1, sent.size());
+            ack = lastAck();
+        }
+        ack.callback("u1", AckStatus.Timeout);
+        assertEquals("[" + AckStatus.Failed + "]", userAck.statuses.toString());
+        assertEquals(0, retransmitter.size());
+        assertFalse(retransmitter.hasDue());
+    }
+
+    @Test
+    public void successFinishesAndIgnoresStaleAcks() {
+        RecordingAck userAck = new RecordingAck();
+        Ack first = retransmitter.track("u1", new byte[1], userAck);
+        first.callback("u1", AckStatus.Timeout);
+        retransmitter.linkUp();
+        // 第一次发送迟到的结果不再处理
+        first.callback("u1", AckStatus.Success);
+        assertEquals(0, userAck.statuses.size());
+        lastAck().callback("u1", AckStatus.Success);
+        assertEquals("[" + AckStatus.Success + "]", userAck.statuses.toString());
+        assertEquals(0, retransmitter.size());
+    }
+
+    @Test
+    public void resendsInSubmitOrderAfterReconnect() {
+        retransmitter = create(new RetryPolicy(3, 0, 1000, 2, 0));
+        for (int i = 1; i <= 5; i++) {
+            retransmitter.track("u" + i, new byte[1], null);
+        }
+        retransmitter.linkDown();
+        assertTrue(retransmitter.hasDue());
+        // 每批最多2条
+        retransmitter.linkUp();
+        assertEquals("[u1, u2]", sent.toString());
+        retransmitter.linkUp();
+        retransmitter.linkUp();
+        assertEquals("[u1, u2, u3, u4, u5]", sent.toString());
+        assertFalse(retransmitter.hasDue());
+        assertEquals(5, retransmitter.size());
+    }
+
+    @Test
+    public void keepsMessagesWhileDisconnected() {
+        retransmitter.track("u1", new byte[1], null);
+        retransmitter.track("u2", new byte[1], null);
+        retransmitter.linkDown();
+        connected = false;
+        retransmitter.linkUp();
+        assertEquals(0, sent.size());
+        assertTrue(retransmitter.hasDue());
+        connected = true;
+        retransmitter.linkUp();
+        assertEquals("[u1, u2]", sent.toString());
+        assertTrue(drained > 0);
+    }
+
+    @Test
+    public void untrackRemovesMessage() {
+        retransmitter.track("u1", new byte[1], null);
+        retransmitter.untrack("u1");
+        assertEquals(0, retransmitter.size());
+        retransmitter.linkDown();
+        assertFalse(retransmitter.hasDue());
+    }
+}
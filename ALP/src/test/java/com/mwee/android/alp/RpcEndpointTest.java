@@ -0,0 +1,160 @@
+package com.mwee.android.alp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @Description: 请求和响应：按请求id匹配响应、错误响应、链路断开只结束自己的请求、按方法名分发请求
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class RpcEndpointTest {
+    private static final long TIMEOUT = 60 * 1000;
+
+    /**
+     * 记录回复的响应
+     */
+    private static class Response {
+        private final long requestId;
+        private final String payload;
+        private final boolean error;
+
+        private Response(long requestId, byte[] payload, boolean error) {
+            this.requestId = requestId;
+            this.payload = new String(payload, Configure.UTF_8);
+            this.error = error;
+        }
+    }
+
+    private final List<Response> responses = new ArrayList<>();
+    private final RpcEndpoint.IResponder responder = (requestId, payload, error) -> responses.add(new Response(requestId, payload, error));
+    private RpcEndpoint endpoint;
+
+    @Before
+    public void setUp() {
+        endpoint = new RpcEndpoint("RpcEndpointTest");
+    }
+
+    private static Frame decode(PooledBuffer encoded) {
+        byte[] bytes = FrameCodecTest.toBytes(encoded);
+        Frame frame = new Frame(FrameCodec.MAX_FRAME_LENGTH);
+        assertTrue(FrameCodec.decode(bytes, 0, bytes.length, frame));
+        return frame;
+    }
+
+    private static Frame response(long requestId, String payload, boolean error) {
+        return decode(FrameCodec.encodeResponse(BufferPool.heap(), requestId, payload.getBytes(Configure.UTF_8), error));
+    }
+
+    private static Frame request(long requestId, String method, String payload) {
+        return decode(FrameCodec.encodeRequest(BufferPool.heap(), requestId, method, payload.getBytes(Configure.UTF_8)));
+    }
+
+    private static Exception failure(RpcFuture future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return (Exception) e.getCause();
+        }
+        fail("request succeeded");
+        return null;
+    }
+
+    @Test
+    public void responseCompletesMatchingRequest() throws Exception {
+        RpcFuture first = new RpcFuture(null);
+        RpcFuture second = new RpcFuture(null);
+        long firstId = endpoint.add(first, "link", TIMEOUT);
+        long secondId = endpoint.add(second, "link", TIMEOUT);
+        // 响应的顺序和请求的顺序无关
+        endpoint.receiveResponse("link", response(secondId, "b", false));
+        assertFalse(first.isDone());
+        assertEquals("b", new String(second.get(1, TimeUnit.SECONDS), Configure.UTF_8));
+        endpoint.receiveResponse("link", response(firstId, "a", false));
+        assertEquals("a", new String(first.get(1, TimeUnit.SECONDS), Configure.UTF_8));
+        assertEquals(0, endpoint.metrics().getPending());
+        assertEquals(2, endpoint.metrics().getCompleted());
+    }
+
+    @Test
+    public void errorResponseFails() throws Exception {
+        RpcFuture future = new RpcFuture(null);
+        long id = endpoint.add(future, "link", TIMEOUT);
+        endpoint.receiveResponse("link", response(id, "boom", true));
+        Exception e = failure(future);
+        assertTrue(e instanceof RpcException);
+        assertEquals("boom", e.getMessage());
+    }
+
+    @Test
+    public void unknownResponseIsIgnored() {
+        RpcFuture future = new RpcFuture(null);
+        long id = endpoint.add(future, "link", TIMEOUT);
+        endpoint.receiveResponse("link", response(id + 100, "late", false));
+        assertFalse(future.isDone());
+        assertEquals(1, endpoint.metrics().getPending());
+    }
+
+    @Test
+    public void responseFromOtherLinkIsIgnored() throws Exception {
+        RpcFuture future = new RpcFuture(null);
+        long id = endpoint.add(future, "link1", TIMEOUT);
+        endpoint.receiveResponse("link2", response(id, "forged", false));
+        assertFalse(future.isDone());
+        endpoint.receiveResponse("link1", response(id, "real", false));
+        assertEquals("real", new String(future.get(1, TimeUnit.SECONDS), Configure.UTF_8));
+    }
+
+    @Test
+    public void failAllOnlyFailsOwnerRequests() throws Exception {
+        RpcFuture mine = new RpcFuture(null);
+        RpcFuture other = new RpcFuture(null);
+        endpoint.add(mine, "link1", TIMEOUT);
+        endpoint.add(other, "link2", TIMEOUT);
+        endpoint.failAll("link1", new IOException("disconnected"));
+        assertTrue(failure(mine) instanceof IOException);
+        assertFalse(other.isDone());
+    }
+
+    @Test
+    public void requestDispatchedByMethod() {
+        endpoint.registerHandler("echo", (source, payload) -> (source + ":" + new String(payload, Configure.UTF_8)).getBytes(Configure.UTF_8));
+        endpoint.registerHandler("fail", (source, payload) -> {
+            throw new IllegalStateException("bad request");
+        });
+        endpoint.receiveRequest("pos", request(1, "echo", "hi"), responder);
+        endpoint.receiveRequest("pos", request(2, "fail", ""), responder);
+        endpoint.receiveRequest("pos", request(3, "missing", ""), responder);
+
+        assertEquals(3, responses.size());
+        assertEquals(1, responses.get(0).requestId);
+        assertEquals("pos:hi", responses.get(0).payload);
+        assertFalse(responses.get(0).error);
+        assertTrue(responses.get(1).error);
+        assertTrue(responses.get(1).payload.contains("bad request"));
+        assertTrue(responses.get(2).error);
+    }
+
+    @Test
+    public void requestHandledOnExecutor() {
+        final List<Runnable> tasks = new ArrayList<>();
+        endpoint.setExecutor(tasks::add);
+        endpoint.registerHandler("echo", (source, payload) -> payload);
+        endpoint.receiveRequest(null, request(1, "echo", "hi"), responder);
+        assertTrue(responses.isEmpty());
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals("hi", responses.get(0).payload);
+    }
+}
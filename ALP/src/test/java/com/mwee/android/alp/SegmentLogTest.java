@@ -0,0 +1,120 @@
+package com.mwee.android.alp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 分段日志：重启后重新加载尚未消费的记录，消费完的分段被删除
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class SegmentLogTest {
+    private static final int SEGMENT_SIZE = 1024;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("segment-log").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] payload(int index) {
+        byte[] payload = new byte[200];
+        payload[0] = (byte) index;
+        payload[payload.length - 1] = (byte) index;
+        return payload;
+    }
+
+    private int segmentCount() {
+        String[] names = dir.list();
+        return names == null ? 0 : names.length;
+    }
+
+    @Test
+    public void reloadsLiveRecordsAfterRestart() throws IOException {
+        SegmentLog log = new SegmentLog(dir, SEGMENT_SIZE);
+        assertEquals(0, log.load().size());
+        List<SegmentLog.Record> records = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            records.add(log.append(i % 2 == 0 ? "even" : "odd", payload(i)));
+        }
+        assertTrue(segmentCount() > 1);
+        for (int i = 0; i < 4; i++) {
+            log.consume(records.get(i));
+        }
+        log.close();
+
+        SegmentLog reopened = new SegmentLog(dir, SEGMENT_SIZE);
+        List<SegmentLog.Record> loaded = reopened.load();
+        assertEquals(8, loaded.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            SegmentLog.Record record = loaded.get(i);
+            assertEquals(i % 2 == 0 ? "even" : "odd", record.getKey());
+            assertEquals(records.get(i + 4).getTimestamp(), record.getTimestamp());
+            assertEquals(records.get(i + 4).getId(), record.getId());
+            assertArrayEquals(payload(i + 4), reopened.read(record));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void appendsAfterReload() throws IOException {
+        SegmentLog log = new SegmentLog(dir, SEGMENT_SIZE);
+        log.load();
+        log.append("key", payload(1));
+        log.close();
+
+        SegmentLog reopened = new SegmentLog(dir, SEGMENT_SIZE);
+        assertEquals(1, reopened.load().size());
+        reopened.append("key", payload(2));
+        reopened.close();
+
+        SegmentLog last = new SegmentLog(dir, SEGMENT_SIZE);
+        List<SegmentLog.Record> loaded = last.load();
+        assertEquals(2, loaded.size());
+        assertArrayEquals(payload(1), last.read(loaded.get(0)));
+        assertArrayEquals(payload(2), last.read(loaded.get(1)));
+        last.close();
+    }
+
+    @Test
+    public void consumedSegmentsAreDeleted() throws IOException {
+        SegmentLog log = new SegmentLog(dir, SEGMENT_SIZE);
+        log.load();
+        List<SegmentLog.Record> records = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            records.add(log.append("key", payload(i)));
+        }
+        int before = segmentCount();
+        for (SegmentLog.Record record : records) {
+            log.consume(record);
+        }
+        // 只剩当前写入的分段
+        assertTrue(segmentCount() < before);
+        assertEquals(1, segmentCount());
+        log.close();
+        assertEquals(0, new SegmentLog(dir, SEGMENT_SIZE).load().size());
+        assertEquals(0, segmentCount());
+    }
+}
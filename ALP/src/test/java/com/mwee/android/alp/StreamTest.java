@@ -0,0 +1,145 @@
+package com.mwee.android.alp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 流消息：分段发送、交错的流按标识重组、读取失败和链路断开时中止
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class StreamTest {
+
+    /**
+     * 按流标识拼接收到的各段
+     */
+    private static class CollectingReceiver implements IStreamReceiver {
+        private final Map<String, ByteArrayOutputStream> contents = new HashMap<>();
+        private final List<String> finished = new ArrayList<>();
+        private final List<String> aborted = new ArrayList<>();
+
+        @Override
+        public void receiveChunk(String uniq, long offset, byte[] chunk, boolean last) {
+            ByteArrayOutputStream out = contents.get(uniq);
+            if (out == null) {
+                out = new ByteArrayOutputStream();
+                contents.put(uniq, out);
+            }
+            assertEquals(out.size(), offset);
+            out.write(chunk, 0, chunk.length);
+            if (last) {
+                finished.add(uniq);
+            }
+        }
+
+        @Override
+        public void streamAborted(String uniq) {
+            aborted.add(uniq);
+        }
+    }
+
+    private final InboundStreams inbound = new InboundStreams();
+    private final CollectingReceiver receiver = new CollectingReceiver();
+
+    private static byte[] content(int length, int seed) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + seed);
+        }
+        return content;
+    }
+
+    /**
+     * 编码下一段并交给接收方
+     */
+    private void transfer(OutboundStream stream) {
+        byte[] bytes = FrameCodecTest.toBytes(stream.next(BufferPool.heap()));
+        Frame frame = new Frame(FrameCodec.MAX_FRAME_LENGTH);
+        assertEquals(bytes.length, FrameCodec.frameLength(bytes, 0, bytes.length));
+        assertTrue(FrameCodec.decode(bytes, 0, bytes.length, frame));
+        assertEquals(Configure.MSG_TYPE_STREAM, frame.type);
+        inbound.receive(frame, receiver);
+    }
+
+    @Test
+    public void interleavedStreamsReassemble() {
+        byte[] first = content(OutboundStream.CHUNK_SIZE * 2 + 100, 1);
+        byte[] second = content(OutboundStream.CHUNK_SIZE + 1, 2);
+        OutboundStream a = new OutboundStream("a", new ByteArrayInputStream(first));
+        OutboundStream b = new OutboundStream("b", new ByteArrayInputStream(second));
+        while (!a.isFinished() || !b.isFinished()) {
+            if (!a.isFinished()) {
+                transfer(a);
+            }
+            if (!b.isFinished()) {
+                transfer(b);
+            }
+        }
+        a.close();
+        b.close();
+        assertEquals(first.length, a.getOffset());
+        assertArrayEquals(first, receiver.contents.get("a").toByteArray());
+        assertArrayEquals(second, receiver.contents.get("b").toByteArray());
+        assertEquals(2, receiver.finished.size());
+        assertTrue(receiver.aborted.isEmpty());
+    }
+
+    @Test
+    public void readFailureAborts() {
+        InputStream failing = new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ >= OutboundStream.CHUNK_SIZE) {
+                    throw new IOException("disk removed");
+                }
+                return 0;
+            }
+        };
+        OutboundStream stream = new OutboundStream("a", failing);
+        transfer(stream);
+        assertFalse(stream.isFinished());
+        transfer(stream);
+        assertTrue(stream.isFinished());
+        stream.close();
+        assertEquals("[a]", receiver.aborted.toString());
+        assertTrue(receiver.finished.isEmpty());
+    }
+
+    @Test
+    public void disconnectAbortsUnfinished() {
+        OutboundStream a = new OutboundStream("a", new ByteArrayInputStream(content(OutboundStream.CHUNK_SIZE * 2, 1)));
+        OutboundStream b = new OutboundStream("b", new ByteArrayInputStream(content(10, 2)));
+        transfer(a);
+        transfer(b);
+        inbound.abortAll(receiver);
+        a.close();
+        b.close();
+        // b已经结束，只有a中止
+        assertEquals("[a]", receiver.aborted.toString());
+        assertEquals("[b]", receiver.finished.toString());
+    }
+
+    @Test
+    public void unknownStreamIsIgnored() {
+        byte[] bytes = FrameCodecTest.toBytes(FrameCodec.encodeChunk(BufferPool.heap(), 999, null, 100, new byte[10], 10, false, false));
+        Frame frame = new Frame(FrameCodec.MAX_FRAME_LENGTH);
+        assertTrue(FrameCodec.decode(bytes, 0, bytes.length, frame));
+        inbound.receive(frame, receiver);
+        assertTrue(receiver.contents.isEmpty());
+    }
+}
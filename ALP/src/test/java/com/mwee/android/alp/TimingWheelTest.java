@@ -0,0 +1,93 @@
+package com.mwee.android.alp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 时间轮：到期、取消、跨多圈的任务
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class TimingWheelTest {
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() {
+        // 10毫秒一个刻度，一圈8个刻度
+        wheel = new TimingWheel("TimingWheelTest", 10, 8) {
+            @Override
+            long now() {
+                return System.nanoTime() / 1000000;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    public void expiresAfterDelay() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        TimingWheel.Timeout timeout = wheel.newTimeout(latch::countDown, 50);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("expired after " + elapsed + "ms", elapsed >= 40);
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void expiresAfterSeveralRounds() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        // 一圈80毫秒，需要转两圈以上
+        wheel.newTimeout(latch::countDown, 200);
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("expired after " + elapsed + "ms", elapsed >= 190);
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRun() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger(0);
+        TimingWheel.Timeout timeout = wheel.newTimeout(runs::incrementAndGet, 30);
+        assertTrue(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        final CountDownLatch latch = new CountDownLatch(1);
+        wheel.newTimeout(latch::countDown, 60);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void expiresInDeadlineOrder() throws InterruptedException {
+        final StringBuffer order = new StringBuffer();
+        final CountDownLatch latch = new CountDownLatch(3);
+        wheel.newTimeout(() -> {
+            order.append('c');
+            latch.countDown();
+        }, 120);
+        wheel.newTimeout(() -> {
+            order.append('a');
+            latch.countDown();
+        }, 20);
+        wheel.newTimeout(() -> {
+            order.append('b');
+            latch.countDown();
+        }, 60);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals("abc", order.toString());
+    }
+}
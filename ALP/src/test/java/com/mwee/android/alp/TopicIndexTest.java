@@ -0,0 +1,74 @@
+package com.mwee.android.alp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description: 主题索引：订阅、取消订阅和链路断开后的清理
+ * @author: Xiaolong
+ * @Date: 2018/10/18
+ */
+public class TopicIndexTest {
+    private TopicIndex<String> index;
+
+    @Before
+    public void setUp() {
+        index = new TopicIndex<>();
+    }
+
+    private static List<String> sorted(Set<String> links) {
+        List<String> list = new ArrayList<>(links);
+        Collections.sort(list);
+        return list;
+    }
+
+    @Test
+    public void subscribersOfTopic() {
+        index.subscribe("menu", "link1");
+        index.subscribe("menu", "link2");
+        index.subscribe("order", "link2");
+        assertEquals("[link1, link2]", sorted(index.subscribers("menu")).toString());
+        assertEquals("[link2]", sorted(index.subscribers("order")).toString());
+        assertTrue(index.subscribers("unknown").isEmpty());
+    }
+
+    @Test
+    public void unsubscribeOneTopic() {
+        index.subscribe("menu", "link1");
+        index.subscribe("order", "link1");
+        index.unsubscribe("menu", "link1");
+        assertTrue(index.subscribers("menu").isEmpty());
+        assertEquals("[link1]", sorted(index.subscribers("order")).toString());
+        // 没有订阅过的主题和链路
+        index.unsubscribe("menu", "link2");
+        index.unsubscribe("unknown", "link1");
+    }
+
+    @Test
+    public void removeLinkFromAllTopics() {
+        index.subscribe("menu", "link1");
+        index.subscribe("order", "link1");
+        index.subscribe("order", "link2");
+        index.remove("link1");
+        assertTrue(index.subscribers("menu").isEmpty());
+        assertEquals("[link2]", sorted(index.subscribers("order")).toString());
+        // 重复移除不报错
+        index.remove("link1");
+    }
+
+    @Test
+    public void resubscribeAfterRemove() {
+        index.subscribe("menu", "link1");
+        index.remove("link1");
+        index.subscribe("menu", "link1");
+        assertEquals("[link1]", sorted(index.subscribers("menu")).toString());
+    }
+}